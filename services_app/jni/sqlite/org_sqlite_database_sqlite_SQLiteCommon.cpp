@@ -1352,7 +1352,10 @@ namespace org_opendatakit {
     ** where iStart is the index of the first row copied into the CursorWindow.
     ** If the countAllRows argument is true, nRow is the total number of rows
     ** returned by the query. Otherwise, nRow is one greater than the index of
-    ** the last row copied into the CursorWindow.
+    ** the last row copied into the CursorWindow, plus one more if the query
+    ** returned a row that did not fit. I.e., if nRow is equal to
+    ** (iStart + rows in the window), every row of the query was enumerated
+    ** and nRow is the total number of rows.
     */
     jlong executeIntoCursorWindow(JNIEnv *env, jlong connectionPtr,
                                   jlong statementPtr,
@@ -1435,7 +1438,12 @@ namespace org_opendatakit {
                     /* If the CursorWindow is still full and the countAllRows flag is not
                     ** set, break out of the loop here. If countAllRows is set, continue
                     ** so as to set variable nRow correctly.  */
-                    if (bOk == 0 && countAllRows == 0) break;
+                    if (bOk == 0 && countAllRows == 0) {
+                        /* Count the row that did not fit so that the caller can
+                        ** tell that the query has more rows than the window holds. */
+                        nRow++;
+                        break;
+                    }
                 }
             }
 
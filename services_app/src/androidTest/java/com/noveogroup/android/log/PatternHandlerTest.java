@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.noveogroup.android.log;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Per-call cost of the synchronous and asynchronous PatternHandler paths.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class PatternHandlerTest extends AndroidTestCase {
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 20000;
+
+    public void testDatePatternCachedClock() {
+        Pattern p = Pattern.compile("%d");
+        long t = 1465000000123L;
+        String a = p.apply(null, "test", Logger.Level.INFO, t, "main");
+        String b = p.apply(null, "test", Logger.Level.INFO, t + 1L, "main");
+        String c = p.apply(null, "test", Logger.Level.INFO, t + 1000L, "main");
+        assertTrue(a.endsWith(".123"));
+        assertTrue(b.endsWith(".124"));
+        assertEquals(a.substring(0, a.length() - 3), b.substring(0, b.length() - 3));
+        assertTrue(c.endsWith(".123"));
+        assertFalse(a.equals(c));
+    }
+
+    public void testPerCallCost() {
+        PatternHandler sync = new PatternHandler(Logger.Level.INFO, "%logger", "%date %caller%n", false);
+        PatternHandler async = new PatternHandler(Logger.Level.INFO, "%logger", "%date %caller%n", true);
+        AsyncLogWriter writer = AsyncLogWriter.getInstance();
+
+        long syncNanos = run(sync, WARMUP, ITERATIONS);
+        long asyncNanos = run(async, WARMUP, ITERATIONS);
+        assertTrue(writer.flush(60000L));
+
+        // disabled levels should cost next to nothing on either path
+        long disabledNanos = run(async, WARMUP, ITERATIONS, Logger.Level.DEBUG);
+
+        Log.i("PatternHandlerTest", "testPerCallCost: sync: " + (syncNanos / ITERATIONS)
+                + " ns/call async: " + (asyncNanos / ITERATIONS) + " ns/call disabled: "
+                + (disabledNanos / ITERATIONS) + " ns/call dropped: " + writer.getDroppedCount()
+                + " synchronous: " + writer.getSynchronousCount());
+
+        assertTrue(asyncNanos < syncNanos);
+        assertTrue(disabledNanos < asyncNanos);
+    }
+
+    private long run(PatternHandler handler, int warmup, int iterations) {
+        return run(handler, warmup, iterations, Logger.Level.INFO);
+    }
+
+    private long run(PatternHandler handler, int warmup, int iterations, Logger.Level level) {
+        for (int i = 0; i < warmup; ++i) {
+            handler.print("bench", level, null, "row %d of table %s", i, "benchTable");
+        }
+        AsyncLogWriter.getInstance().flush(60000L);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            handler.print("bench", level, null, "row %d of table %s", i, "benchTable");
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package fi.iki.elonen;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import org.opendatakit.TestConsts;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.database.AndroidConnectFactory;
+import org.opendatakit.common.android.database.OdkConnectionFactorySingleton;
+import org.opendatakit.common.android.database.OdkConnectionInterface;
+import org.opendatakit.common.android.utilities.ODKDataUtils;
+import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.database.service.OdkDbHandle;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the request validation, paging and conditional responses of the
+ * web server's JSON data API.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class DataQueryHandlerTest extends AndroidTestCase {
+
+    private static final String APPNAME = TestConsts.APPNAME;
+    private static final OdkDbHandle uniqueKey = new OdkDbHandle(
+        DataQueryHandlerTest.class.getSimpleName() + AndroidConnectFactory.INTERNAL_TYPE_SUFFIX);
+
+    private static final String tableId = "dataQueryTable";
+    private static final String testCol = "testColumn";
+    private static final int numRows = 5;
+
+    private OdkConnectionInterface db;
+    private OrderedColumns orderedColumns;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ODKFileUtils.verifyExternalStorageAvailability();
+        ODKFileUtils.assertDirectoryStructure(APPNAME);
+        AndroidConnectFactory.configure();
+
+        // +1 referenceCount if db is returned (non-null)
+        db = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+            .getConnection(APPNAME, uniqueKey);
+
+        List<Column> columns = new ArrayList<Column>();
+        columns.add(new Column(testCol, testCol, ElementDataType.integer.name(), "[]"));
+        orderedColumns = ODKDatabaseImplUtils.get()
+            .createOrOpenDBTableWithColumns(db, APPNAME, tableId, columns);
+        for (int i = 0; i < numRows; ++i) {
+            insertRow(i);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (db != null) {
+            ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, APPNAME, tableId);
+            db.releaseReference();
+        }
+        super.tearDown();
+    }
+
+    private void insertRow(int value) {
+        ContentValues cvValues = new ContentValues();
+        cvValues.put(testCol, value);
+        ODKDatabaseImplUtils.get().insertRowWithId(db, tableId, orderedColumns, cvValues,
+            ODKDataUtils.genUUID(), "anonymous", "en_US");
+    }
+
+    private static NanoHTTPD.Response get(Map<String, String> headers, Map<String, String> parms) {
+        return new DataQueryHandler().serve(APPNAME, tableId, NanoHTTPD.Method.GET, headers, parms);
+    }
+
+    /**
+     * Read the JSON body of the response; this closes the stream and so
+     * releases the database connection of the response.
+     */
+    private static Map<String, Object> readBody(NanoHTTPD.Response response) throws Exception {
+        InputStream in = response.getData();
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> body = ODKFileUtils.mapper.readValue(in, Map.class);
+            return body;
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testUnknownFilterColumn_ExpectBadRequest() {
+        Map<String, String> parms = new HashMap<String, String>();
+        parms.put(DataQueryHandler.PARAM_FILTERS, "[[\"noSuchColumn\",\"=\",1]]");
+        NanoHTTPD.Response response = get(new HashMap<String, String>(), parms);
+        assertEquals(NanoHTTPD.Response.Status.BAD_REQUEST, response.getStatus());
+    }
+
+    public void testUnknownFilterOperator_ExpectBadRequest() {
+        Map<String, String> parms = new HashMap<String, String>();
+        parms.put(DataQueryHandler.PARAM_FILTERS,
+            "[[\"" + testCol + "\",\"= 0) UNION SELECT * FROM _key_value_store_active --\",1]]");
+        NanoHTTPD.Response response = get(new HashMap<String, String>(), parms);
+        assertEquals(NanoHTTPD.Response.Status.BAD_REQUEST, response.getStatus());
+
+        // a unary operator must not be given a value
+        parms.put(DataQueryHandler.PARAM_FILTERS, "[[\"" + testCol + "\",\"IS NULL\",1]]");
+        response = get(new HashMap<String, String>(), parms);
+        assertEquals(NanoHTTPD.Response.Status.BAD_REQUEST, response.getStatus());
+    }
+
+    public void testFilterBindsValues_ExpectPass() throws Exception {
+        Map<String, String> parms = new HashMap<String, String>();
+        parms.put(DataQueryHandler.PARAM_COLUMNS, testCol);
+        parms.put(DataQueryHandler.PARAM_FILTERS, "[[\"" + testCol + "\",\">=\",3]]");
+        NanoHTTPD.Response response = get(new HashMap<String, String>(), parms);
+        assertEquals(NanoHTTPD.Response.Status.OK, response.getStatus());
+
+        List<?> rows = (List<?>) readBody(response).get("rows");
+        assertEquals(numRows - 3, rows.size());
+    }
+
+    public void testPagingReportsHasMore_ExpectPass() throws Exception {
+        Map<String, String> parms = new HashMap<String, String>();
+        parms.put(DataQueryHandler.PARAM_COLUMNS, testCol);
+        parms.put(DataQueryHandler.PARAM_ORDER_BY, testCol);
+        parms.put(DataQueryHandler.PARAM_LIMIT, "2");
+
+        parms.put(DataQueryHandler.PARAM_OFFSET, "0");
+        Map<String, Object> body = readBody(get(new HashMap<String, String>(), parms));
+        List<?> rows = (List<?>) body.get("rows");
+        assertEquals(2, rows.size());
+        assertEquals(0, ((Number) ((List<?>) rows.get(0)).get(0)).intValue());
+        assertEquals(Boolean.TRUE, body.get("hasMore"));
+
+        parms.put(DataQueryHandler.PARAM_OFFSET, "4");
+        body = readBody(get(new HashMap<String, String>(), parms));
+        rows = (List<?>) body.get("rows");
+        assertEquals(1, rows.size());
+        assertEquals(4, ((Number) ((List<?>) rows.get(0)).get(0)).intValue());
+        assertEquals(Boolean.FALSE, body.get("hasMore"));
+    }
+
+    public void testMatchingETagReturnsNotModified_ExpectPass() throws Exception {
+        Map<String, String> parms = new HashMap<String, String>();
+        parms.put(DataQueryHandler.PARAM_COLUMNS, testCol);
+
+        NanoHTTPD.Response response = get(new HashMap<String, String>(), parms);
+        assertEquals(NanoHTTPD.Response.Status.OK, response.getStatus());
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+        readBody(response);
+
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("if-none-match", etag);
+        response = get(headers, parms);
+        assertEquals(NanoHTTPD.Response.Status.NOT_MODIFIED, response.getStatus());
+        assertEquals(etag, response.getHeader("ETag"));
+
+        // a different query does not match
+        parms.put(DataQueryHandler.PARAM_LIMIT, "1");
+        response = get(headers, parms);
+        assertEquals(NanoHTTPD.Response.Status.OK, response.getStatus());
+        readBody(response);
+        parms.remove(DataQueryHandler.PARAM_LIMIT);
+
+        // nor does the same query once a row of the table has changed
+        insertRow(numRows);
+        response = get(headers, parms);
+        assertEquals(NanoHTTPD.Response.Status.OK, response.getStatus());
+        assertFalse(etag.equals(response.getHeader("ETag")));
+        readBody(response);
+    }
+}
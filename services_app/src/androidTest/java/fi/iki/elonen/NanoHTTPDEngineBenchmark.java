@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package fi.iki.elonen;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the request throughput of the two connection engines over
+ * keep-alive connections, and checks that pipelined requests are answered
+ * in order.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class NanoHTTPDEngineBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "NanoHTTPDEngineBenchmark";
+
+    private static final int[] CONNECTION_COUNTS = {1, 10, 100};
+
+    private static final int REQUESTS_PER_CONNECTION = 50;
+
+    private static class EchoServer extends NanoHTTPD {
+        EchoServer(Engine engine) {
+            super("127.0.0.1", 0);
+            setEngine(engine);
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            return new Response(Response.Status.OK, MIME_PLAINTEXT, "hello " + session.getUri());
+        }
+    }
+
+    private static void sendRequest(OutputStream out, String uri) throws IOException {
+        out.write(("GET " + uri + " HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: keep-alive\r\n\r\n").getBytes("UTF-8"));
+    }
+
+    private static String readResponse(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        while (header.length() < 4 || header.lastIndexOf("\r\n\r\n") != header.length() - 4) {
+            int c = in.read();
+            if (c < 0) {
+                throw new EOFException();
+            }
+            header.append((char) c);
+        }
+        int length = 0;
+        for (String line : header.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] body = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int n = in.read(body, offset, length - offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            offset += n;
+        }
+        return new String(body, "UTF-8");
+    }
+
+    private void verifyPipelining(NanoHTTPD.Engine engine) throws Exception {
+        EchoServer server = new EchoServer(engine);
+        server.start();
+        try {
+            Socket s = new Socket("127.0.0.1", server.getListeningPort());
+            try {
+                OutputStream out = s.getOutputStream();
+                sendRequest(out, "/a");
+                sendRequest(out, "/b");
+                out.flush();
+                InputStream in = s.getInputStream();
+                assertEquals("hello /a", readResponse(in));
+                assertEquals("hello /b", readResponse(in));
+            } finally {
+                s.close();
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private double measure(NanoHTTPD.Engine engine, final int connections) throws Exception {
+        final EchoServer server = new EchoServer(engine);
+        server.start();
+        try {
+            final AtomicInteger failures = new AtomicInteger(0);
+            List<Thread> clients = new ArrayList<Thread>();
+            for (int i = 0; i < connections; ++i) {
+                clients.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            Socket s = new Socket("127.0.0.1", server.getListeningPort());
+                            try {
+                                s.setTcpNoDelay(true);
+                                OutputStream out = s.getOutputStream();
+                                InputStream in = s.getInputStream();
+                                for (int j = 0; j < REQUESTS_PER_CONNECTION; ++j) {
+                                    sendRequest(out, "/" + j);
+                                    if (!("hello /" + j).equals(readResponse(in))) {
+                                        failures.incrementAndGet();
+                                    }
+                                }
+                            } finally {
+                                s.close();
+                            }
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread t : clients) {
+                t.start();
+            }
+            for (Thread t : clients) {
+                t.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(0, failures.get());
+            return (connections * REQUESTS_PER_CONNECTION) / (elapsed / 1.0e9);
+        } finally {
+            server.stop();
+        }
+    }
+
+    public void testPipeliningBlocking() throws Exception {
+        verifyPipelining(NanoHTTPD.Engine.BLOCKING);
+    }
+
+    public void testPipeliningSelector() throws Exception {
+        verifyPipelining(NanoHTTPD.Engine.SELECTOR);
+    }
+
+    public void testThroughput() throws Exception {
+        for (int connections : CONNECTION_COUNTS) {
+            for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+                double rate = measure(engine, connections);
+                Log.i(TAG, engine.name() + " connections: " + connections + " requests/sec: " + Math.round(rate));
+            }
+        }
+    }
+}
@@ -2739,6 +2739,68 @@ public abstract class AbstractODKDatabaseUtilsTest extends AndroidTestCase {
     ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
   }
 
+  /*
+   * Test that the latest-savepoint projection follows checkpoints and saves
+   */
+  public void testGetMostRecentRowWithIdTracksCheckpoints_ExpectPass() {
+    String tableId = testTable;
+    String testCol = "testColumn";
+    String testColType = ElementDataType.string.name();
+    String testVal = "test";
+    String testVal2 = "test2";
+    String rowId = ODKDataUtils.genUUID();
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(testCol, testCol, testColType, "[]"));
+    OrderedColumns orderedColumns = ODKDatabaseImplUtils.get()
+            .createOrOpenDBTableWithColumns(db, getAppName(), tableId, columns);
+
+    ContentValues cvValues = new ContentValues();
+    cvValues.put(testCol, testVal);
+    ODKDatabaseImplUtils.get().insertRowWithId(db, tableId, orderedColumns, cvValues, rowId,
+        activeUser, currentLocale);
+
+    UserTable table = ODKDatabaseImplUtils.get().getMostRecentRowWithId(db, getAppName(), tableId,
+        orderedColumns, rowId);
+    assertEquals(1, table.getNumberOfRows());
+    assertEquals(testVal, table.getRowAtIndex(0).getRawDataOrMetadataByElementKey(testCol));
+
+    ContentValues updatedCvValues = new ContentValues();
+    updatedCvValues.put(testCol, testVal2);
+    ODKDatabaseImplUtils.get().insertCheckpointRowWithId(db, tableId, orderedColumns,
+        updatedCvValues, rowId, activeUser, currentLocale);
+
+    table = ODKDatabaseImplUtils.get().getMostRecentRowWithId(db, getAppName(), tableId,
+        orderedColumns, rowId);
+    assertEquals(1, table.getNumberOfRows());
+    assertEquals(testVal2, table.getRowAtIndex(0).getRawDataOrMetadataByElementKey(testCol));
+
+    // the most recent saved revision is still the original row
+    String sel = "SELECT * FROM " + LatestSavepointUtils.LATEST_SAVEPOINT_TABLE_NAME + " WHERE "
+        + LatestSavepointUtils.TABLE_ID + "=? AND " + LatestSavepointUtils.ID + "=?";
+    Cursor cursor = ODKDatabaseImplUtils.get().rawQuery(db, sel, new String[] { tableId, rowId });
+    assertEquals(1, cursor.getCount());
+    cursor.moveToFirst();
+    String latest = cursor.getString(cursor.getColumnIndex(LatestSavepointUtils.SAVEPOINT_TIMESTAMP));
+    String saved = cursor.getString(
+        cursor.getColumnIndex(LatestSavepointUtils.SAVED_SAVEPOINT_TIMESTAMP));
+    cursor.close();
+    assertTrue(latest.compareTo(saved) > 0);
+
+    ODKDatabaseImplUtils.get().deleteLastCheckpointRowWithId(db, getAppName(), tableId, rowId);
+
+    table = ODKDatabaseImplUtils.get().getMostRecentRowWithId(db, getAppName(), tableId,
+        orderedColumns, rowId);
+    assertEquals(1, table.getNumberOfRows());
+    assertEquals(testVal, table.getRowAtIndex(0).getRawDataOrMetadataByElementKey(testCol));
+
+    // Drop the table now that the test is done
+    ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
+
+    cursor = ODKDatabaseImplUtils.get().rawQuery(db, sel, new String[] { tableId, rowId });
+    assertEquals(0, cursor.getCount());
+    cursor.close();
+  }
+
   /*
    * Test change data rows to new row state
    */
@@ -3214,6 +3276,91 @@ public abstract class AbstractODKDatabaseUtilsTest extends AndroidTestCase {
     ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
   }
 
+  /*
+   * Test resolving the server conflicts of a list of rows at once
+   * Place several rows in conflict and take the server's values for all but the last
+   */
+  public void testResolveServerConflictsTakeServerRows_ExpectPass() {
+    String tableId = testTable;
+    String testCol = "testColumn";
+    String testColType = ElementDataType.integer.name();
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(testCol, testCol, testColType, "[]"));
+    OrderedColumns orderedColumns = ODKDatabaseImplUtils.get()
+        .createOrOpenDBTableWithColumns(db, getAppName(), tableId, columns);
+    int testVal = 5;
+    // enough rows to span a full and a padded IN-list of rowIds
+    int numRows = 25;
+
+    String[] rowIds = new String[numRows];
+    for (int i = 0; i < numRows; ++i) {
+      ContentValues cvValues = new ContentValues();
+      rowIds[i] = ODKDataUtils.genUUID();
+      cvValues.put(testCol, testVal);
+      cvValues.put(DataTableColumns.ROW_ETAG, ODKDataUtils.genUUID());
+      cvValues.put(DataTableColumns.SYNC_STATE, SyncState.changed.name());
+      ODKDatabaseImplUtils.get().insertRowWithId(db, tableId, orderedColumns, cvValues,
+          rowIds[i], activeUser, currentLocale);
+
+      // server has a change...
+      ContentValues updates = new ContentValues();
+      updates.put(DataTableColumns.CONFLICT_TYPE, ConflictType.SERVER_UPDATED_UPDATED_VALUES);
+      updates.put(DataTableColumns.SYNC_STATE, SyncState.in_conflict.name());
+      updates.put(DataTableColumns.ROW_ETAG, ODKDataUtils.genUUID());
+      updates.put(testCol, testVal + i);
+
+      ODKDatabaseImplUtils.get().placeRowIntoServerConflictWithId(db, tableId, orderedColumns,
+          updates, rowIds[i], ConflictType.LOCAL_UPDATED_UPDATED_VALUES, activeUser,
+          currentLocale);
+    }
+
+    // leave the last row out of the list; it must stay in conflict
+    List<String> listed = Arrays.asList(rowIds).subList(0, numRows - 1);
+    final int[] lastProgress = { 0, 0 };
+    ODKDatabaseImplUtils.ConflictResolutionResult result = ODKDatabaseImplUtils.get()
+        .resolveServerConflictsTakeServerRows(db, getAppName(), tableId, listed, activeUser,
+            currentLocale, new ODKDatabaseImplUtils.ConflictResolutionProgressListener() {
+              @Override
+              public void resolutionProgress(int rowsProcessed, int totalRows) {
+                lastProgress[0] = rowsProcessed;
+                lastProgress[1] = totalRows;
+              }
+            });
+
+    assertEquals(numRows - 1, result.getResolvedCount());
+    assertTrue(result.getFailures().isEmpty());
+    assertEquals(numRows - 1, lastProgress[0]);
+    assertEquals(numRows - 1, lastProgress[1]);
+
+    // every listed row is back to a single, conflict-free record holding the server's value
+    for (int i = 0; i < numRows - 1; ++i) {
+      UserTable table = ODKDatabaseImplUtils.get().rawSqlQuery(db, getAppName(), tableId,
+          orderedColumns, DataTableColumns.ID + "=?", new String[] { rowIds[i] }, null, null,
+          DataTableColumns.CONFLICT_TYPE, "ASC");
+
+      assertEquals(1, table.getNumberOfRows());
+      Row row = table.getRowAtIndex(0);
+      assertNull(row.getRawDataOrMetadataByElementKey(DataTableColumns.CONFLICT_TYPE));
+      assertEquals(Integer.toString(testVal + i), row.getRawDataOrMetadataByElementKey(testCol));
+    }
+
+    // the unlisted row still has both of its conflict records
+    UserTable table = ODKDatabaseImplUtils.get().rawSqlQuery(db, getAppName(), tableId,
+        orderedColumns, DataTableColumns.ID + "=?", new String[] { rowIds[numRows - 1] }, null,
+        null, DataTableColumns.CONFLICT_TYPE, "ASC");
+    assertEquals(2, table.getNumberOfRows());
+
+    // resolving the listed rows again finds nothing left to resolve
+    result = ODKDatabaseImplUtils.get().resolveServerConflictsWithDeleteRows(db, getAppName(),
+        tableId, listed, null);
+    assertEquals(0, result.getResolvedCount());
+    assertTrue(result.getFailures().isEmpty());
+
+    // Drop the table now that the test is done
+    ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
+  }
+
+
   /*
    * Test delete server conflict row with id
    * Place a row in conflict and then delete it
@@ -4156,6 +4303,195 @@ public abstract class AbstractODKDatabaseUtilsTest extends AndroidTestCase {
     ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
   }
 
+  /*
+   * Test that metadata writes change the table's metadata version
+   */
+  public void testTableMetadataVersionTracksKVSChanges_ExpectPass() {
+    String tableId = testTable;
+    String testCol = "testColumn";
+    String testColType = ElementDataType.string.name();
+    String partition = KeyValueStoreConstants.PARTITION_TABLE;
+    String aspect = KeyValueStoreConstants.ASPECT_DEFAULT;
+    String key = KeyValueStoreConstants.TABLE_DISPLAY_NAME;
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(testCol, testCol, testColType, "[]"));
+
+    TableMetadataVersionUtils versionUtils = new TableMetadataVersionUtils();
+    ODKDatabaseImplUtils.get().createOrOpenDBTableWithColumns(db, getAppName(), tableId, columns);
+    Long created = versionUtils.getMetadataVersion(db, tableId);
+    assertNotNull(created);
+
+    // reading the metadata does not change the version
+    ODKDatabaseImplUtils.get().getDBTableMetadata(db, tableId, null, null, null);
+    assertEquals(created, versionUtils.getMetadataVersion(db, tableId));
+
+    List<KeyValueStoreEntry> kvsEntries = new ArrayList<KeyValueStoreEntry>();
+    kvsEntries.add(KeyValueStoreUtils.buildEntry(tableId, partition, aspect, key,
+        ElementDataType.object, "newDisplayName"));
+    ODKDatabaseImplUtils.get().replaceDBTableMetadata(db, tableId, kvsEntries, false);
+    Long replaced = versionUtils.getMetadataVersion(db, tableId);
+    assertTrue(replaced > created);
+
+    ODKDatabaseImplUtils.get().deleteDBTableMetadata(db, tableId, partition, aspect, key);
+    assertTrue(versionUtils.getMetadataVersion(db, tableId) > replaced);
+
+    // Drop the table now that the test is done
+    ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
+  }
+
+  /*
+   * Test that the recorded CSV version is cleared when the metadata changes
+   */
+  public void testTableMetadataVersionCsvCurrent_ExpectPass() {
+    String tableId = testTable;
+    String testCol = "testColumn";
+    String testColType = ElementDataType.string.name();
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(testCol, testCol, testColType, "[]"));
+
+    TableMetadataVersionUtils versionUtils = new TableMetadataVersionUtils();
+    ODKDatabaseImplUtils.get().createOrOpenDBTableWithColumns(db, getAppName(), tableId, columns);
+    Long version = versionUtils.getMetadataVersion(db, tableId);
+    assertFalse(versionUtils.isCsvCurrent(db, tableId));
+
+    // a stale version is not recorded
+    versionUtils.setCsvMetadataVersion(db, tableId, version - 1);
+    assertFalse(versionUtils.isCsvCurrent(db, tableId));
+
+    versionUtils.setCsvMetadataVersion(db, tableId, version);
+    assertTrue(versionUtils.isCsvCurrent(db, tableId));
+    assertEquals(version, versionUtils.getMetadataVersion(db, tableId));
+
+    List<KeyValueStoreEntry> kvsEntries = new ArrayList<KeyValueStoreEntry>();
+    kvsEntries.add(KeyValueStoreUtils.buildEntry(tableId, KeyValueStoreConstants.PARTITION_TABLE,
+        KeyValueStoreConstants.ASPECT_DEFAULT, KeyValueStoreConstants.TABLE_DISPLAY_NAME,
+        ElementDataType.object, "newDisplayName"));
+    ODKDatabaseImplUtils.get().replaceDBTableMetadata(db, tableId, kvsEntries, false);
+    assertFalse(versionUtils.isCsvCurrent(db, tableId));
+
+    // Drop the table now that the test is done
+    ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
+  }
+
+  /*
+   * Test that row writes change the table's change counter and reads do not
+   */
+  public void testTableChangeCounterTracksRowChanges_ExpectPass() {
+    String tableId = testTable;
+    String testCol = "testColumn";
+    String testColType = ElementDataType.integer.name();
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(testCol, testCol, testColType, "[]"));
+    OrderedColumns orderedColumns = ODKDatabaseImplUtils.get()
+        .createOrOpenDBTableWithColumns(db, getAppName(), tableId, columns);
+
+    TableChangeCounterUtils counterUtils = new TableChangeCounterUtils();
+    Long created = counterUtils.getChangeCounter(db, tableId);
+    assertNotNull(created);
+
+    ContentValues cvValues = new ContentValues();
+    cvValues.put(testCol, 5);
+    String uuid = UUID.randomUUID().toString();
+    ODKDatabaseImplUtils.get().insertRowWithId(db, tableId, orderedColumns, cvValues, uuid,
+        activeUser, currentLocale);
+    Long inserted = counterUtils.getChangeCounter(db, tableId);
+    assertTrue(inserted > created);
+
+    // reading the rows does not change the counter
+    Cursor cursor = ODKDatabaseImplUtils.get().rawQuery(db,
+        "SELECT * FROM " + tableId, null);
+    assertEquals(1, cursor.getCount());
+    cursor.close();
+    assertEquals(inserted, counterUtils.getChangeCounter(db, tableId));
+
+    ODKDatabaseImplUtils.get().deleteRowWithId(db, getAppName(), tableId, uuid);
+    assertTrue(counterUtils.getChangeCounter(db, tableId) > inserted);
+
+    // Drop the table now that the test is done
+    ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
+    assertNull(counterUtils.getChangeCounter(db, tableId));
+  }
+
+  /*
+   * Test that ensuring the change counter at upgrade keeps the table's
+   * counter and leaves exactly one set of triggers maintaining it
+   */
+  public void testEnsureChangeCounterKeepsCounter_ExpectPass() {
+    String tableId = testTable;
+    String testCol = "testColumn";
+    String testColType = ElementDataType.integer.name();
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(testCol, testCol, testColType, "[]"));
+    OrderedColumns orderedColumns = ODKDatabaseImplUtils.get()
+        .createOrOpenDBTableWithColumns(db, getAppName(), tableId, columns);
+
+    TableChangeCounterUtils counterUtils = new TableChangeCounterUtils();
+    Long created = counterUtils.getChangeCounter(db, tableId);
+    assertNotNull(created);
+
+    counterUtils.ensureChangeCounter(db, tableId);
+    assertEquals(created, counterUtils.getChangeCounter(db, tableId));
+
+    ContentValues cvValues = new ContentValues();
+    cvValues.put(testCol, 5);
+    ODKDatabaseImplUtils.get().insertRowWithId(db, tableId, orderedColumns, cvValues,
+        UUID.randomUUID().toString(), activeUser, currentLocale);
+    assertTrue(counterUtils.getChangeCounter(db, tableId) > created);
+
+    // Drop the table now that the test is done
+    ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
+  }
+
+  /*
+   * Test that replacing metadata with identical entries writes nothing
+   * and that clearing a sublist only removes entries within it
+   */
+  public void testReplaceDBTableMetadataSubListSkipsUnchanged_ExpectPass() {
+    String tableId = testTable;
+    String testCol = "testColumn";
+    String testColType = ElementDataType.string.name();
+    String partition = KeyValueStoreConstants.PARTITION_TABLE;
+    String aspect = KeyValueStoreConstants.ASPECT_DEFAULT;
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(testCol, testCol, testColType, "[]"));
+    ODKDatabaseImplUtils.get().createOrOpenDBTableWithColumns(db, getAppName(), tableId, columns);
+
+    List<KeyValueStoreEntry> kvsEntries = new ArrayList<KeyValueStoreEntry>();
+    kvsEntries.add(KeyValueStoreUtils.buildEntry(tableId, partition, aspect,
+        KeyValueStoreConstants.TABLE_DISPLAY_NAME, ElementDataType.object, "\"display\""));
+    // wrong type -- will be corrected to array
+    kvsEntries.add(KeyValueStoreUtils.buildEntry(tableId, partition, aspect,
+        KeyValueStoreConstants.TABLE_COL_ORDER, ElementDataType.string, "[]"));
+    ODKDatabaseImplUtils.get().replaceDBTableMetadataSubList(db, tableId, partition, aspect,
+        kvsEntries);
+
+    TableMetadataVersionUtils versionUtils = new TableMetadataVersionUtils();
+    Long version = versionUtils.getMetadataVersion(db, tableId);
+
+    ODKDatabaseImplUtils.get().replaceDBTableMetadataSubList(db, tableId, partition, aspect,
+        kvsEntries);
+    assertEquals(version, versionUtils.getMetadataVersion(db, tableId));
+
+    ArrayList<KeyValueStoreEntry> retKVSEntries = ODKDatabaseImplUtils.get()
+        .getDBTableMetadata(db, tableId, partition, aspect, KeyValueStoreConstants.TABLE_COL_ORDER);
+    assertEquals(1, retKVSEntries.size());
+    assertEquals(ElementDataType.array.name(), retKVSEntries.get(0).type);
+
+    // dropping an entry from the list removes it
+    kvsEntries.remove(1);
+    ODKDatabaseImplUtils.get().replaceDBTableMetadataSubList(db, tableId, partition, aspect,
+        kvsEntries);
+    retKVSEntries = ODKDatabaseImplUtils.get()
+        .getDBTableMetadata(db, tableId, partition, aspect, KeyValueStoreConstants.TABLE_COL_ORDER);
+    assertEquals(0, retKVSEntries.size());
+    retKVSEntries = ODKDatabaseImplUtils.get()
+        .getDBTableMetadata(db, tableId, partition, aspect, KeyValueStoreConstants.TABLE_DISPLAY_NAME);
+    assertEquals(1, retKVSEntries.size());
+
+    // Drop the table now that the test is done
+    ODKDatabaseImplUtils.get().deleteDBTableAndAllData(db, getAppName(), tableId);
+  }
+
   /*
    * Test replace metadata
    */
@@ -5697,4 +6033,89 @@ public abstract class AbstractODKDatabaseUtilsTest extends AndroidTestCase {
       }
     }
   }
+
+  /*
+   * Test that a cursor with a deferred count returns the same rows and count
+   * as a regular cursor.
+   */
+  public void testRawQueryWithDeferredCount_ExpectPass() {
+    String tableId = "deferredCountTable";
+    int numRows = 20000;
+
+    db.execSQL("CREATE TABLE " + tableId + " (id INTEGER PRIMARY KEY, val TEXT)", null);
+    db.beginTransactionNonExclusive();
+    for (int i = 0; i < numRows; ++i) {
+      db.execSQL("INSERT INTO " + tableId + " (id, val) VALUES (?,?)",
+          new Object[] { i, "value_for_row_" + i });
+    }
+    db.setTransactionSuccessful();
+    db.endTransaction();
+
+    String sql = "SELECT * FROM " + tableId + " ORDER BY id";
+
+    Cursor cursor = db.rawQuery(sql, null);
+    assertTrue(cursor.moveToFirst());
+    assertEquals(0, cursor.getInt(0));
+    assertEquals(numRows, cursor.getCount());
+    cursor.close();
+
+    Cursor deferred = db.rawQueryWithDeferredCount(sql, null);
+    assertTrue(deferred.moveToFirst());
+    assertEquals(0, deferred.getInt(0));
+
+    // iterate across window boundaries without asking for the count
+    int rows = 1;
+    while (deferred.moveToNext()) {
+      assertEquals(rows, deferred.getInt(0));
+      ++rows;
+    }
+    assertEquals(numRows, rows);
+    assertTrue(deferred.isAfterLast());
+    assertEquals(numRows, deferred.getCount());
+    deferred.close();
+
+    // count before moving
+    deferred = db.rawQueryWithDeferredCount(sql, null);
+    assertEquals(numRows, deferred.getCount());
+    assertTrue(deferred.moveToPosition(numRows - 1));
+    assertEquals(numRows - 1, deferred.getInt(0));
+    deferred.close();
+
+    // empty result
+    deferred = db.rawQueryWithDeferredCount(sql + " LIMIT 0", null);
+    assertFalse(deferred.moveToFirst());
+    assertEquals(0, deferred.getCount());
+    deferred.close();
+
+    db.execSQL("DROP TABLE " + tableId, null);
+  }
+
+  /*
+   * Test that statements are profiled under their normalized SQL and that
+   * slow queries capture their query plan
+   */
+  public void testQueryProfile_ExpectPass() {
+    String tableId = "queryProfileTable";
+
+    db.execSQL("CREATE TABLE " + tableId + " (id INTEGER PRIMARY KEY, val TEXT)", null);
+    for (int i = 0; i < 10; ++i) {
+      db.execSQL("INSERT INTO " + tableId + " (id, val) VALUES (" + i + ", 'value " + i + "')",
+          null);
+    }
+    OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+        .getQueryProfile(getAppName(), true);
+
+    for (int i = 0; i < 10; ++i) {
+      Cursor c = db.rawQuery("SELECT * FROM " + tableId + " WHERE val = 'value " + i + "'", null);
+      assertTrue(c.moveToFirst());
+      c.close();
+    }
+
+    String profile = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+        .getQueryProfile(getAppName(), true);
+    assertTrue(profile.contains("SELECT * FROM " + tableId + " WHERE val = ?"));
+    assertFalse(profile.contains("value 3"));
+
+    db.execSQL("DROP TABLE " + tableId, null);
+  }
 }
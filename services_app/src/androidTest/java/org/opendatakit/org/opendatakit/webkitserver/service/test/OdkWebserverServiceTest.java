@@ -3,9 +3,11 @@ package org.opendatakit.org.opendatakit.webkitserver.service.test;
 import android.content.Intent;
 import android.os.Environment;
 import android.os.IBinder;
+import android.os.Process;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.test.ServiceTestCase;
+import android.util.Log;
 
 import org.opendatakit.TestConsts;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
@@ -15,7 +17,9 @@ import org.opendatakit.webkitserver.service.OdkWebkitServerService;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
@@ -30,6 +34,8 @@ public class OdkWebserverServiceTest  extends ServiceTestCase<OdkWebkitServerSer
     private static final String TEST_FILE_NAME = "Hello.html";
     private static final String TEST_DIR = "testfiles";
     private static final String SD_ODK = ODKFileUtils.getOdkFolder() + "/";
+    private static final String LARGE_TEST_FILE_NAME = "Large.bin";
+    private static final int LARGE_TEST_FILE_SIZE = 16 * 1024 * 1024;
 
     public OdkWebserverServiceTest() {
         super(OdkWebkitServerService.class);
@@ -144,4 +150,98 @@ public class OdkWebserverServiceTest  extends ServiceTestCase<OdkWebkitServerSer
         }
     }
 
+    /**
+     * Fetch a large file (too large for the asset cache, so it is sent with
+     * FileChannel.transferTo) as a whole and as a range, and report the
+     * throughput and the CPU time spent per MB.
+     */
+    public void testLargeFileThroughput() {
+        ODKFileUtils.verifyExternalStorageAvailability();
+        ODKFileUtils.assertDirectoryStructure(TestConsts.APPNAME);
+
+        String directory = TestConsts.APPNAME + "/" + TEST_DIR;
+        String fileLocation = SD_ODK + directory;
+        String fileName = fileLocation + "/" + LARGE_TEST_FILE_NAME;
+
+        OdkWebkitServerInterface serviceInterface = getOdkWebkitServerInterface();
+
+        FileOutputStream out = null;
+        try {
+            File directoryLocation = new File(fileLocation);
+            if(!directoryLocation.isDirectory()) {
+                directoryLocation.mkdirs();
+            }
+            out = new FileOutputStream(fileName);
+            byte[] block = new byte[64 * 1024];
+            for (int i = 0 ; i < block.length ; ++i) {
+                block[i] = (byte) i;
+            }
+            for (int written = 0 ; written < LARGE_TEST_FILE_SIZE ; written += block.length) {
+                out.write(block);
+            }
+            out.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+
+        try {
+            serviceInterface.restart();
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            fail("Problem with service restart");
+        }
+
+        String urlStr = "http://localhost:8635/" + directory + "/" + LARGE_TEST_FILE_NAME;
+
+        long startCpu = Process.getElapsedCpuTime();
+        long startTime = System.currentTimeMillis();
+        long received = fetch(urlStr, null, HttpStatus.SC_OK);
+        long elapsed = System.currentTimeMillis() - startTime;
+        long cpu = Process.getElapsedCpuTime() - startCpu;
+        assertEquals(LARGE_TEST_FILE_SIZE, received);
+
+        double mb = ((double) received) / (1024.0 * 1024.0);
+        Log.i("OdkWebserverServiceTest", "large file: " + received + " bytes in " + elapsed
+            + " ms -- " + String.format("%.2f", mb * 1000.0 / Math.max(1L, elapsed)) + " MB/s "
+            + String.format("%.2f", cpu / mb) + " CPU ms/MB");
+
+        // ranges are served from the same file channel
+        assertEquals(1000, fetch(urlStr, "bytes=1000-1999", HttpStatus.SC_PARTIAL_CONTENT));
+        assertEquals(LARGE_TEST_FILE_SIZE - 1000,
+            fetch(urlStr, "bytes=1000-", HttpStatus.SC_PARTIAL_CONTENT));
+        assertEquals(500, fetch(urlStr, "bytes=-500", HttpStatus.SC_PARTIAL_CONTENT));
+
+        new File(fileName).delete();
+    }
+
+    private long fetch(String urlStr, String range, int expectedStatus) {
+        HttpURLConnection connection = null;
+        try {
+            URL url = new URL(urlStr);
+            connection = (HttpURLConnection) url.openConnection();
+            if (range != null) {
+                connection.setRequestProperty("Range", range);
+            }
+            assertEquals(expectedStatus, connection.getResponseCode());
+            InputStream is = connection.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                total += read;
+            }
+            is.close();
+            return total;
+        } catch(IOException e) {
+            e.printStackTrace();
+            fail("GOT an IOException when trying to use the web server:" + e.getMessage());
+            return -1;
+        } finally {
+            if(connection != null){
+                connection.disconnect();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.noveogroup.android.log;
+
+import android.util.Log;
+
+import org.opendatakit.common.android.utilities.WebLoggerIf;
+
+/**
+ * Bounded ring buffer of logging events drained by a single daemon thread.
+ * <p/>
+ * {@link PatternHandler} captures everything that depends on the calling
+ * thread (time, thread name, caller, context logger) and enqueues the event;
+ * message formatting, pattern application and the write to the log sink
+ * happen on the writer thread. The ring's slots are preallocated and reused.
+ * <p/>
+ * When the ring is full, events below {@link Logger.Level#WARN} are dropped
+ * and counted (the count is reported once the writer catches up), while
+ * warnings and errors are written synchronously by the calling thread so
+ * that they are never lost. Before such a synchronous write, the caller
+ * waits (for up to {@link #SYNCHRONOUS_WRITE_WAIT_MILLIS}) for the events
+ * already in the ring to be written, so that the warning does not appear
+ * ahead of them in the log.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+final class AsyncLogWriter implements Runnable {
+
+    private static final String TAG = "AsyncLogWriter";
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Longest time a warning or error waits for a full ring to drain before
+     * it is written anyway.
+     */
+    static final long SYNCHRONOUS_WRITE_WAIT_MILLIS = 1000L;
+
+    private static AsyncLogWriter singleton = null;
+
+    /**
+     * @return the process-wide writer, starting its thread on first use.
+     */
+    static synchronized AsyncLogWriter getInstance() {
+        if (singleton == null) {
+            singleton = new AsyncLogWriter(DEFAULT_CAPACITY);
+            Thread t = new Thread(singleton, TAG);
+            t.setDaemon(true);
+            t.start();
+        }
+        return singleton;
+    }
+
+    /**
+     * A logging event. Slots of the ring are reused; clear() drops the
+     * references so that the ring does not retain arguments or throwables.
+     */
+    static final class Record {
+        PatternHandler handler;
+        WebLoggerIf logger;
+        long timeMillis;
+        String threadName;
+        StackTraceElement caller;
+        String loggerName;
+        Logger.Level level;
+        Throwable throwable;
+        String messageFormat;
+        Object[] args;
+
+        void copyFrom(Record r) {
+            handler = r.handler;
+            logger = r.logger;
+            timeMillis = r.timeMillis;
+            threadName = r.threadName;
+            caller = r.caller;
+            loggerName = r.loggerName;
+            level = r.level;
+            throwable = r.throwable;
+            messageFormat = r.messageFormat;
+            args = r.args;
+        }
+
+        void clear() {
+            handler = null;
+            logger = null;
+            threadName = null;
+            caller = null;
+            loggerName = null;
+            level = null;
+            throwable = null;
+            messageFormat = null;
+            args = null;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Record[] ring;
+    private final Record scratch = new Record();
+    private int head = 0;
+    private int count = 0;
+    private boolean writing = false;
+    private Thread writerThread = null;
+
+    private long pendingDropped = 0L;
+    private long droppedCount = 0L;
+    private long synchronousCount = 0L;
+    private long writtenCount = 0L;
+
+    AsyncLogWriter(int capacity) {
+        ring = new Record[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            ring[i] = new Record();
+        }
+    }
+
+    /**
+     * Formatting is deferred to the writer thread only if none of the
+     * arguments can change before it gets there.
+     *
+     * @param args
+     * @return true if all the arguments are null or immutable values.
+     */
+    static boolean isDeferrable(Object[] args) {
+        if (args == null) {
+            return true;
+        }
+        for (Object arg : args) {
+            if (arg == null || arg instanceof String || arg instanceof Integer
+                    || arg instanceof Long || arg instanceof Boolean || arg instanceof Double
+                    || arg instanceof Float || arg instanceof Short || arg instanceof Byte
+                    || arg instanceof Character || arg instanceof Enum) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Enqueue a logging event.
+     *
+     * @return false if the ring is full and the caller must write this event
+     * synchronously (the events ahead of it have then been written); true if
+     * it was enqueued or dropped.
+     */
+    boolean offer(PatternHandler handler, WebLoggerIf logger, long timeMillis, String threadName,
+                  StackTraceElement caller, String loggerName, Logger.Level level,
+                  Throwable throwable, String messageFormat, Object[] args) {
+        synchronized (lock) {
+            if (count == ring.length) {
+                if (level.intValue() >= Log.WARN) {
+                    ++synchronousCount;
+                    // the writer thread cannot wait on itself
+                    if (Thread.currentThread() != writerThread) {
+                        awaitDrained(System.currentTimeMillis() + SYNCHRONOUS_WRITE_WAIT_MILLIS);
+                    }
+                    return false;
+                }
+                ++pendingDropped;
+                ++droppedCount;
+                return true;
+            }
+            Record r = ring[(head + count) % ring.length];
+            r.handler = handler;
+            r.logger = logger;
+            r.timeMillis = timeMillis;
+            r.threadName = threadName;
+            r.caller = caller;
+            r.loggerName = loggerName;
+            r.level = level;
+            r.throwable = throwable;
+            r.messageFormat = messageFormat;
+            r.args = args;
+            ++count;
+            if (count == 1) {
+                lock.notifyAll();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Wait until every enqueued event has been written.
+     *
+     * @param timeoutMillis
+     * @return true if the ring was drained within the timeout.
+     */
+    boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            return awaitDrained(deadline);
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     *
+     * @param deadline
+     * @return true if the ring was drained before the deadline.
+     */
+    private boolean awaitDrained(long deadline) {
+        while (count != 0 || writing) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+                return false;
+            }
+            try {
+                lock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    long getSynchronousCount() {
+        synchronized (lock) {
+            return synchronousCount;
+        }
+    }
+
+    long getWrittenCount() {
+        synchronized (lock) {
+            return writtenCount;
+        }
+    }
+
+    @Override
+    public void run() {
+        synchronized (lock) {
+            writerThread = Thread.currentThread();
+        }
+        for (; ; ) {
+            long dropped;
+            synchronized (lock) {
+                while (count == 0) {
+                    if (writing) {
+                        writing = false;
+                        // wake up anyone in flush()
+                        lock.notifyAll();
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // nothing else uses this thread; keep draining
+                    }
+                }
+                Record r = ring[head];
+                scratch.copyFrom(r);
+                r.clear();
+                head = (head + 1) % ring.length;
+                --count;
+                writing = true;
+                dropped = pendingDropped;
+                pendingDropped = 0L;
+            }
+
+            try {
+                if (dropped != 0L) {
+                    String message = dropped + " log records dropped (log buffer full)";
+                    if (scratch.logger == null) {
+                        Log.println(Log.WARN, TAG, message);
+                    } else {
+                        scratch.logger.log(Log.WARN, TAG, message);
+                    }
+                }
+                scratch.handler.write(scratch.logger, scratch.timeMillis, scratch.threadName,
+                        scratch.caller, scratch.loggerName, scratch.level, scratch.throwable,
+                        scratch.messageFormat, scratch.args);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "unable to write log record", e);
+            } finally {
+                scratch.clear();
+                synchronized (lock) {
+                    ++writtenCount;
+                }
+            }
+        }
+    }
+}
@@ -22,7 +22,8 @@ public abstract class Pattern {
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
+        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                 long timeMillis, String threadName) {
             return string;
         }
 
@@ -31,20 +32,52 @@ public abstract class Pattern {
     public static class DatePattern extends Pattern {
 
         private final SimpleDateFormat dateFormat;
+        /**
+         * true if the format ends with SSS and has no other milliseconds field.
+         * The remainder of the format is then only re-formatted once a second.
+         */
+        private final boolean millisSuffix;
+        private long cachedKey = Long.MIN_VALUE;
+        private String cachedValue = null;
 
         public DatePattern(int count, int length, String dateFormat) {
             super(count, length);
-            if (dateFormat != null) {
-                this.dateFormat = new SimpleDateFormat(dateFormat, Locale.US);
+            String format = (dateFormat != null) ? dateFormat : "yyyy-MM-dd HH:mm:ss.SSS";
+            millisSuffix = format.endsWith("SSS") && format.indexOf('S') == format.length() - 3
+                    && format.indexOf('\'') < 0;
+            if (millisSuffix) {
+                this.dateFormat = new SimpleDateFormat(format.substring(0, format.length() - 3), Locale.US);
             } else {
-                this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+                this.dateFormat = new SimpleDateFormat(format, Locale.US);
             }
-
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
-            return dateFormat.format(new Date());
+        protected synchronized String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                              long timeMillis, String threadName) {
+            if (millisSuffix) {
+                // format the seconds once per second and append the milliseconds
+                long second = timeMillis / 1000L;
+                if (second != cachedKey || cachedValue == null) {
+                    cachedKey = second;
+                    cachedValue = dateFormat.format(new Date(second * 1000L));
+                }
+                int millis = (int) (timeMillis % 1000L);
+                StringBuilder builder = new StringBuilder(cachedValue.length() + 3);
+                builder.append(cachedValue);
+                if (millis < 100) {
+                    builder.append('0');
+                }
+                if (millis < 10) {
+                    builder.append('0');
+                }
+                return builder.append(millis).toString();
+            }
+            if (timeMillis != cachedKey || cachedValue == null) {
+                cachedKey = timeMillis;
+                cachedValue = dateFormat.format(new Date(timeMillis));
+            }
+            return cachedValue;
         }
 
     }
@@ -56,7 +89,8 @@ public abstract class Pattern {
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
+        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                 long timeMillis, String threadName) {
             return level.toString();
         }
     }
@@ -74,7 +108,8 @@ public abstract class Pattern {
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
+        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                 long timeMillis, String threadName) {
             return Utils.shortenClassName(loggerName, loggerCount, loggerLength);
         }
     }
@@ -91,7 +126,8 @@ public abstract class Pattern {
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
+        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                 long timeMillis, String threadName) {
             if (caller == null) {
                 throw new IllegalArgumentException("Caller not found");
             } else {
@@ -120,7 +156,8 @@ public abstract class Pattern {
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
+        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                 long timeMillis, String threadName) {
             if (caller == null) {
                 throw new IllegalArgumentException("Caller not found");
             } else {
@@ -164,10 +201,11 @@ public abstract class Pattern {
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
+        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                 long timeMillis, String threadName) {
             StringBuilder builder = new StringBuilder();
             for (Pattern pattern : patternList) {
-                builder.append(pattern.apply(caller, loggerName, level));
+                builder.append(pattern.apply(caller, loggerName, level, timeMillis, threadName));
             }
             return builder.toString();
         }
@@ -189,8 +227,9 @@ public abstract class Pattern {
         }
 
         @Override
-        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level) {
-            return Thread.currentThread().getName();
+        protected String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                 long timeMillis, String threadName) {
+            return threadName;
         }
     }
 
@@ -203,11 +242,28 @@ public abstract class Pattern {
     }
 
     public final String apply(StackTraceElement caller, String loggerName, Logger.Level level) {
-        String string = doApply(caller, loggerName, level);
+        return apply(caller, loggerName, level, System.currentTimeMillis(), Thread.currentThread().getName());
+    }
+
+    /**
+     * Applies the pattern to a logging event that may have been captured on
+     * another thread.
+     *
+     * @param caller     the caller, if {@link #isCallerNeeded()}.
+     * @param loggerName the name of the logger.
+     * @param level      the level.
+     * @param timeMillis the time of the logging event.
+     * @param threadName the name of the thread which caused the logging event.
+     * @return the formatted string.
+     */
+    public final String apply(StackTraceElement caller, String loggerName, Logger.Level level,
+                              long timeMillis, String threadName) {
+        String string = doApply(caller, loggerName, level, timeMillis, threadName);
         return Utils.shorten(string, count, length);
     }
 
-    protected abstract String doApply(StackTraceElement caller, String loggerName, Logger.Level level);
+    protected abstract String doApply(StackTraceElement caller, String loggerName, Logger.Level level,
+                                      long timeMillis, String threadName);
 
     protected boolean isCallerNeeded() {
         return false;
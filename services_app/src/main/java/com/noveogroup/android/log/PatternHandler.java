@@ -30,6 +30,7 @@ import android.util.Log;
 
 import java.text.SimpleDateFormat;
 import java.util.Formatter;
+import java.util.IllegalFormatException;
 
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.common.android.utilities.WebLoggerIf;
@@ -255,6 +256,13 @@ import org.opendatakit.common.android.utilities.WebLoggerIf;
  * <tr> <td>%.3(text)</td>  <td><pre>'tex'</pre></td>    </tr>
  * <tr> <td>%.-3(text)</td> <td><pre>'ext'</pre></td>    </tr>
  * </table>
+ * <p/>
+ * By default, only the caller (if the patterns use it), the time, the thread
+ * name and the context logger are captured on the calling thread. Formatting
+ * the message, applying the patterns and writing to the log happen on the
+ * {@link AsyncLogWriter} thread. Arguments that are not immutable values are
+ * formatted on the calling thread. In that mode, a malformed format string is
+ * logged as-is rather than thrown to the caller.
  */
 public class PatternHandler implements Handler {
 
@@ -263,20 +271,38 @@ public class PatternHandler implements Handler {
     private final String messagePattern;
     private final Pattern compiledTagPattern;
     private final Pattern compiledMessagePattern;
+    private final boolean callerNeeded;
+    private final AsyncLogWriter asyncWriter;
 
     /**
-     * Creates new {@link PatternHandler}.
+     * Creates new asynchronous {@link PatternHandler}.
      *
      * @param level          the level.
      * @param tagPattern     the tag pattern.
      * @param messagePattern the message pattern.
      */
     public PatternHandler(Logger.Level level, String tagPattern, String messagePattern) {
+        this(level, tagPattern, messagePattern, true);
+    }
+
+    /**
+     * Creates new {@link PatternHandler}.
+     *
+     * @param level          the level.
+     * @param tagPattern     the tag pattern.
+     * @param messagePattern the message pattern.
+     * @param asynchronous   whether messages are formatted and written on
+     *                       the shared {@link AsyncLogWriter} thread.
+     */
+    public PatternHandler(Logger.Level level, String tagPattern, String messagePattern, boolean asynchronous) {
         this.level = level;
         this.tagPattern = tagPattern;
         this.compiledTagPattern = Pattern.compile(tagPattern);
         this.messagePattern = messagePattern;
         this.compiledMessagePattern = Pattern.compile(messagePattern);
+        this.callerNeeded = (compiledTagPattern != null && compiledTagPattern.isCallerNeeded())
+                || (compiledMessagePattern != null && compiledMessagePattern.isCallerNeeded());
+        this.asyncWriter = asynchronous ? AsyncLogWriter.getInstance() : null;
     }
 
     /**
@@ -315,46 +341,85 @@ public class PatternHandler implements Handler {
     public void print(String loggerName, Logger.Level level,
                       Throwable throwable, String messageFormat, Object... args) throws IllegalArgumentException {
         if (isEnabled(level)) {
-            String message;
+            if (messageFormat == null && args != null && args.length > 0) {
+                throw new IllegalArgumentException("message format is not set but arguments are presented");
+            }
 
-            if (messageFormat == null) {
-                if (args != null && args.length > 0) {
-                    throw new IllegalArgumentException("message format is not set but arguments are presented");
-                }
+            // capture everything that depends on the calling thread...
+            StackTraceElement caller = null;
+            if (callerNeeded) {
+                caller = Utils.getCaller();
+            }
+            long timeMillis = System.currentTimeMillis();
+            String threadName = Thread.currentThread().getName();
+            WebLoggerIf logger = WebLogger.getContextLogger();
 
-                if (throwable == null) {
-                    message = "";
-                } else {
-                    message = Log.getStackTraceString(throwable);
+            if (asyncWriter != null) {
+                if (!AsyncLogWriter.isDeferrable(args)) {
+                    // format now -- the arguments may change before the writer gets to them
+                    messageFormat = formatMessage(throwable, messageFormat, args);
+                    throwable = null;
+                    args = null;
                 }
-            } else {
-                if (throwable == null) {
-                    message = String.format(messageFormat, args);
-                } else {
-                    message = String.format(messageFormat, args) + '\n' + Log.getStackTraceString(throwable);
+                // ...and defer the formatting and the write to the writer thread
+                if (asyncWriter.offer(this, logger, timeMillis, threadName, caller, loggerName, level,
+                        throwable, messageFormat, args)) {
+                    return;
                 }
             }
+            write(logger, timeMillis, threadName, caller, loggerName, level, throwable, messageFormat, args);
+        }
+    }
 
-            StackTraceElement caller = null;
-            if ((compiledTagPattern != null && compiledTagPattern.isCallerNeeded())
-                    || (compiledMessagePattern != null && compiledMessagePattern.isCallerNeeded())) {
-                caller = Utils.getCaller();
+    /**
+     * Formats and writes a logging event. Called on the calling thread, or on
+     * the writer thread if this handler is asynchronous.
+     */
+    void write(WebLoggerIf logger, long timeMillis, String threadName, StackTraceElement caller,
+               String loggerName, Logger.Level level,
+               Throwable throwable, String messageFormat, Object[] args) {
+        String message;
+        try {
+            message = formatMessage(throwable, messageFormat, args);
+        } catch (IllegalFormatException e) {
+            if (asyncWriter == null) {
+                throw e;
             }
+            // too late to report this to the caller; log the unformatted message
+            message = messageFormat;
+        }
 
-            String tag = compiledTagPattern == null ? "" : compiledTagPattern.apply(caller, loggerName, level);
-            String messageHead = compiledMessagePattern == null ? "" : compiledMessagePattern.apply(caller, loggerName, level);
+        String tag = compiledTagPattern == null ? "" :
+                compiledTagPattern.apply(caller, loggerName, level, timeMillis, threadName);
+        String messageHead = compiledMessagePattern == null ? "" :
+                compiledMessagePattern.apply(caller, loggerName, level, timeMillis, threadName);
 
-            if (messageHead.length() > 0 && !Character.isWhitespace(messageHead.charAt(0))) {
-                messageHead = messageHead + " ";
+        if (messageHead.length() > 0 && !Character.isWhitespace(messageHead.charAt(0))) {
+            messageHead = messageHead + " ";
+        }
+        // BEGIN: Changed from https://github.com/noveogroup/android-logger
+        if ( logger == null ) {
+          Log.println(level.intValue(), tag, "<missing AppName>" + messageHead + message);
+        } else {
+          logger.log(level.intValue(), tag, messageHead + message);
+        }
+        // END: Changed from https://github.com/noveogroup/android-logger
+    }
+
+    private static String formatMessage(Throwable throwable, String messageFormat, Object[] args) {
+        if (messageFormat == null) {
+            if (throwable == null) {
+                return "";
+            } else {
+                return Log.getStackTraceString(throwable);
             }
-            // BEGIN: The only change from https://github.com/noveogroup/android-logger
-            WebLoggerIf logger = WebLogger.getContextLogger();
-            if ( logger == null ) {
-              Log.println(level.intValue(), tag, "<missing AppName>" + messageHead + message);
+        } else {
+            String message = (args == null) ? messageFormat : String.format(messageFormat, args);
+            if (throwable == null) {
+                return message;
             } else {
-              logger.log(level.intValue(), tag, messageHead + message);
+                return message + '\n' + Log.getStackTraceString(throwable);
             }
-            // END: The only change from https://github.com/noveogroup/android-logger
         }
     }
 
@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package fi.iki.elonen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bounded LRU cache of the files served by SimpleWebServer.
+ * <p>
+ * Every served file gets an entry holding its precomputed ETag, MIME type and
+ * the outcome of the path-authorization check. Small files also have their
+ * content held in memory. An entry is trusted without touching the filesystem
+ * for REVALIDATE_INTERVAL_MS; after that, it is re-validated against the
+ * file's lastModified and length and discarded if either changed.
+ * <p>
+ * Entries for compressible files can also hold a gzip variant: either a
+ * precompressed .gz sibling of the file, or the file's content compressed on
+ * first request. The variant has its own ETag so that 304 responses remain
+ * correct for each encoding.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+class AssetCache {
+
+  /**
+   * Files larger than this are never held in memory.
+   */
+  static final int MAX_CACHED_FILE_SIZE = 256 * 1024;
+  /**
+   * Upper bound on the total size of the file contents held in memory.
+   */
+  static final long MAX_CACHED_BYTES = 4L * 1024L * 1024L;
+  /**
+   * Upper bound on the number of entries (with or without content).
+   */
+  static final int MAX_ENTRIES = 512;
+  /**
+   * How long an entry is trusted before the file is stat'd again.
+   */
+  static final long REVALIDATE_INTERVAL_MS = 1000L;
+  /**
+   * Files larger than this are not compressed on the fly
+   * (a precompressed .gz sibling is still used).
+   */
+  static final int MAX_GZIP_SOURCE_SIZE = 1024 * 1024;
+
+  /**
+   * The gzip-encoded variant of a file.
+   */
+  static final class GzipVariant {
+    /**
+     * the precompressed .gz sibling; null if compressed on the fly.
+     */
+    final File file;
+    final long lastModified;
+    final long length;
+    final String etag;
+    /**
+     * compressed content; null if it is to be read from the .gz sibling.
+     */
+    final byte[] content;
+
+    GzipVariant(File file, long lastModified, long length, String etag, byte[] content) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.etag = etag;
+      this.content = content;
+    }
+  }
+
+  /**
+   * Metadata and (optionally) the content of a single file.
+   */
+  static final class Entry {
+    final File file;
+    final long lastModified;
+    final long length;
+    final String etag;
+    final String mimeType;
+    final boolean canServe;
+    /**
+     * file content; null if the file is too large to cache.
+     */
+    final byte[] content;
+    /**
+     * System.currentTimeMillis() when the entry was last checked against the file.
+     */
+    long validatedAt;
+    /**
+     * true once we have looked for (or tried to create) the gzip variant.
+     */
+    boolean gzipResolved = false;
+    /**
+     * the gzip variant; null if there is none or it is not worthwhile.
+     */
+    GzipVariant gzip = null;
+
+    Entry(File file, long lastModified, long length, String mimeType, boolean canServe,
+        byte[] content, long now) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.etag = Integer.toHexString((file.getAbsolutePath() + lastModified + "" + length).hashCode());
+      this.mimeType = mimeType;
+      this.canServe = canServe;
+      this.content = content;
+      this.validatedAt = now;
+    }
+
+    /**
+     * @return a stream over the file's content -- from memory, if held.
+     * @throws IOException
+     */
+    InputStream openStream() throws IOException {
+      if (content != null) {
+        return new ByteArrayInputStream(content);
+      }
+      return new FileInputStream(file);
+    }
+
+    /**
+     * @return the number of bytes of content held in memory for this entry.
+     */
+    long heldBytes() {
+      long held = (content == null) ? 0L : content.length;
+      if (gzip != null && gzip.content != null) {
+        held += gzip.content.length;
+      }
+      return held;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  private long cachedBytes = 0L;
+
+  private long hits = 0L;
+  private long misses = 0L;
+
+  /**
+   * Return the entry for this uri if it is known to be current.
+   * Does not access the filesystem if the entry was validated within the
+   * last REVALIDATE_INTERVAL_MS.
+   *
+   * @param uri
+   * @return null if there is no current entry.
+   */
+  synchronized Entry get(String uri) {
+    Entry e = entries.get(uri);
+    if (e == null) {
+      ++misses;
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    if (now - e.validatedAt > REVALIDATE_INTERVAL_MS) {
+      if (e.file.lastModified() != e.lastModified || e.file.length() != e.length) {
+        remove(uri);
+        ++misses;
+        return null;
+      }
+      if (e.gzip != null && e.gzip.file != null &&
+          (e.gzip.file.lastModified() != e.gzip.lastModified ||
+           e.gzip.file.length() != e.gzip.length)) {
+        // the .gz sibling changed; look for it again on the next request
+        cachedBytes -= (e.gzip.content == null) ? 0L : e.gzip.content.length;
+        e.gzip = null;
+        e.gzipResolved = false;
+      }
+      e.validatedAt = now;
+    }
+    ++hits;
+    return e;
+  }
+
+  /**
+   * Create and cache the entry for a file.
+   *
+   * @param uri
+   * @param file
+   * @param mimeType
+   * @param canServe outcome of the path-authorization check.
+   * @return the new entry
+   */
+  Entry put(String uri, File file, String mimeType, boolean canServe) {
+    long lastModified = file.lastModified();
+    long length = file.length();
+    byte[] content = null;
+    if (canServe && length <= MAX_CACHED_FILE_SIZE) {
+      content = readFully(file, (int) length);
+      if (content != null && (file.lastModified() != lastModified)) {
+        // changed while we were reading it
+        content = null;
+      }
+    }
+    Entry e = new Entry(file, lastModified, length, mimeType, canServe, content,
+        System.currentTimeMillis());
+    synchronized (this) {
+      remove(uri);
+      entries.put(uri, e);
+      if (content != null) {
+        cachedBytes += content.length;
+      }
+      trim();
+    }
+    return e;
+  }
+
+  /**
+   * Return the gzip variant of a cached entry, creating it on first use.
+   * A .gz sibling that is at least as new as the file is preferred; otherwise
+   * the file is compressed in memory if it is no larger than
+   * MAX_GZIP_SOURCE_SIZE and compression actually reduces its size.
+   *
+   * @param uri
+   * @param e
+   * @return null if there is no worthwhile gzip variant.
+   */
+  GzipVariant getGzipVariant(String uri, Entry e) {
+    synchronized (this) {
+      if (e.gzipResolved) {
+        return e.gzip;
+      }
+    }
+    GzipVariant v = createGzipVariant(e);
+    synchronized (this) {
+      if (!e.gzipResolved) {
+        e.gzip = v;
+        e.gzipResolved = true;
+        if (entries.get(uri) == e && v != null && v.content != null) {
+          cachedBytes += v.content.length;
+          trim();
+        }
+      }
+      return e.gzip;
+    }
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    cachedBytes = 0L;
+  }
+
+  synchronized long getHitCount() {
+    return hits;
+  }
+
+  synchronized long getMissCount() {
+    return misses;
+  }
+
+  synchronized long getCachedBytes() {
+    return cachedBytes;
+  }
+
+  private void remove(String uri) {
+    Entry old = entries.remove(uri);
+    if (old != null) {
+      cachedBytes -= old.heldBytes();
+    }
+  }
+
+  /**
+   * Evict least-recently-used entries until within bounds.
+   */
+  private void trim() {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext() && (entries.size() > MAX_ENTRIES || cachedBytes > MAX_CACHED_BYTES)) {
+      Entry e = it.next().getValue();
+      cachedBytes -= e.heldBytes();
+      it.remove();
+    }
+  }
+
+  private static GzipVariant createGzipVariant(Entry e) {
+    File gzFile = new File(e.file.getPath() + ".gz");
+    if (gzFile.isFile() && gzFile.lastModified() >= e.lastModified) {
+      long lastModified = gzFile.lastModified();
+      long length = gzFile.length();
+      byte[] content = null;
+      if (length <= MAX_CACHED_FILE_SIZE) {
+        content = readFully(gzFile, (int) length);
+      }
+      String etag = Integer.toHexString(
+          (gzFile.getAbsolutePath() + lastModified + "" + length).hashCode());
+      return new GzipVariant(gzFile, lastModified, length, etag, content);
+    }
+
+    if (e.length > MAX_GZIP_SOURCE_SIZE) {
+      return null;
+    }
+    byte[] source = e.content;
+    if (source == null) {
+      source = readFully(e.file, (int) e.length);
+      if (source == null) {
+        return null;
+      }
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(source.length / 2 + 64);
+    try {
+      GZIPOutputStream gzos = new GZIPOutputStream(bos);
+      gzos.write(source);
+      gzos.close();
+    } catch (IOException ex) {
+      return null;
+    }
+    if (bos.size() >= source.length) {
+      // not worth it
+      return null;
+    }
+    byte[] compressed = bos.toByteArray();
+    // derived from the identity ETag so that it changes whenever the file does
+    return new GzipVariant(null, e.lastModified, compressed.length, e.etag + "-gz", compressed);
+  }
+
+  private static byte[] readFully(File file, int length) {
+    FileInputStream fis = null;
+    try {
+      fis = new FileInputStream(file);
+      byte[] buffer = new byte[length];
+      int offset = 0;
+      while (offset < length) {
+        int read = fis.read(buffer, offset, length - offset);
+        if (read < 0) {
+          // truncated while we were reading it
+          return null;
+        }
+        offset += read;
+      }
+      return buffer;
+    } catch (IOException e) {
+      return null;
+    } finally {
+      if (fis != null) {
+        try {
+          fis.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
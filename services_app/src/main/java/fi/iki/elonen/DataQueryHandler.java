@@ -0,0 +1,551 @@
+/**
+ * Copyright (c) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package fi.iki.elonen;
+
+import android.database.Cursor;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import org.apache.commons.lang3.CharEncoding;
+import org.opendatakit.common.android.database.OdkConnectionFactorySingleton;
+import org.opendatakit.common.android.database.OdkConnectionInterface;
+import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.common.android.utilities.TableChangeCounterUtils;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only JSON data API of SimpleWebServer:
+ * <pre>
+ * GET /appName/_data/tableId?columns=c1,c2&filters=[["c1",">",5],["c3","IS NULL"]]&orderBy=c2&direction=DESC&limit=100&offset=200
+ * </pre>
+ * All parameters are optional. filters is a JSON array of [column, operator]
+ * or [column, operator, value] triples that must all hold; the operators are
+ * those in {@link #BINARY_OPERATORS} and {@link #UNARY_OPERATORS}, and every
+ * value is bound as a parameter. columns, orderBy and the filter columns must
+ * name columns of the table. The response is
+ * <pre>
+ * { "tableId": ..., "changeCounter": ..., "offset": ..., "limit": ...,
+ *   "columns": [ ... ], "rows": [ [ ... ], ... ], "hasMore": true|false }
+ * </pre>
+ * and is streamed (chunked) row-by-row from the database cursor rather than
+ * materialized first. The ETag combines the table's change counter (see
+ * {@link TableChangeCounterUtils}) with a digest of the query, so a repeated
+ * request is answered with a 304 until a row of the table changes. If the
+ * counter is not yet maintained for the table, no ETag is sent and the
+ * changeCounter is null.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+class DataQueryHandler {
+
+  private static final String t = "DataQueryHandler";
+
+  /**
+   * The path segment (after the appName) that selects the data API.
+   */
+  static final String DATA_PATH_SEGMENT = "_data";
+
+  static final String PARAM_COLUMNS = "columns";
+  static final String PARAM_FILTERS = "filters";
+  static final String PARAM_ORDER_BY = "orderBy";
+  static final String PARAM_DIRECTION = "direction";
+  static final String PARAM_LIMIT = "limit";
+  static final String PARAM_OFFSET = "offset";
+
+  static final String MIME_JSON = "application/json";
+
+  /**
+   * Filter operators that compare a column with a bound value.
+   */
+  static final Set<String> BINARY_OPERATORS = new HashSet<String>(
+      Arrays.asList("=", "<>", "<", "<=", ">", ">=", "LIKE"));
+  /**
+   * Filter operators that take no value.
+   */
+  static final Set<String> UNARY_OPERATORS = new HashSet<String>(
+      Arrays.asList("IS NULL", "IS NOT NULL"));
+
+  /**
+   * Rows are serialized until at least this many bytes are buffered; this
+   * is roughly the size of each chunk of the response.
+   */
+  private static final int SERIALIZATION_BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Thrown for a malformed request; reported as a 400.
+   */
+  private static final class BadRequestException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    BadRequestException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * @param appName
+   * @param tableId
+   * @param method
+   * @param headers
+   * @param parms
+   * @return the response to a request for the rows of tableId.
+   */
+  Response serve(String appName, String tableId, Method method, Map<String, String> headers,
+      Map<String, String> parms) {
+    if (method != Method.GET && method != Method.HEAD) {
+      return new Response(Response.Status.METHOD_NOT_ALLOWED, NanoHTTPD.MIME_PLAINTEXT,
+          "Only GET and HEAD are supported.");
+    }
+    // the appName must name an existing application directory, by the same
+    // rules the web server applies to file paths
+    if (!isServableAppName(appName)) {
+      return new Response(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT,
+          "Error 404, file not found.");
+    }
+
+    OdkDbHandle dbHandleName = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+        .generateInternalUseDbHandle();
+    OdkConnectionInterface db = null;
+    boolean handedOff = false;
+    try {
+      // +1 referenceCount if db is returned (non-null)
+      db = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+          .getConnection(appName, dbHandleName);
+
+      ODKDatabaseImplUtils dbUtil = ODKDatabaseImplUtils.get();
+      if (!dbUtil.hasTableId(db, tableId)) {
+        return new Response(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT,
+            "Error 404, table not found.");
+      }
+
+      List<String> allColumns = Arrays.asList(dbUtil.getAllColumnNames(db, tableId));
+      Set<String> tableColumns = new HashSet<String>(allColumns);
+
+      List<String> columns = new ArrayList<String>();
+      String columnsParm = parms.get(PARAM_COLUMNS);
+      if (columnsParm == null || columnsParm.trim().length() == 0) {
+        columns.addAll(allColumns);
+      } else {
+        for (String column : columnsParm.split(",")) {
+          column = column.trim();
+          if (!tableColumns.contains(column)) {
+            throw new BadRequestException("Unknown column: " + column);
+          }
+          columns.add(column);
+        }
+      }
+
+      List<String> args = new ArrayList<String>();
+      String where = parseFilters(parms.get(PARAM_FILTERS), tableColumns, args);
+
+      String orderBy = parms.get(PARAM_ORDER_BY);
+      if (orderBy != null && !tableColumns.contains(orderBy)) {
+        throw new BadRequestException("Unknown orderBy column: " + orderBy);
+      }
+      String direction = parms.get(PARAM_DIRECTION);
+      if (direction == null) {
+        direction = "ASC";
+      } else {
+        direction = direction.toUpperCase(Locale.US);
+        if (!direction.equals("ASC") && !direction.equals("DESC")) {
+          throw new BadRequestException("direction must be ASC or DESC");
+        }
+      }
+      int limit = parseNonNegative(parms.get(PARAM_LIMIT), PARAM_LIMIT, -1);
+      int offset = parseNonNegative(parms.get(PARAM_OFFSET), PARAM_OFFSET, 0);
+
+      // the ETag covers the table's rows (via its change counter) and the query;
+      // the counter is only read here, never created
+      Long changeCounter = new TableChangeCounterUtils().getChangeCounter(db, tableId);
+      String etag = null;
+      if (changeCounter != null) {
+        String queryKey = columns + "|" + where + "|" + args + "|" + orderBy + "|" + direction
+            + "|" + limit + "|" + offset;
+        etag = "\"" + Long.toHexString(changeCounter) + "-" + digest(queryKey) + "\"";
+      }
+
+      String ifNoneMatch = headers.get("if-none-match");
+      if (etag != null && ifNoneMatch != null
+          && (ifNoneMatch.equals("*") || ifNoneMatch.equals(etag))) {
+        Response res = new Response(Response.Status.NOT_MODIFIED, MIME_JSON, "");
+        res.addHeader("ETag", etag);
+        return res;
+      }
+
+      Response res;
+      if (method == Method.HEAD) {
+        res = new Response(Response.Status.OK, MIME_JSON, "");
+      } else {
+        StringBuilder b = new StringBuilder();
+        b.append("SELECT ");
+        boolean first = true;
+        for (String column : columns) {
+          if (!first) {
+            b.append(",");
+          }
+          first = false;
+          b.append("\"").append(column).append("\"");
+        }
+        b.append(" FROM \"").append(tableId).append("\"");
+        if (where != null) {
+          b.append(" WHERE (").append(where).append(")");
+        }
+        if (orderBy != null) {
+          b.append(" ORDER BY \"").append(orderBy).append("\" ").append(direction);
+        }
+        // fetch one extra row to learn whether there is another page
+        b.append(" LIMIT ").append(limit < 0 ? -1 : (long) limit + 1L);
+        b.append(" OFFSET ").append(offset);
+
+        Cursor c = db.rawQueryWithDeferredCount(b.toString(),
+            args.isEmpty() ? null : args.toArray(new String[args.size()]));
+        CursorJsonInputStream stream = new CursorJsonInputStream(db, appName, dbHandleName, c);
+        handedOff = true;
+        stream.writeHeader(tableId, changeCounter, offset, limit, columns);
+        res = new Response(Response.Status.OK, MIME_JSON, stream);
+        res.setChunkedTransfer(true);
+      }
+      if (etag != null) {
+        res.addHeader("ETag", etag);
+      }
+      res.addHeader("Cache-Control", "no-cache");
+      return res;
+    } catch (BadRequestException e) {
+      return new Response(Response.Status.BAD_REQUEST, NanoHTTPD.MIME_PLAINTEXT,
+          "BAD REQUEST: " + e.getMessage());
+    } catch (Exception e) {
+      WebLogger.getLogger(appName).e(t, "query of " + tableId + " failed: " + e.toString());
+      WebLogger.getLogger(appName).printStackTrace(e);
+      return new Response(Response.Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT,
+          "INTERNAL ERRROR: " + e.getMessage());
+    } finally {
+      if (db != null && !handedOff) {
+        releaseConnection(db, appName, dbHandleName);
+      }
+    }
+  }
+
+  /**
+   * @param appName
+   * @return true if appName names an existing application directory whose
+   * path the web server would serve files from.
+   */
+  private static boolean isServableAppName(String appName) {
+    if (appName.length() == 0 || appName.startsWith(".") || appName.indexOf('/') != -1
+        || appName.indexOf('\\') != -1) {
+      return false;
+    }
+    File appFolder = new File(ODKFileUtils.getAppFolder(appName)).getAbsoluteFile();
+    return appFolder.isDirectory()
+        && appName.equals(ODKFileUtils.extractAppNameFromPath(appFolder))
+        && !ODKFileUtils.getDirectoriesToExcludeFromWebServer().contains(appName);
+  }
+
+  /**
+   * Build the where clause from the filters parameter. Column names are
+   * checked against the table, operators against the fixed sets above, and
+   * values are appended to args to be bound.
+   *
+   * @param filtersParm
+   * @param tableColumns
+   * @param args         receives the bind values
+   * @return the where clause, or null if there are no filters.
+   * @throws BadRequestException
+   */
+  private static String parseFilters(String filtersParm, Set<String> tableColumns,
+      List<String> args) throws BadRequestException {
+    if (filtersParm == null || filtersParm.trim().length() == 0) {
+      return null;
+    }
+    List<List<Object>> filters;
+    try {
+      filters = ODKFileUtils.mapper.readValue(filtersParm,
+          new TypeReference<ArrayList<ArrayList<Object>>>() {
+          });
+    } catch (IOException e) {
+      throw new BadRequestException("filters must be a JSON array of [column, operator, value]");
+    }
+    StringBuilder b = new StringBuilder();
+    for (List<Object> filter : filters) {
+      if (filter == null || filter.size() < 2 || filter.size() > 3
+          || !(filter.get(0) instanceof String) || !(filter.get(1) instanceof String)) {
+        throw new BadRequestException("each filter must be [column, operator, value]");
+      }
+      String column = (String) filter.get(0);
+      if (!tableColumns.contains(column)) {
+        throw new BadRequestException("Unknown filter column: " + column);
+      }
+      String operator = ((String) filter.get(1)).trim().toUpperCase(Locale.US);
+      if (b.length() != 0) {
+        b.append(" AND ");
+      }
+      b.append("\"").append(column).append("\" ");
+      if (UNARY_OPERATORS.contains(operator)) {
+        if (filter.size() != 2) {
+          throw new BadRequestException(operator + " does not take a value");
+        }
+        b.append(operator);
+      } else if (BINARY_OPERATORS.contains(operator)) {
+        if (filter.size() != 3 || filter.get(2) == null) {
+          throw new BadRequestException(operator + " requires a non-null value");
+        }
+        b.append(operator).append(" ?");
+        args.add(filter.get(2).toString());
+      } else {
+        throw new BadRequestException("Unsupported filter operator: " + operator);
+      }
+    }
+    return (b.length() == 0) ? null : b.toString();
+  }
+
+  /**
+   * @param value
+   * @return the hex SHA-1 digest of value.
+   */
+  private static String digest(String value) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+      byte[] hash = md.digest(value.getBytes(CharEncoding.UTF_8));
+      StringBuilder b = new StringBuilder();
+      for (byte v : hash) {
+        b.append(Character.forDigit((v >> 4) & 0xf, 16)).append(Character.forDigit(v & 0xf, 16));
+      }
+      return b.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is not available", e);
+    }
+  }
+
+  private static int parseNonNegative(String value, String name, int defaultValue)
+      throws BadRequestException {
+    if (value == null || value.trim().length() == 0) {
+      return defaultValue;
+    }
+    try {
+      int n = Integer.parseInt(value.trim());
+      if (n < 0) {
+        throw new BadRequestException(name + " must not be negative");
+      }
+      return n;
+    } catch (NumberFormatException e) {
+      throw new BadRequestException(name + " must be an integer");
+    }
+  }
+
+  private static void releaseConnection(OdkConnectionInterface db, String appName,
+      OdkDbHandle dbHandleName) {
+    try {
+      db.releaseReference();
+    } finally {
+      // this closes the connection
+      OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+          .removeConnection(appName, dbHandleName);
+    }
+  }
+
+  /**
+   * ByteArrayOutputStream whose buffer can be read without copying it.
+   */
+  private static final class SerializationBuffer extends ByteArrayOutputStream {
+    SerializationBuffer() {
+      super(2 * SERIALIZATION_BUFFER_SIZE);
+    }
+
+    byte[] array() {
+      return buf;
+    }
+  }
+
+  /**
+   * Serializes the rows of a cursor to JSON as the response is sent. Only a
+   * few kilobytes of rows are serialized at a time. Closing the stream (done
+   * by the Response once it has been sent) closes the cursor and releases the
+   * database connection.
+   */
+  private static final class CursorJsonInputStream extends InputStream {
+    private final OdkConnectionInterface db;
+    private final String appName;
+    private final OdkDbHandle dbHandleName;
+    private final Cursor cursor;
+    private final SerializationBuffer buffer = new SerializationBuffer();
+    private final JsonGenerator generator;
+    private int remaining;
+    private int position = 0;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    CursorJsonInputStream(OdkConnectionInterface db, String appName, OdkDbHandle dbHandleName,
+        Cursor cursor) throws IOException {
+      this.db = db;
+      this.appName = appName;
+      this.dbHandleName = dbHandleName;
+      this.cursor = cursor;
+      this.generator = ODKFileUtils.mapper.getFactory().createGenerator(buffer, JsonEncoding.UTF8);
+    }
+
+    void writeHeader(String tableId, Long changeCounter, int offset, int limit,
+        List<String> columns) throws IOException {
+      remaining = limit;
+      generator.writeStartObject();
+      generator.writeStringField("tableId", tableId);
+      if (changeCounter == null) {
+        generator.writeNullField("changeCounter");
+      } else {
+        generator.writeNumberField("changeCounter", changeCounter);
+      }
+      generator.writeNumberField("offset", offset);
+      if (limit < 0) {
+        generator.writeNullField("limit");
+      } else {
+        generator.writeNumberField("limit", limit);
+      }
+      generator.writeArrayFieldStart("columns");
+      for (String column : columns) {
+        generator.writeString(column);
+      }
+      generator.writeEndArray();
+      generator.writeArrayFieldStart("rows");
+      generator.flush();
+    }
+
+    /**
+     * Serialize rows until the buffer holds at least SERIALIZATION_BUFFER_SIZE
+     * bytes or the rows are exhausted.
+     */
+    private void fill() throws IOException {
+      buffer.reset();
+      position = 0;
+      while (!finished && buffer.size() < SERIALIZATION_BUFFER_SIZE) {
+        if (!cursor.moveToNext()) {
+          finish(false);
+        } else if (remaining == 0) {
+          // the extra row fetched beyond the page
+          finish(true);
+        } else {
+          writeRow();
+          if (remaining > 0) {
+            --remaining;
+          }
+        }
+        generator.flush();
+      }
+    }
+
+    private void writeRow() throws IOException {
+      int count = cursor.getColumnCount();
+      generator.writeStartArray();
+      for (int i = 0; i < count; ++i) {
+        switch (cursor.getType(i)) {
+        case Cursor.FIELD_TYPE_NULL:
+          generator.writeNull();
+          break;
+        case Cursor.FIELD_TYPE_INTEGER:
+          generator.writeNumber(cursor.getLong(i));
+          break;
+        case Cursor.FIELD_TYPE_FLOAT:
+          generator.writeNumber(cursor.getDouble(i));
+          break;
+        case Cursor.FIELD_TYPE_BLOB:
+          generator.writeBinary(cursor.getBlob(i));
+          break;
+        default:
+          generator.writeString(cursor.getString(i));
+          break;
+        }
+      }
+      generator.writeEndArray();
+    }
+
+    private void finish(boolean hasMore) throws IOException {
+      generator.writeEndArray();
+      generator.writeBooleanField("hasMore", hasMore);
+      generator.writeEndObject();
+      finished = true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      int n = read(one, 0, 1);
+      return (n <= 0) ? -1 : (one[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("stream is closed");
+      }
+      if (len == 0) {
+        return 0;
+      }
+      if (position == buffer.size()) {
+        if (finished) {
+          return -1;
+        }
+        fill();
+      }
+      int n = Math.min(len, buffer.size() - position);
+      if (n <= 0) {
+        return -1;
+      }
+      System.arraycopy(buffer.array(), position, b, off, n);
+      position += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        generator.close();
+      } catch (IOException e) {
+        // ignore
+      }
+      try {
+        if (!cursor.isClosed()) {
+          cursor.close();
+        }
+      } finally {
+        releaseConnection(db, appName, dbHandleName);
+      }
+    }
+  }
+}
@@ -37,7 +37,10 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -124,6 +127,19 @@ public abstract class NanoHTTPD {
     private ServerSocket myServerSocket;
     private Set<Socket> openConnections = new HashSet<Socket>();
     private Thread myThread;
+    /**
+     * Set by stop() so that the listener thread can distinguish a requested
+     * shutdown from a failure of the server socket.
+     */
+    private volatile boolean stopRequested = false;
+    /**
+     * Time (System.currentTimeMillis()) at which the last request was received.
+     */
+    private volatile long lastRequestTime = 0L;
+    /**
+     * Notified if the listener thread terminates without stop() being called.
+     */
+    private volatile LifecycleListener lifecycleListener;
     /**
      * Pluggable strategy for asynchronously executing requests.
      */
@@ -132,6 +148,14 @@ public abstract class NanoHTTPD {
      * Pluggable strategy for creating and cleaning up temporary files.
      */
     private TempFileManagerFactory tempFileManagerFactory;
+    /**
+     * How connections are accepted and read; set before start().
+     */
+    private Engine engine = Engine.BLOCKING;
+    /**
+     * Non-null while the SELECTOR engine is running.
+     */
+    private SelectorEngine selectorEngine;
 
     /**
      * Constructs an HTTP server on given port.
@@ -183,12 +207,24 @@ public abstract class NanoHTTPD {
      * @throws IOException if the socket is in use.
      */
     public void start() throws IOException {
-        myServerSocket = new ServerSocket();
+        stopRequested = false;
+        lastRequestTime = System.currentTimeMillis();
+        if (engine == Engine.SELECTOR) {
+            selectorEngine = new SelectorEngine(this);
+            myServerSocket = selectorEngine.bind((hostname != null) ? new InetSocketAddress(hostname, myPort) : new InetSocketAddress(myPort));
+            myThread = selectorEngine.start();
+            return;
+        }
+        // Open the server socket through a channel so that accepted sockets
+        // have a SocketChannel. File-backed responses are written to it
+        // with FileChannel.transferTo().
+        myServerSocket = ServerSocketChannel.open().socket();
         myServerSocket.bind((hostname != null) ? new InetSocketAddress(hostname, myPort) : new InetSocketAddress(myPort));
 
         myThread = new Thread(new Runnable() {
             @Override
             public void run() {
+                Exception failure = null;
                 do {
                     try {
                         final Socket finalAccept = myServerSocket.accept();
@@ -209,6 +245,7 @@ public abstract class NanoHTTPD {
                                     outputStream = finalAccept.getOutputStream();
                                     TempFileManager tempFileManager = tempFileManagerFactory.create();
                                     HTTPSession session = new HTTPSession(tempFileManager, bufferedInputStream, outputStream, finalAccept.getInetAddress());
+                                    session.setOutputChannel(finalAccept.getChannel());
                                     while (!finalAccept.isClosed()) {
                                         session.execute();
                                     }
@@ -228,8 +265,19 @@ public abstract class NanoHTTPD {
                           });
                         }
                     } catch (IOException e) {
+                        if (!stopRequested && !myServerSocket.isClosed()) {
+                            // the server socket is no longer usable.
+                            // Close it and report the failure (below).
+                            failure = e;
+                            safeClose(myServerSocket);
+                        }
+                    } catch (RuntimeException e) {
+                        failure = e;
+                        safeClose(myServerSocket);
                     }
                 } while (!myServerSocket.isClosed());
+
+                onListenerExit(failure);
             }
         });
         myThread.setDaemon(true);
@@ -241,8 +289,12 @@ public abstract class NanoHTTPD {
      * Stop the server.
      */
     public void stop() {
+        stopRequested = true;
         try {
             safeClose(myServerSocket);
+            if (selectorEngine != null) {
+                selectorEngine.stop();
+            }
             closeAllConnections();
             if (myThread != null) {
                 myThread.join();
@@ -252,6 +304,32 @@ public abstract class NanoHTTPD {
         }
     }
 
+    /**
+     * Called when the listener thread exits. Reports a failure to the
+     * LifecycleListener unless stop() was called.
+     *
+     * @param failure the exception that caused the exit; may be null.
+     */
+    void onListenerExit(Exception failure) {
+        if (!stopRequested) {
+            LifecycleListener listener = lifecycleListener;
+            if (listener != null) {
+                listener.onServerFailure(this, failure);
+            }
+        }
+    }
+
+    /**
+     * @return true if stop() has been called since the server was started.
+     */
+    boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    TempFileManager createTempFileManager() {
+        return tempFileManagerFactory.create();
+    }
+
     /**
      * Registers that a new connection has been set up.
      *
@@ -292,6 +370,31 @@ public abstract class NanoHTTPD {
         return wasStarted() && !myServerSocket.isClosed() && myThread.isAlive();
     }
 
+    /**
+     * @return the time (System.currentTimeMillis()) at which the last request was
+     * received, or at which the server was started if there have been no requests.
+     */
+    public final long getLastRequestTime() {
+        return lastRequestTime;
+    }
+
+    /**
+     * @return the number of open (possibly idle keep-alive) connections.
+     */
+    public synchronized int getOpenConnectionCount() {
+        return openConnections.size();
+    }
+
+    /**
+     * Register a listener to be notified if the server stops listening
+     * for a reason other than a call to stop().
+     *
+     * @param lifecycleListener
+     */
+    public void setLifecycleListener(LifecycleListener lifecycleListener) {
+        this.lifecycleListener = lifecycleListener;
+    }
+
     /**
      * Override this to customize the server.
      * <p/>
@@ -407,6 +510,27 @@ public abstract class NanoHTTPD {
         this.asyncRunner = asyncRunner;
     }
 
+    /**
+     * Choose how connections are accepted and read. Takes effect at the
+     * next start().
+     * <p/>
+     * BLOCKING uses a thread per connection (via the AsyncRunner) for the
+     * life of the connection. SELECTOR uses a small fixed set of event-loop
+     * threads to accept connections and read request headers; a request is
+     * handed to a worker thread only once its header has arrived, and the
+     * connection goes back to the event loop when it is idle. The AsyncRunner
+     * is not used by the SELECTOR engine.
+     *
+     * @param engine
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
     // ------------------------------------------------------------------------------- //
     //
     // Temp file handling strategy.
@@ -438,6 +562,28 @@ public abstract class NanoHTTPD {
         }
     }
 
+    /**
+     * Connection-handling strategies; see setEngine().
+     */
+    public enum Engine {
+        BLOCKING, SELECTOR
+    }
+
+    /**
+     * Notification of the server's own failure.
+     */
+    public interface LifecycleListener {
+        /**
+         * Called on the listener thread when the server socket fails or is
+         * closed without stop() having been called. The server is no longer
+         * accepting connections.
+         *
+         * @param server the server that failed.
+         * @param e the exception that caused the failure; may be null.
+         */
+        void onServerFailure(NanoHTTPD server, Exception e);
+    }
+
     /**
      * Pluggable strategy for asynchronously executing requests.
      */
@@ -569,6 +715,56 @@ public abstract class NanoHTTPD {
         }
     }
 
+    /**
+     * Pool of request-header buffers, so that a buffer is not allocated
+     * for every request.
+     */
+    static final class HeaderBuffers {
+        private static final int MAX_POOLED = 32;
+        private static final ArrayList<byte[]> pool = new ArrayList<byte[]>();
+
+        private HeaderBuffers() {
+        }
+
+        static byte[] acquire() {
+            synchronized (pool) {
+                int size = pool.size();
+                if (size != 0) {
+                    return pool.remove(size - 1);
+                }
+            }
+            return new byte[HTTPSession.BUFSIZE];
+        }
+
+        static void release(byte[] buf) {
+            if (buf == null || buf.length != HTTPSession.BUFSIZE) {
+                return;
+            }
+            synchronized (pool) {
+                if (pool.size() < MAX_POOLED) {
+                    pool.add(buf);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find byte index separating header from body. It must be the last
+     * byte of the first two sequential new lines.
+     *
+     * @return the index just past the header end, or 0 if not found.
+     */
+    static int findHeaderEnd(final byte[] buf, int rlen) {
+        int splitbyte = 0;
+        while (splitbyte + 3 < rlen) {
+            if (buf[splitbyte] == '\r' && buf[splitbyte + 1] == '\n' && buf[splitbyte + 2] == '\r' && buf[splitbyte + 3] == '\n') {
+                return splitbyte + 4;
+            }
+            splitbyte++;
+        }
+        return 0;
+    }
+
     /**
      * HTTP response. Return one of these from serve().
      */
@@ -597,6 +793,19 @@ public abstract class NanoHTTPD {
          * Use chunkedTransfer
          */
         private boolean chunkedTransfer;
+        /**
+         * File-backed data of the response, if not null. Sent with
+         * FileChannel.transferTo() rather than copied through a buffer.
+         */
+        private FileChannel fileData;
+        /**
+         * Position within fileData at which to start sending.
+         */
+        private long fileDataOffset;
+        /**
+         * Number of bytes of fileData to send.
+         */
+        private long fileDataLength;
 
         /**
          * Default constructor: response = HTTP_OK, mime = MIME_HTML and your supplied message
@@ -614,6 +823,18 @@ public abstract class NanoHTTPD {
             this.data = data;
         }
 
+        /**
+         * File-backed response. Sends length bytes of the file starting at offset.
+         * The channel is closed once the response has been sent.
+         */
+        public Response(IStatus status, String mimeType, FileChannel fileData, long offset, long length) {
+            this.status = status;
+            this.mimeType = mimeType;
+            this.fileData = fileData;
+            this.fileDataOffset = offset;
+            this.fileDataLength = length;
+        }
+
         /**
          * Convenience method that makes an InputStream out of given text.
          */
@@ -642,6 +863,15 @@ public abstract class NanoHTTPD {
          * Sends given response to the socket.
          */
         protected void send(OutputStream outputStream) {
+            send(outputStream, null);
+        }
+
+        /**
+         * Sends given response to the socket. If the response is file-backed and
+         * the socket's channel is available, the file content is transferred
+         * directly to that channel.
+         */
+        protected void send(OutputStream outputStream, WritableByteChannel outputChannel) {
             String mime = mimeType;
             SimpleDateFormat gmtFrmt = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
             gmtFrmt.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -676,7 +906,13 @@ public abstract class NanoHTTPD {
 
                 sendConnectionHeaderIfNotAlreadyPresent(pw, header);
 
-                if (requestMethod != Method.HEAD && chunkedTransfer) {
+                if (fileData != null) {
+                    sendContentLengthHeaderIfNotAlreadyPresent(pw, header, fileDataLength);
+                    pw.print("\r\n");
+                    pw.flush();
+                    outputStream.flush();
+                    sendFileData(outputStream, outputChannel);
+                } else if (requestMethod != Method.HEAD && chunkedTransfer) {
                     sendAsChunked(outputStream, pw);
                 } else {
                     int pending = data != null ? data.available() : 0;
@@ -686,13 +922,15 @@ public abstract class NanoHTTPD {
                     sendAsFixedLength(outputStream, pending);
                 }
                 outputStream.flush();
-                safeClose(data);
             } catch (IOException ioe) {
                 // Couldn't write? No can do.
+            } finally {
+                safeClose(data);
+                safeClose(fileData);
             }
         }
 
-        protected void sendContentLengthHeaderIfNotAlreadyPresent(PrintWriter pw, Map<String, String> header, int size) {
+        protected void sendContentLengthHeaderIfNotAlreadyPresent(PrintWriter pw, Map<String, String> header, long size) {
             if (!headerAlreadySent(header, "content-length")) {
                 pw.print("Content-Length: "+ size +"\r\n");
             }
@@ -728,6 +966,29 @@ public abstract class NanoHTTPD {
             outputStream.write(String.format("0\r\n\r\n").getBytes());
         }
 
+        /**
+         * Transfer the file-backed data. Uses the socket's channel when it is
+         * available so that the kernel can move the bytes without copying them
+         * through the Java heap.
+         */
+        private void sendFileData(OutputStream outputStream, WritableByteChannel outputChannel) throws IOException {
+            if (requestMethod == Method.HEAD) {
+                return;
+            }
+            WritableByteChannel target = (outputChannel != null) ? outputChannel : Channels.newChannel(outputStream);
+            long position = fileDataOffset;
+            long remaining = fileDataLength;
+            while (remaining > 0) {
+                long sent = fileData.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    // file was truncated underneath us
+                    throw new IOException("unable to send file data: truncated?");
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+
         private void sendAsFixedLength(OutputStream outputStream, int pending) throws IOException {
             if (requestMethod != Method.HEAD && data != null) {
                 int BUFFER_SIZE = 16 * 1024;
@@ -880,6 +1141,7 @@ public abstract class NanoHTTPD {
         public static final int BUFSIZE = 8192;
         private final TempFileManager tempFileManager;
         private final OutputStream outputStream;
+        private WritableByteChannel outputChannel;
         private PushbackInputStream inputStream;
         private int splitbyte;
         private int rlen;
@@ -907,20 +1169,33 @@ public abstract class NanoHTTPD {
             headers.put("http-client-ip", remoteIp);
         }
 
+        /**
+         * Set the channel of the socket, if it has one. File-backed responses
+         * are written directly to it.
+         */
+        public void setOutputChannel(WritableByteChannel outputChannel) {
+            this.outputChannel = outputChannel;
+        }
+
         @Override
         public void execute() throws IOException {
+            byte[] buf = null;
             try {
                 // Read the first 8192 bytes.
                 // The full header should fit in here.
                 // Apache's default header limit is 8KB.
                 // Do NOT assume that a single read will get the entire header at once!
-                byte[] buf = new byte[BUFSIZE];
+                buf = HeaderBuffers.acquire();
                 splitbyte = 0;
                 rlen = 0;
                 {
                     int read = -1;
                     try {
-                        read = inputStream.read(buf, 0, BUFSIZE);
+                        // If a pipelined request has already been received, read
+                        // only what is available: PushbackInputStream would otherwise
+                        // block for more socket data after returning the unread bytes.
+                        int available = inputStream.available();
+                        read = inputStream.read(buf, 0, (available > 0) ? Math.min(available, BUFSIZE) : BUFSIZE);
                     } catch (Exception e) {
                         safeClose(inputStream);
                         safeClose(outputStream);
@@ -945,6 +1220,8 @@ public abstract class NanoHTTPD {
                     inputStream.unread(buf, splitbyte, rlen - splitbyte);
                 }
 
+                lastRequestTime = System.currentTimeMillis();
+
                 parms = new HashMap<String, String>();
                 if(null == headers) {
                     headers = new HashMap<String, String>();
@@ -973,7 +1250,7 @@ public abstract class NanoHTTPD {
                 } else {
                     cookies.unloadQueue(r);
                     r.setRequestMethod(method);
-                    r.send(outputStream);
+                    r.send(outputStream, outputChannel);
                 }
             } catch (SocketException e) {
                 // throw it out to close socket object (finalAccept)
@@ -989,10 +1266,19 @@ public abstract class NanoHTTPD {
                 r.send(outputStream);
                 safeClose(outputStream);
             } finally {
+                HeaderBuffers.release(buf);
                 tempFileManager.clear();
             }
         }
 
+        /**
+         * @return true if bytes of a following (pipelined) request have
+         * already been received.
+         */
+        boolean hasBufferedInput() throws IOException {
+            return inputStream.available() > 0;
+        }
+
         @Override
         public void parseBody(Map<String, String> files) throws IOException, ResponseException {
             RandomAccessFile randomAccessFile = null;
@@ -1212,19 +1498,6 @@ public abstract class NanoHTTPD {
             }
         }
 
-        /**
-         * Find byte index separating header from body. It must be the last byte of the first two sequential new lines.
-         */
-        private int findHeaderEnd(final byte[] buf, int rlen) {
-            int splitbyte = 0;
-            while (splitbyte + 3 < rlen) {
-                if (buf[splitbyte] == '\r' && buf[splitbyte + 1] == '\n' && buf[splitbyte + 2] == '\r' && buf[splitbyte + 3] == '\n') {
-                    return splitbyte + 4;
-                }
-                splitbyte++;
-            }
-            return 0;
-        }
 
         /**
          * Find the byte positions where multipart boundaries start.
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package fi.iki.elonen;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based connection handling for {@link NanoHTTPD} (see
+ * {@link NanoHTTPD.Engine#SELECTOR}).
+ * <p/>
+ * A small fixed set of event-loop threads accept connections and read
+ * request headers without blocking. Idle keep-alive connections are only
+ * registered with a selector; they do not pin a thread or a buffer. Once a
+ * complete header has arrived, the connection is switched to blocking mode
+ * and handed to a worker thread, which runs the usual HTTPSession against
+ * the bytes already read followed by the socket stream. Requests pipelined
+ * behind it are served by the same worker; the connection then returns to
+ * its event loop.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+final class SelectorEngine {
+
+    private static final String TAG = "SelectorEngine";
+
+    /**
+     * Interval at which event loops look for idle connections to close.
+     */
+    private static final long IDLE_CHECK_INTERVAL_MS = 1000L;
+
+    /**
+     * Responses are buffered so that the header and a small body go out
+     * together; Response.send() flushes before sending file-backed data.
+     */
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+
+    private final NanoHTTPD server;
+    private final EventLoop[] eventLoops;
+    private final ExecutorService workers;
+    private final AtomicInteger nextEventLoop = new AtomicInteger(0);
+    private final AtomicBoolean exitReported = new AtomicBoolean(false);
+    private ServerSocketChannel serverChannel;
+
+    SelectorEngine(NanoHTTPD server) throws IOException {
+        this.server = server;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int eventLoopCount = Math.max(1, Math.min(2, processors));
+        int workerCount = Math.max(4, 2 * processors);
+
+        eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; ++i) {
+            eventLoops[i] = new EventLoop(i);
+        }
+
+        final AtomicInteger workerNumber = new AtomicInteger(0);
+        workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "NanoHttpd Request Processor (#" + workerNumber.incrementAndGet() + ")");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Open and bind the (non-blocking) server socket.
+     *
+     * @return the bound server socket.
+     */
+    ServerSocket bind(InetSocketAddress address) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+        return serverChannel.socket();
+    }
+
+    /**
+     * Start the event-loop threads.
+     *
+     * @return the thread of the event loop that accepts connections.
+     */
+    Thread start() {
+        for (EventLoop loop : eventLoops) {
+            loop.thread.start();
+        }
+        return eventLoops[0].thread;
+    }
+
+    void stop() {
+        for (EventLoop loop : eventLoops) {
+            loop.shutdown();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Called as each event loop exits. A loop that exits without stop() having
+     * been requested leaves the connections assigned to it unserved, so the
+     * whole engine is then stopped. The exit is reported to the server once.
+     */
+    private void onEventLoopExit(EventLoop loop, Exception failure) {
+        if (!exitReported.compareAndSet(false, true)) {
+            return;
+        }
+        if (!server.isStopRequested()) {
+            Log.e(TAG, loop.thread.getName() + " terminated: " + failure);
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            stop();
+        }
+        server.onListenerExit(failure);
+    }
+
+    /**
+     * A connection while it is owned by an event loop.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        long lastActivity;
+        /**
+         * Bytes of a header that has not yet completely arrived.
+         */
+        byte[] partial;
+        int partialLength;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+        /**
+         * Every read lands here first; it is copied out only when the connection
+         * is handed to a worker or when a header arrives in pieces.
+         */
+        final ByteBuffer readBuffer = ByteBuffer.allocate(NanoHTTPD.HTTPSession.BUFSIZE);
+        volatile boolean running = true;
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "NanoHttpd Event Loop (#" + (index + 1) + ")");
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Hand a (non-blocking) connection to this loop. Safe to call from any
+         * thread.
+         */
+        void add(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            Exception failure = null;
+            ArrayList<SelectionKey> dispatched = new ArrayList<SelectionKey>();
+            long lastIdleCheck = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(IDLE_CHECK_INTERVAL_MS);
+                    registerPending();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            if (read(key)) {
+                                dispatched.add(key);
+                            }
+                        }
+                    }
+
+                    if (!dispatched.isEmpty()) {
+                        // flush the cancelled keys so that the channels can be made blocking
+                        selector.selectNow();
+                        for (SelectionKey key : dispatched) {
+                            dispatch((Connection) key.attachment());
+                        }
+                        dispatched.clear();
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL_MS) {
+                        lastIdleCheck = now;
+                        closeIdleConnections(now);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // shutting down
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close((Connection) key.attachment());
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                onEventLoopExit(this, failure);
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                Connection c = new Connection(channel);
+                try {
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_READ, c);
+                } catch (IOException e) {
+                    close(c);
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                server.registerConnection(channel.socket());
+                try {
+                    channel.socket().setTcpNoDelay(true);
+                } catch (SocketException e) {
+                    // not fatal
+                }
+                EventLoop loop = eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+                loop.add(channel);
+            }
+        }
+
+        /**
+         * Read what is available on the connection.
+         *
+         * @return true if a complete header (or a full buffer) is available and
+         * the connection should be handed to a worker.
+         */
+        private boolean read(SelectionKey key) {
+            Connection c = (Connection) key.attachment();
+            readBuffer.clear();
+            if (c.partial != null) {
+                readBuffer.put(c.partial, 0, c.partialLength);
+            }
+            int count;
+            try {
+                count = c.channel.read(readBuffer);
+            } catch (IOException e) {
+                count = -1;
+            }
+            if (count == -1) {
+                key.cancel();
+                close(c);
+                return false;
+            }
+            c.lastActivity = System.currentTimeMillis();
+            int length = readBuffer.position();
+            if (length == 0) {
+                return false;
+            }
+
+            if (c.partial == null) {
+                c.partial = NanoHTTPD.HeaderBuffers.acquire();
+            }
+            System.arraycopy(readBuffer.array(), 0, c.partial, 0, length);
+            c.partialLength = length;
+
+            if (NanoHTTPD.findHeaderEnd(c.partial, length) > 0 || length == readBuffer.capacity()) {
+                key.cancel();
+                return true;
+            }
+            return false;
+        }
+
+        private void dispatch(final Connection c) {
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(c);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // rejected -- the engine is stopping
+                close(c);
+            }
+        }
+
+        /**
+         * Serve the request whose header is in c.partial, and any requests
+         * pipelined behind it. Runs on a worker thread.
+         */
+        private void serve(Connection c) {
+            byte[] header = c.partial;
+            int headerLength = c.partialLength;
+            c.partial = null;
+            c.partialLength = 0;
+
+            SocketChannel channel = c.channel;
+            Socket socket = channel.socket();
+            boolean keepOpen = false;
+            NanoHTTPD.TempFileManager tempFileManager = null;
+            try {
+                channel.configureBlocking(true);
+                socket.setSoTimeout(NanoHTTPD.SOCKET_READ_TIMEOUT);
+                InputStream inputStream = new SequenceInputStream(
+                        new ByteArrayInputStream(header, 0, headerLength), socket.getInputStream());
+                // coalesce the response header and a small body into one segment
+                OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), RESPONSE_BUFFER_SIZE);
+                tempFileManager = server.createTempFileManager();
+                NanoHTTPD.HTTPSession session = server.new HTTPSession(tempFileManager, inputStream, outputStream, socket.getInetAddress());
+                session.setOutputChannel(channel);
+                do {
+                    session.execute();
+                } while (!socket.isClosed() && session.hasBufferedInput());
+                keepOpen = !socket.isClosed();
+            } catch (Exception e) {
+                // When the socket is closed by the client, we throw our own SocketException
+                if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage()))) {
+                    Log.w(TAG, "request failed: " + e.toString());
+                }
+            } finally {
+                NanoHTTPD.HeaderBuffers.release(header);
+                if (tempFileManager != null) {
+                    tempFileManager.clear();
+                }
+            }
+
+            if (keepOpen && running) {
+                // idle (keep-alive) -- back to the event loop
+                add(channel);
+            } else {
+                close(c);
+            }
+        }
+
+        private void closeIdleConnections(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection) {
+                    Connection c = (Connection) attachment;
+                    if (now - c.lastActivity >= NanoHTTPD.SOCKET_READ_TIMEOUT) {
+                        key.cancel();
+                        close(c);
+                    }
+                }
+            }
+        }
+
+        private void close(Connection c) {
+            NanoHTTPD.HeaderBuffers.release(c.partial);
+            c.partial = null;
+            try {
+                c.channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            server.unRegisterConnection(c.channel.socket());
+        }
+    }
+}
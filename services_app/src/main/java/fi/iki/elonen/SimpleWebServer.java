@@ -28,6 +28,7 @@
  */
 package fi.iki.elonen;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
@@ -35,6 +36,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import org.apache.commons.lang3.CharEncoding;
@@ -100,6 +102,9 @@ public class SimpleWebServer extends NanoHTTPD {
         put("mov", "video/quicktime");
         put("swf", "application/x-shockwave-flash");
         put("js", "application/javascript");
+        put("json", "application/json");
+        put("csv", "text/csv");
+        put("svg", "image/svg+xml");
         put("pdf", "application/pdf");
         put("doc", "application/msword");
         put("ogg", "application/x-ogg");
@@ -137,8 +142,21 @@ public class SimpleWebServer extends NanoHTTPD {
             + "(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE\n"
             + "OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.";
 
+    /**
+     * Precomputed ETags, MIME types and path-authorization results,
+     * plus the content of small files.
+     */
+    private final AssetCache assetCache = new AssetCache();
+
+    /**
+     * Answers the read-only JSON data API (/appName/_data/tableId).
+     */
+    private final DataQueryHandler dataQueryHandler = new DataQueryHandler();
+
     public SimpleWebServer() {
         super(HOSTNAME, PORT);
+        // WebViews hold many idle keep-alive connections; don't pin a thread for each.
+        setEngine(Engine.SELECTOR);
     }
 
     /**
@@ -214,16 +232,6 @@ public class SimpleWebServer extends NanoHTTPD {
             }
         }
 
-        // Make sure we won't die of an exception later
-        File root = new File(ODKFileUtils.getOdkFolder());
-        try {
-          ODKFileUtils.verifyExternalStorageAvailability();
-          if ( !root.exists() || !root.isDirectory()) {
-            return getInternalErrorResponse("given path is not a directory (" + root.getAbsolutePath() + ").");
-          }
-        } catch ( Exception e) {
-            return getInternalErrorResponse("exception " + e.toString() + " accessing directory (" + root.getAbsolutePath() + ").");
-        }
         return respond(Collections.unmodifiableMap(header), session, uri);
     }
 
@@ -239,10 +247,43 @@ public class SimpleWebServer extends NanoHTTPD {
             return getForbiddenResponse("Won't serve ../ for security reasons.");
         }
 
+        // /appName/_data/tableId is answered from the database
+        String[] segments = uri.split("/");
+        if (segments.length == 4 && segments[0].length() == 0 &&
+            DataQueryHandler.DATA_PATH_SEGMENT.equals(segments[2])) {
+            return dataQueryHandler.serve(segments[1], segments[3], session.getMethod(),
+                headers, session.getParms());
+        }
+
+        // recently-served files are answered without touching the filesystem
+        AssetCache.Entry entry = assetCache.get(uri);
+        if (entry != null) {
+            if (!entry.canServe) {
+                return getNotFoundResponse();
+            }
+            return serveFile(uri, headers, entry);
+        }
+
+        // Make sure we won't die of an exception later
+        File root = new File(ODKFileUtils.getOdkFolder());
+        try {
+          ODKFileUtils.verifyExternalStorageAvailability();
+          if ( !root.exists() || !root.isDirectory()) {
+            return getInternalErrorResponse("given path is not a directory (" + root.getAbsolutePath() + ").");
+          }
+        } catch ( Exception e) {
+            return getInternalErrorResponse("exception " + e.toString() + " accessing directory (" + root.getAbsolutePath() + ").");
+        }
+
         boolean canServeUri = false;
         File homeDir = new File(ODKFileUtils.getOdkFolder());
         canServeUri = canServeUri(uri, homeDir);
         if (!canServeUri) {
+            File excluded = new File(homeDir, uri);
+            if (excluded.isFile()) {
+                // remember that this file is not to be served
+                assetCache.put(uri, excluded, null, false);
+            }
             return getNotFoundResponse();
         }
 
@@ -272,8 +313,9 @@ public class SimpleWebServer extends NanoHTTPD {
         }
 
         String mimeTypeForFile = getMimeTypeForFile(uri);
+        entry = assetCache.put(uri, f, mimeTypeForFile, true);
         Response response = null;
-        response = serveFile(uri, headers, f, mimeTypeForFile);
+        response = serveFile(uri, headers, entry);
         return response != null ? response : getNotFoundResponse();
     }
 
@@ -311,14 +353,101 @@ public class SimpleWebServer extends NanoHTTPD {
 
     /**
      * Serves file from homeDir and its' subdirectories (only). Uses only URI, ignores all headers and HTTP parameters.
+     * The ETag, MIME type and length come from the cache entry; the content is read from
+     * memory if the entry holds it. Compressible content is sent gzip-encoded when
+     * the client's Accept-Encoding allows it.
+     */
+    Response serveFile(String uri, Map<String, String> header, AssetCache.Entry entry) {
+        Response res;
+        String mime = entry.mimeType;
+        boolean compressible = isCompressible(mime);
+        if (compressible && header.get("range") == null && acceptsGzip(header)) {
+            AssetCache.GzipVariant gzip = assetCache.getGzipVariant(uri, entry);
+            if (gzip != null) {
+                return serveGzipVariant(header, mime, gzip);
+            }
+        }
+        res = serveIdentity(header, entry);
+        if (compressible) {
+            res.addHeader("Vary", "Accept-Encoding");
+        }
+        return res;
+    }
+
+    /**
+     * Serve the gzip-encoded variant of a file. Range requests are always
+     * served from the identity encoding, so only If-None-Match applies here.
      */
-    Response serveFile(String uri, Map<String, String> header, File file, String mime) {
+    private Response serveGzipVariant(Map<String, String> header, String mime, AssetCache.GzipVariant gzip) {
+        Response res;
+        String ifNoneMatch = header.get("if-none-match");
+        if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.equals(gzip.etag))) {
+            res = createResponse(Response.Status.NOT_MODIFIED, mime, "");
+        } else {
+            try {
+                if (gzip.content != null) {
+                    res = createResponse(Response.Status.OK, mime, new ByteArrayInputStream(gzip.content));
+                } else {
+                    FileChannel channel = new FileInputStream(gzip.file).getChannel();
+                    res = new Response(Response.Status.OK, mime, channel, 0L, gzip.length);
+                    res.addHeader("Accept-Ranges", "bytes");
+                }
+            } catch (IOException ioe) {
+                return getForbiddenResponse("Reading file failed.");
+            }
+            res.addHeader("Content-Length", "" + gzip.length);
+            res.addHeader("Content-Encoding", "gzip");
+        }
+        res.addHeader("ETag", gzip.etag);
+        res.addHeader("Vary", "Accept-Encoding");
+        return res;
+    }
+
+    // text-like content compresses well; images, audio, video and archives do not.
+    private static boolean isCompressible(String mime) {
+        if (mime == null) {
+            return false;
+        }
+        return mime.startsWith("text/") || mime.equals("application/javascript") ||
+            mime.equals("application/json") || mime.equals("image/svg+xml");
+    }
+
+    // true if the Accept-Encoding header allows gzip (or *) with a non-zero q-value.
+    private static boolean acceptsGzip(Map<String, String> header) {
+        String acceptEncoding = header.get("accept-encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.US);
+            if (!name.equals("gzip") && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; ++i) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) <= 0.0) {
+                            return false;
+                        }
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private Response serveIdentity(Map<String, String> header, AssetCache.Entry entry) {
         Response res;
+        String mime = entry.mimeType;
         try {
-            // Calculate etag
-            String etag = Integer.toHexString((file.getAbsolutePath() + file.lastModified() + "" + file.length()).hashCode());
+            String etag = entry.etag;
 
             // Support (simple) skipping:
+            long fileLen = entry.length;
             long startFrom = 0;
             long endAt = -1;
             String range = header.get("range");
@@ -329,7 +458,14 @@ public class SimpleWebServer extends NanoHTTPD {
                     try {
                         if (minus > 0) {
                             startFrom = Long.parseLong(range.substring(0, minus));
-                            endAt = Long.parseLong(range.substring(minus + 1));
+                            String end = range.substring(minus + 1);
+                            if (end.length() != 0) {
+                                endAt = Long.parseLong(end);
+                            }
+                        } else if (minus == 0) {
+                            // suffix range: the last N bytes of the file
+                            long suffixLen = Long.parseLong(range.substring(1));
+                            startFrom = Math.max(0L, fileLen - suffixLen);
                         }
                     } catch (NumberFormatException ignored) {
                     }
@@ -344,7 +480,6 @@ public class SimpleWebServer extends NanoHTTPD {
                 (ifNoneMatch.equals("*") || ifNoneMatch.equals(etag));
 
             // Change return code and add Content-Range header when skipping is requested
-            long fileLen = file.length();
             if (headerIfRangeMissingOrMatching && range != null && startFrom >= 0 && startFrom < fileLen) {
               // range request that matches current etag
               // and the startFrom of the range is satisfiable
@@ -356,7 +491,7 @@ public class SimpleWebServer extends NanoHTTPD {
                 res = createResponse(Response.Status.NOT_MODIFIED, mime, "");
                 res.addHeader("ETag", etag);
               } else {
-                if (endAt < 0) {
+                if (endAt < 0 || endAt >= fileLen) {
                     endAt = fileLen - 1;
                 }
                 long newLen = endAt - startFrom + 1;
@@ -364,17 +499,8 @@ public class SimpleWebServer extends NanoHTTPD {
                     newLen = 0;
                 }
 
-                final long dataLen = newLen;
-                FileInputStream fis = new FileInputStream(file) {
-                    @Override
-                    public int available() throws IOException {
-                        return (int) dataLen;
-                    }
-                };
-                fis.skip(startFrom);
-
-                res = createResponse(Response.Status.PARTIAL_CONTENT, mime, fis);
-                res.addHeader("Content-Length", "" + dataLen);
+                res = createFileResponse(Response.Status.PARTIAL_CONTENT, mime, entry, startFrom, newLen);
+                res.addHeader("Content-Length", "" + newLen);
                 res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + fileLen);
                 res.addHeader("ETag", etag);
               }
@@ -399,7 +525,7 @@ public class SimpleWebServer extends NanoHTTPD {
                     res.addHeader("ETag", etag);
                 } else  {
                     // supply the file
-                    res = createResponse(Response.Status.OK, mime, new FileInputStream(file));
+                    res = createFileResponse(Response.Status.OK, mime, entry, 0L, fileLen);
                     res.addHeader("Content-Length", "" + fileLen);
                     res.addHeader("ETag", etag);
                 }
@@ -421,6 +547,23 @@ public class SimpleWebServer extends NanoHTTPD {
         return mime == null ? MIME_DEFAULT_BINARY : mime;
     }
 
+    // Serve a byte range of a file. Content held in the asset cache is served
+    // from memory; otherwise the file is sent with FileChannel.transferTo()
+    // so that it is never copied through the Java heap.
+    private Response createFileResponse(Response.Status status, String mimeType,
+                                        AssetCache.Entry entry, final long offset, final long length) throws IOException {
+        Response res;
+        if (entry.content != null) {
+            res = new Response(status, mimeType,
+                    new ByteArrayInputStream(entry.content, (int) offset, (int) length));
+        } else {
+            FileChannel channel = new FileInputStream(entry.file).getChannel();
+            res = new Response(status, mimeType, channel, offset, length);
+        }
+        res.addHeader("Accept-Ranges", "bytes");
+        return res;
+    }
+
     // Announce that the file server accepts partial content requests
     private Response createResponse(Response.Status status, String mimeType, InputStream message) {
         Response res = new Response(status, mimeType, message);
@@ -557,6 +557,32 @@ public class AndroidOdkConnection implements OdkConnectionInterface{
      }
   }
 
+  public Cursor rawQueryWithDeferredCount(String sql, String[] selectionArgs) {
+     StringBuilder b = new StringBuilder();
+     b.append("rawQueryWithDeferredCount(\"").append(sql).append("\",");
+     if ( selectionArgs == null ) {
+        b.append("null)");
+     } else {
+        b.append("...)");
+     }
+     final int cookie = operationLog.beginOperation(sessionQualifier,
+         b.toString(), null, null);
+     try {
+       synchronized (mutex) {
+         return db.rawQueryWithDeferredCount(sql, selectionArgs);
+       }
+     } catch ( Throwable t ) {
+        operationLog.failOperation(cookie, t);
+        if ( t instanceof SQLiteException ) {
+           throw t;
+        } else {
+           throw new SQLiteException("unexpected", t);
+        }
+     } finally {
+        operationLog.endOperation(cookie);
+     }
+  }
+
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
       String groupBy, String having, String orderBy, String limit) {
      StringBuilder b = new StringBuilder();
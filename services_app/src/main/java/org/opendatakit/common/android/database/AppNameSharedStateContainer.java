@@ -157,6 +157,9 @@ public class AppNameSharedStateContainer {
       synchronized (appNameMutex) {
          b.append("\n---------------- " + appName + " ---------------------\n\n");
          operationLog.dump(b, true);
+         b.append("\n");
+         operationLog.getQueryProfiler().dump(b);
+         b.append("\n");
 
          b.append("beginTransactionSessionQualifier ")
              .append(beginTransactionSessionQualifier)
@@ -45,7 +45,7 @@ public abstract class OdkConnectionFactoryAbstractClass implements OdkConnection
   /**
    * the database schema version that the application expects
    */
-  private static final int mNewVersion = 1;
+  private static final int mNewVersion = 6;
 
   /**
    * object for guarding appNameSharedStateMap
@@ -157,6 +157,23 @@ public abstract class OdkConnectionFactoryAbstractClass implements OdkConnection
     }
   }
 
+  public final String getQueryProfile(String appName, boolean reset) {
+    AppNameSharedStateContainer container;
+    synchronized (mutex) {
+      container = appNameSharedStateMap.get(appName);
+    }
+    if (container == null) {
+      return "";
+    }
+    QueryProfiler profiler = container.getOperationLog().getQueryProfiler();
+    StringBuilder b = new StringBuilder();
+    profiler.dump(b);
+    if (reset) {
+      profiler.reset();
+    }
+    return b.toString();
+  }
+
   private static String getDbFilePath(String appName) {
     File dbFile = new File(ODKFileUtils.getWebDbFolder(appName),
             ODKFileUtils.getNameOfSQLiteDatabase());
@@ -45,6 +45,15 @@ public interface OdkConnectionFactoryInterface {
     */
    public void dumpInfo(boolean asError);
 
+   /**
+    * Report the statement profile and slow-query log of the given appName.
+    *
+    * @param appName
+    * @param reset true to clear the profile after reporting it
+    * @return the report; empty if the appName has not been opened
+    */
+   public String getQueryProfile(String appName, boolean reset);
+
    /**
     * Get a connection to the database for the given dbHandleName.
     * If no connection exists, this will create a new connection for that dbHandleName
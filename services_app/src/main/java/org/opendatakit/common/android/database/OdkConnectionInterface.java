@@ -133,6 +133,13 @@ public interface OdkConnectionInterface {
 
     public Cursor rawQuery(String sql, String[] selectionArgs) throws SQLException;
 
+    /**
+     * Same as rawQuery(), but the rows of the result are only counted if
+     * getCount() requires it. Use when only the first row(s) or the
+     * existence of a row matter.
+     */
+    public Cursor rawQueryWithDeferredCount(String sql, String[] selectionArgs) throws SQLException;
+
     public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
                            String groupBy, String having, String orderBy, String limit) throws SQLException;
 
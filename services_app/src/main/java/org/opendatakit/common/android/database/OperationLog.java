@@ -37,6 +37,7 @@ public final class OperationLog {
    private final OperationLogEntry[] mOperations = new OperationLogEntry[MAX_RECENT_OPERATIONS];
 
    private String appName;
+   private final QueryProfiler queryProfiler;
    private int mIndex;
    private int mGeneration;
   /**
@@ -59,6 +60,14 @@ public final class OperationLog {
 
    public OperationLog(String appName) {
       this.appName = appName;
+      this.queryProfiler = new QueryProfiler(appName);
+   }
+
+   /**
+    * @return the statement profile of this appName
+    */
+   public QueryProfiler getQueryProfiler() {
+      return queryProfiler;
    }
 
    public int beginOperation(String sessionQualifier, String kind, String sql, Object[] bindArgs) {
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.common.android.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-appName statement profile.
+ * Thread-safe.
+ * <p>
+ * Statements are grouped by their normalized SQL (literals replaced by ?,
+ * whitespace collapsed, IN-lists of placeholders folded). For each, we keep
+ * cumulative counts (executions, window fills and refills, rows, time) and a
+ * rolling latency histogram covering the last one to two ROLLING_INTERVAL_MS.
+ * <p>
+ * Statements slower than the slow-query threshold are recorded in a bounded
+ * slow-query log. The first slow execution of a statement in each rolling
+ * interval also captures its EXPLAIN QUERY PLAN (see SQLiteConnection).
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public final class QueryProfiler {
+
+   private static final int MAX_STATEMENTS = 200;
+   private static final int MAX_NORMALIZED_CACHE = 128;
+   private static final int MAX_SLOW_QUERIES = 32;
+   private static final int MAX_DUMPED_STATEMENTS = 30;
+   private static final long ROLLING_INTERVAL_MS = 5L * 60L * 1000L;
+   public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MS = 200L;
+
+   private static final java.util.regex.Pattern PLACEHOLDER_LIST =
+       java.util.regex.Pattern.compile("\\(\\?(\\s?,\\s?\\?)+\\)");
+
+   /**
+    * Latency histogram with power-of-two microsecond buckets:
+    * bucket i holds latencies in [2^i, 2^(i+1)) microseconds (bucket 0 also holds 0).
+    */
+   static final class Histogram {
+      private static final int BUCKETS = 32;
+      final long[] buckets = new long[BUCKETS];
+      long count = 0L;
+
+      void add(long micros) {
+         int idx = (micros <= 1L) ? 0 : (63 - Long.numberOfLeadingZeros(micros));
+         if (idx >= BUCKETS) {
+            idx = BUCKETS - 1;
+         }
+         ++buckets[idx];
+         ++count;
+      }
+
+      void clear() {
+         for (int i = 0; i < BUCKETS; ++i) {
+            buckets[i] = 0L;
+         }
+         count = 0L;
+      }
+
+      /**
+       * @param a
+       * @param b
+       * @param fraction e.g., 0.95
+       * @return upper bound, in microseconds, of the bucket holding the given
+       * percentile of the combined histograms; 0 if both are empty.
+       */
+      static long percentile(Histogram a, Histogram b, double fraction) {
+         long total = a.count + b.count;
+         if (total == 0L) {
+            return 0L;
+         }
+         long threshold = (long) Math.ceil(fraction * total);
+         long seen = 0L;
+         for (int i = 0; i < BUCKETS; ++i) {
+            seen += a.buckets[i] + b.buckets[i];
+            if (seen >= threshold) {
+               return 1L << (i + 1);
+            }
+         }
+         return 1L << BUCKETS;
+      }
+   }
+
+   static final class StatementStats {
+      final String normalizedSql;
+      long executions = 0L;
+      long windowFills = 0L;
+      long windowRefills = 0L;
+      long rows = 0L;
+      long totalNanos = 0L;
+      long maxNanos = 0L;
+      long slowCount = 0L;
+      Histogram current = new Histogram();
+      Histogram previous = new Histogram();
+      /**
+       * query plan captured in this rolling interval; null if none yet.
+       */
+      String plan = null;
+
+      StatementStats(String normalizedSql) {
+         this.normalizedSql = normalizedSql;
+      }
+   }
+
+   static final class SlowQuery {
+      final long when;
+      final String sessionQualifier;
+      final String normalizedSql;
+      final long elapsedNanos;
+      final int rows;
+      final String plan;
+
+      SlowQuery(long when, String sessionQualifier, String normalizedSql, long elapsedNanos,
+          int rows, String plan) {
+         this.when = when;
+         this.sessionQualifier = sessionQualifier;
+         this.normalizedSql = normalizedSql;
+         this.elapsedNanos = elapsedNanos;
+         this.rows = rows;
+         this.plan = plan;
+      }
+   }
+
+   private final String appName;
+
+   private final LinkedHashMap<String, StatementStats> statements =
+       new LinkedHashMap<String, StatementStats>(64, 0.75f, true) {
+          @Override protected boolean removeEldestEntry(Map.Entry<String, StatementStats> eldest) {
+             return size() > MAX_STATEMENTS;
+          }
+       };
+
+   private final LinkedHashMap<String, String> normalizedCache =
+       new LinkedHashMap<String, String>(64, 0.75f, true) {
+          @Override protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+             return size() > MAX_NORMALIZED_CACHE;
+          }
+       };
+
+   private final SlowQuery[] slowQueries = new SlowQuery[MAX_SLOW_QUERIES];
+   private int slowQueryIndex = 0;
+   private long totalSlowQueries = 0L;
+
+   private long lastRotation = System.currentTimeMillis();
+   private long slowQueryThresholdNanos = DEFAULT_SLOW_QUERY_THRESHOLD_MS * 1000000L;
+
+   public QueryProfiler(String appName) {
+      this.appName = appName;
+   }
+
+   public synchronized void setSlowQueryThresholdMillis(long thresholdMillis) {
+      slowQueryThresholdNanos = thresholdMillis * 1000000L;
+   }
+
+   public synchronized long getSlowQueryThresholdMillis() {
+      return slowQueryThresholdNanos / 1000000L;
+   }
+
+   /**
+    * Record one execution (or one cursor window fill) of a statement.
+    *
+    * @param sessionQualifier
+    * @param sql
+    * @param elapsedNanos
+    * @param rows            rows returned or changed; negative if unknown.
+    * @param windowFill      true if this filled a cursor window.
+    * @param refill          true if this filled a cursor window other than the first.
+    * @return true if the statement was slow and the caller should capture its
+    * query plan and pass it to recordSlowQuery(). If false, any slow query has
+    * already been logged.
+    */
+   public boolean record(String sessionQualifier, String sql, long elapsedNanos, int rows,
+       boolean windowFill, boolean refill) {
+      final long now = System.currentTimeMillis();
+      synchronized (this) {
+         rotateIfNeededLocked(now);
+         StatementStats s = getStatsLocked(sql);
+         if (!refill) {
+            ++s.executions;
+         }
+         if (windowFill) {
+            ++s.windowFills;
+         }
+         if (refill) {
+            ++s.windowRefills;
+         }
+         if (rows > 0) {
+            s.rows += rows;
+         }
+         s.totalNanos += elapsedNanos;
+         if (elapsedNanos > s.maxNanos) {
+            s.maxNanos = elapsedNanos;
+         }
+         s.current.add(elapsedNanos / 1000L);
+
+         if (elapsedNanos < slowQueryThresholdNanos) {
+            return false;
+         }
+         if (s.plan == null) {
+            // caller will capture the plan and call recordSlowQuery()
+            return true;
+         }
+         addSlowQueryLocked(now, sessionQualifier, s, elapsedNanos, rows, s.plan);
+         return false;
+      }
+   }
+
+   /**
+    * Log a slow query whose plan was just captured.
+    *
+    * @param sessionQualifier
+    * @param sql
+    * @param elapsedNanos
+    * @param rows
+    * @param plan the EXPLAIN QUERY PLAN output; null if not applicable.
+    */
+   public void recordSlowQuery(String sessionQualifier, String sql, long elapsedNanos, int rows,
+       String plan) {
+      final long now = System.currentTimeMillis();
+      synchronized (this) {
+         StatementStats s = getStatsLocked(sql);
+         s.plan = (plan == null) ? "" : plan;
+         addSlowQueryLocked(now, sessionQualifier, s, elapsedNanos, rows, s.plan);
+      }
+   }
+
+   public synchronized void reset() {
+      statements.clear();
+      for (int i = 0; i < MAX_SLOW_QUERIES; ++i) {
+         slowQueries[i] = null;
+      }
+      slowQueryIndex = 0;
+      totalSlowQueries = 0L;
+      lastRotation = System.currentTimeMillis();
+   }
+
+   public void dump(StringBuilder b) {
+      final long now = System.currentTimeMillis();
+      synchronized (this) {
+         rotateIfNeededLocked(now);
+
+         b.append("  Statement profile for ").append(appName).append(" (top ")
+             .append(MAX_DUMPED_STATEMENTS).append(" of ").append(statements.size())
+             .append(" by total time; latency percentiles over the last ")
+             .append(ROLLING_INTERVAL_MS / 60000L).append("-")
+             .append(2L * ROLLING_INTERVAL_MS / 60000L).append(" minutes)\n");
+         b.append("     execs   fills refills     rows  totalMs   avgMs   p50Ms   p95Ms   p99Ms   maxMs  slow  sql\n");
+
+         List<StatementStats> sorted = new ArrayList<StatementStats>(statements.values());
+         Collections.sort(sorted, new Comparator<StatementStats>() {
+            @Override public int compare(StatementStats lhs, StatementStats rhs) {
+               if (lhs.totalNanos == rhs.totalNanos) {
+                  return 0;
+               }
+               return (lhs.totalNanos > rhs.totalNanos) ? -1 : 1;
+            }
+         });
+         int n = 0;
+         for (StatementStats s : sorted) {
+            if (n++ == MAX_DUMPED_STATEMENTS) {
+               break;
+            }
+            long samples = s.executions + s.windowRefills;
+            b.append(String.format(Locale.US,
+                "    %1$6d  %2$6d  %3$6d  %4$7d  %5$7d  %6$6.2f  %7$6.2f  %8$6.2f  %9$6.2f  %10$6.1f  %11$4d  ",
+                s.executions, s.windowFills, s.windowRefills, s.rows, s.totalNanos / 1000000L,
+                (samples == 0L) ? 0.0 : (s.totalNanos / 1000000.0) / samples,
+                Histogram.percentile(s.current, s.previous, 0.50) / 1000.0,
+                Histogram.percentile(s.current, s.previous, 0.95) / 1000.0,
+                Histogram.percentile(s.current, s.previous, 0.99) / 1000.0,
+                s.maxNanos / 1000000.0, s.slowCount));
+            b.append(AppNameSharedStateContainer.trimSqlForDisplay(s.normalizedSql)).append("\n");
+         }
+         if (sorted.isEmpty()) {
+            b.append("    <none>\n");
+         }
+
+         b.append("\n  Slow queries (>= ").append(slowQueryThresholdNanos / 1000000L)
+             .append(" ms; ").append(totalSlowQueries).append(" total, most recent first):\n");
+         int index = slowQueryIndex;
+         int shown = 0;
+         for (int i = 0; i < MAX_SLOW_QUERIES; ++i) {
+            index = (index + MAX_SLOW_QUERIES - 1) % MAX_SLOW_QUERIES;
+            SlowQuery q = slowQueries[index];
+            if (q == null) {
+               break;
+            }
+            ++shown;
+            b.append("    ").append(new Date(q.when).toString())
+                .append(" ").append(q.elapsedNanos / 1000000L).append(" ms rows=").append(q.rows)
+                .append(" session=").append(q.sessionQualifier).append(" sql=\"")
+                .append(AppNameSharedStateContainer.trimSqlForDisplay(q.normalizedSql))
+                .append("\"\n");
+            if (q.plan != null && q.plan.length() != 0) {
+               b.append("      plan: ").append(q.plan).append("\n");
+            }
+         }
+         if (shown == 0) {
+            b.append("    <none>\n");
+         }
+      }
+   }
+
+   /**
+    * Normalize SQL so that statements differing only in their literal values
+    * are profiled together.
+    *
+    * @param sql
+    * @return the normalized SQL
+    */
+   static String normalize(String sql) {
+      final int n = sql.length();
+      StringBuilder b = new StringBuilder(n);
+      boolean pendingSpace = false;
+      int i = 0;
+      while (i < n) {
+         char c = sql.charAt(i);
+         if (Character.isWhitespace(c)) {
+            pendingSpace = true;
+            ++i;
+            continue;
+         }
+         if (pendingSpace && b.length() != 0) {
+            b.append(' ');
+         }
+         pendingSpace = false;
+
+         if (c == '\'') {
+            // string literal -- skip to the closing quote ('' is an escaped quote)
+            ++i;
+            while (i < n) {
+               if (sql.charAt(i) == '\'') {
+                  if (i + 1 < n && sql.charAt(i + 1) == '\'') {
+                     i += 2;
+                     continue;
+                  }
+                  break;
+               }
+               ++i;
+            }
+            ++i;
+            b.append('?');
+         } else if (c == '"' || c == '`' || c == '[') {
+            // quoted identifier -- copy verbatim
+            char close = (c == '[') ? ']' : c;
+            int end = sql.indexOf(close, i + 1);
+            end = (end < 0) ? n : end + 1;
+            b.append(sql, i, end);
+            i = end;
+         } else if (Character.isDigit(c) && (b.length() == 0 || !isIdentifierChar(
+             b.charAt(b.length() - 1)))) {
+            // numeric literal
+            while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+               ++i;
+            }
+            b.append('?');
+         } else {
+            b.append(c);
+            ++i;
+         }
+      }
+      return PLACEHOLDER_LIST.matcher(b).replaceAll("(?+)");
+   }
+
+   private static boolean isIdentifierChar(char c) {
+      return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+   }
+
+   private StatementStats getStatsLocked(String sql) {
+      String key = normalizedCache.get(sql);
+      if (key == null) {
+         key = normalize(sql);
+         normalizedCache.put(sql, key);
+      }
+      StatementStats s = statements.get(key);
+      if (s == null) {
+         s = new StatementStats(key);
+         statements.put(key, s);
+      }
+      return s;
+   }
+
+   private void addSlowQueryLocked(long now, String sessionQualifier, StatementStats s,
+       long elapsedNanos, int rows, String plan) {
+      ++s.slowCount;
+      ++totalSlowQueries;
+      slowQueries[slowQueryIndex] = new SlowQuery(now, sessionQualifier, s.normalizedSql,
+          elapsedNanos, rows, plan);
+      slowQueryIndex = (slowQueryIndex + 1) % MAX_SLOW_QUERIES;
+   }
+
+   private void rotateIfNeededLocked(long now) {
+      if (now - lastRotation < ROLLING_INTERVAL_MS) {
+         return;
+      }
+      boolean skipped = (now - lastRotation >= 2L * ROLLING_INTERVAL_MS);
+      lastRotation = now;
+      for (StatementStats s : statements.values()) {
+         Histogram h = s.previous;
+         h.clear();
+         s.previous = s.current;
+         if (skipped) {
+            // nothing recorded in the interval before this one
+            s.previous.clear();
+         }
+         s.current = h;
+         // re-capture the plan the next time the statement is slow
+         s.plan = null;
+      }
+   }
+}
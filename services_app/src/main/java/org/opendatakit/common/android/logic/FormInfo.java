@@ -15,9 +15,16 @@
 package org.opendatakit.common.android.logic;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 
@@ -30,7 +37,9 @@ import android.content.Context;
 import android.database.Cursor;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import org.opendatakit.common.android.utilities.WebLogger;
 
@@ -60,12 +69,32 @@ public class FormInfo {
   public final String formTitle;
   public final String defaultLocale; // default locale
   public final String instanceName;  // column containing instance name for display
+  public final String jsonMd5Hash;   // md5 hash of the formDef.json file (md5: prefixed)
 
   // formDef.json file...
   public final File formDefFile;
-  // the entire formDef, parsed using Jackson...
+  // the entire formDef, parsed using Jackson (only when constructed
+  // from a Cursor with parseFormDef set)...
   public final HashMap<String, Object> formDef;
 
+  /**
+   * Number of FormInfo objects retained by getFormInfo()
+   */
+  private static final int FORM_INFO_CACHE_SIZE = 32;
+
+  /**
+   * FormInfo objects parsed from formDef.json files, keyed by the absolute
+   * path of the file. An entry is only used if the lastModificationDate and
+   * fileLength it recorded still match those of the file.
+   */
+  private static final LinkedHashMap<String, FormInfo> formInfoCache =
+      new LinkedHashMap<String, FormInfo>(FORM_INFO_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FormInfo> eldest) {
+          return size() > FORM_INFO_CACHE_SIZE;
+        }
+      };
+
   static final String FORMDEF_VALUE = "value";
 
   static final String FORMDEF_DEFAULT_LOCALE = "_default_locale";
@@ -146,6 +175,8 @@ public class FormInfo {
     formTitle = ODKCursorUtils.getIndexAsString(c, c.getColumnIndex(FormsColumns.DISPLAY_NAME));
     defaultLocale = ODKCursorUtils.getIndexAsString(c, c.getColumnIndex(FormsColumns.DEFAULT_FORM_LOCALE));
     instanceName = ODKCursorUtils.getIndexAsString(c, c.getColumnIndex(FormsColumns.INSTANCE_NAME));
+    int idxMd5Hash = c.getColumnIndex(FormsColumns.JSON_MD5_HASH);
+    jsonMd5Hash = (idxMd5Hash == -1) ? null : ODKCursorUtils.getIndexAsString(c, idxMd5Hash);
 
     File formFolder = new File( ODKFileUtils.getFormFolder(appName, tableId, formId) );
     formDefFile = new File( formFolder, ODKFileUtils.FORMDEF_JSON_FILENAME);
@@ -179,6 +210,142 @@ public class FormInfo {
   }
 
   /**
+   * Return the FormInfo for the given formDef.json file, reusing the one
+   * from a prior call if the file's modification date and length are
+   * unchanged.
+   *
+   * @param c
+   * @param appName
+   * @param formDefFile
+   * @return
+   */
+  public static FormInfo getFormInfo(Context c, String appName, File formDefFile) {
+    String key = formDefFile.getAbsolutePath();
+    synchronized (formInfoCache) {
+      FormInfo fi = formInfoCache.get(key);
+      if (fi != null && fi.appName.equals(appName)
+          && fi.lastModificationDate == formDefFile.lastModified()
+          && fi.fileLength == formDefFile.length()) {
+        return fi;
+      }
+    }
+
+    FormInfo fi = new FormInfo(c, appName, formDefFile);
+    // don't retain it if the file was changed while we were reading it
+    if (fi.lastModificationDate == formDefFile.lastModified()
+        && fi.fileLength == formDefFile.length()) {
+      synchronized (formInfoCache) {
+        formInfoCache.put(key, fi);
+      }
+    }
+    return fi;
+  }
+
+  /**
+   * The settings section of a formDef.json and the md5 hash of the file.
+   */
+  private static final class FormDefSettings {
+    Map<String, Object> settings;
+    String md5Hash;
+  }
+
+  /**
+   * Stream through the formDef.json file, materializing only the
+   * specification.settings section and computing the md5 hash of the file
+   * contents in the same pass. Once the settings are found, the remainder of
+   * the file is read only to complete the hash; it is not tokenized.
+   *
+   * @param appName
+   * @param formDefFile
+   * @return the settings (null if there is no settings section) and md5 hash.
+   */
+  @SuppressWarnings("unchecked")
+  private static FormDefSettings readFormDefSettings(String appName, File formDefFile) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 digest is not available");
+    }
+
+    FormDefSettings result = new FormDefSettings();
+    boolean hasSpecification = false;
+    InputStream is = null;
+    JsonParser parser = null;
+    try {
+      is = new DigestInputStream(new FileInputStream(formDefFile), md);
+      parser = ODKFileUtils.mapper.getFactory().createParser(is);
+      parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException("formDef is not a json object", parser.getCurrentLocation());
+      }
+      while (!hasSpecification && parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (FORMDEF_SPECIFICATION_SECTION.equals(name) && token == JsonToken.START_OBJECT) {
+          hasSpecification = true;
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String subName = parser.getCurrentName();
+            JsonToken subToken = parser.nextToken();
+            if (FORMDEF_SETTINGS_SUBSECTION.equals(subName) && subToken == JsonToken.START_OBJECT) {
+              result.settings = ODKFileUtils.mapper.readValue(parser, HashMap.class);
+              break;
+            }
+            parser.skipChildren();
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      parser.close();
+      parser = null;
+
+      // the parser has buffered ahead; drain whatever it has not consumed
+      byte[] buffer = new byte[8192];
+      while (is.read(buffer) != -1) {
+        // just digesting...
+      }
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      throw new IllegalArgumentException("File is not a json file! "
+          + formDefFile.getAbsolutePath());
+    } finally {
+      if (parser != null) {
+        try {
+          parser.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+
+    if (!hasSpecification) {
+      throw new IllegalArgumentException("File is not a formdef json file! No specification element."
+          + formDefFile.getAbsolutePath());
+    }
+
+    // same representation as ODKFileUtils.getMd5Hash()
+    BigInteger number = new BigInteger(1, md.digest());
+    String md5 = number.toString(16);
+    while (md5.length() < 32) {
+      md5 = "0" + md5;
+    }
+    result.md5Hash = "md5:" + md5;
+    return result;
+  }
+
+  /**
+   * Extract the form's metadata from its formDef.json file. Only the
+   * specification.settings section of the file is parsed; the formDef field
+   * is left null.
    *
    * @param c
    * @param appName
@@ -191,29 +358,18 @@ public class FormInfo {
     this.appName = appName;
     // save the File of the formDef...
     this.formDefFile = formDefFile;
+    // the full formDef is not retained
+    this.formDef = null;
 
     /**
      * IMPORTANT: called for its side-effect
      *  -- throws IllegalArgumentException if file is not under appName
      */ 
     ODKFileUtils.getRelativeFormPath(appName, formDefFile);
-    
-    // OK -- parse the formDef file.
-    HashMap<String, Object> om = null;
-    try {
-      om = ODKFileUtils.mapper.readValue(formDefFile, HashMap.class);
-    } catch (JsonParseException e) {
-      WebLogger.getLogger(appName).printStackTrace(e);
-    } catch (JsonMappingException e) {
-      WebLogger.getLogger(appName).printStackTrace(e);
-    } catch (IOException e) {
-      WebLogger.getLogger(appName).printStackTrace(e);
-    }
-    formDef = om;
-    if (formDef == null) {
-      throw new IllegalArgumentException("File is not a json file! "
-          + formDefFile.getAbsolutePath());
-    }
+
+    // capture these before reading so that a concurrent change is detected
+    lastModificationDate = formDefFile.lastModified();
+    fileLength = formDefFile.length();
 
     // /////////////////////////////////////////////////
     // TODO: DEPENDENCY ALERT!!!
@@ -222,15 +378,10 @@ public class FormInfo {
     // TODO: DEPENDENCY ALERT!!!
     // THIS ASSUMES A CERTAIN STRUCTURE FOR THE formDef.json
     // file...
-    Map<String, Object> specification = (Map<String, Object>) formDef
-            .get(FORMDEF_SPECIFICATION_SECTION);
-    if (specification == null) {
-        throw new IllegalArgumentException("File is not a formdef json file! No specification element."
-            + formDefFile.getAbsolutePath());
-      }
+    FormDefSettings formDefSettings = readFormDefSettings(appName, formDefFile);
+    jsonMd5Hash = formDefSettings.md5Hash;
 
-    Map<String, Object> settings = (Map<String, Object>) specification
-        .get(FORMDEF_SETTINGS_SUBSECTION);
+    Map<String, Object> settings = formDefSettings.settings;
     if (settings == null) {
       throw new IllegalArgumentException("File is not a formdef json file! No settings section inside specification element."
           + formDefFile.getAbsolutePath());
@@ -342,9 +493,6 @@ public class FormInfo {
     } else {
       tableId = formId;
     }
-
-    lastModificationDate = formDefFile.lastModified();
-    fileLength = formDefFile.length();
   }
 
 }
\ No newline at end of file
@@ -50,33 +50,33 @@ public class ChoiceListUtils {
     //@formatter:off
     b.append("SELECT ").append(ChoiceListColumns.CHOICE_LIST_JSON).append(" FROM ")
      .append("\"").append(DatabaseConstants.CHOICE_LIST_TABLE_NAME).append("\" WHERE ")
-     .append(ChoiceListColumns.CHOICE_LIST_ID).append("=?");
+     .append(ChoiceListColumns.CHOICE_LIST_ID).append("=?")
+     // a second row is only fetched to detect duplicates
+     .append(" LIMIT 2");
     //@formatter:on
     bindArgs.add(choiceListId);
 
     Cursor c = null;
     try {
-      c = db.rawQuery(b.toString(), bindArgs.toArray(new String[bindArgs.size()]));
+      c = db.rawQueryWithDeferredCount(b.toString(),
+          bindArgs.toArray(new String[bindArgs.size()]));
 
-      c.moveToFirst();
-      if (c.getCount() == 0) {
+      if (!c.moveToFirst()) {
         // unknown...
         return null;
       }
 
-      if (c.getCount() > 1) {
+      int idx = c.getColumnIndex(ChoiceListColumns.CHOICE_LIST_JSON);
+      String value = c.isNull(idx) ? null : c.getString(idx);
+
+      // stepping to the second row does not count the result, as getCount() would
+      if (c.moveToNext()) {
         throw new IllegalStateException(
             "getChoiceList: multiple entries for choiceListId " + choiceListId);
       }
 
-      int idx = c.getColumnIndex(ChoiceListColumns.CHOICE_LIST_JSON);
-      if (c.isNull(idx)) {
-        // shouldn't happen...
-        return null;
-      }
-      String value = c.getString(idx);
       if (value == null || value.trim().length() == 0) {
-        // also shouldn't happen...
+        // shouldn't happen...
         return null;
       }
 
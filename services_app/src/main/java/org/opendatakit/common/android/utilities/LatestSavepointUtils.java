@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.android.utilities;
+
+import android.database.Cursor;
+
+import org.opendatakit.common.android.database.OdkConnectionInterface;
+import org.opendatakit.common.android.provider.DataTableColumns;
+
+/**
+ * Maintains the _latest_savepoint projection: for every (table, rowId), the
+ * most recent savepoint timestamp and the most recent savepoint timestamp of a
+ * saved (non-checkpoint) revision of that row.
+ * <p>
+ * The projection is kept current by AFTER INSERT/UPDATE/DELETE triggers on each
+ * data table, so every write path (checkpoints, saves, sync, conflict
+ * resolution) updates it without any changes to those paths. Each trigger
+ * recomputes the projection row of the affected rowId from the data table
+ * using the (_id, _savepoint_timestamp) index that is created alongside it.
+ * <p>
+ * Tables created before the projection existed are given their index and
+ * triggers, and have their projection rows backfilled, when the database is
+ * upgraded (see ensureLatestSavepointProjection()). Queries only read the
+ * projection.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class LatestSavepointUtils {
+  private static final String TAG = "LatestSavepointUtils";
+
+  public static final String LATEST_SAVEPOINT_TABLE_NAME = "_latest_savepoint";
+
+  /**
+   * the tableId of the data table this projection row describes.
+   */
+  public static final String TABLE_ID = "_table_id";
+  /**
+   * the rowId of the data table row this projection row describes.
+   */
+  public static final String ID = DataTableColumns.ID;
+  /**
+   * the most recent savepoint timestamp of this row (checkpoint or saved).
+   */
+  public static final String SAVEPOINT_TIMESTAMP = DataTableColumns.SAVEPOINT_TIMESTAMP;
+  /**
+   * the most recent savepoint timestamp of a saved (non-checkpoint) revision
+   * of this row. Null if the row only has checkpoints.
+   */
+  public static final String SAVED_SAVEPOINT_TIMESTAMP = "_saved_savepoint_timestamp";
+
+  private static final String TRIGGER_INSERT_SUFFIX = "_latest_savepoint_ai";
+  private static final String TRIGGER_UPDATE_SUFFIX = "_latest_savepoint_au";
+  private static final String TRIGGER_DELETE_SUFFIX = "_latest_savepoint_ad";
+  private static final String INDEX_SUFFIX = "_id_savepoint_idx";
+
+  /**
+   * For ease of mocking...
+   */
+  public LatestSavepointUtils() {
+  }
+
+  public static String getTableCreateSql(String tableName) {
+    //@formatter:off
+    return "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+        + TABLE_ID + " TEXT NOT NULL, "
+        + ID + " TEXT NOT NULL, "
+        + SAVEPOINT_TIMESTAMP + " TEXT NULL, "
+        + SAVED_SAVEPOINT_TIMESTAMP + " TEXT NULL, "
+        + "PRIMARY KEY (" + TABLE_ID + ", " + ID + ") )";
+    //@formatter:on
+  }
+
+  /**
+   * Create the index and triggers that maintain the projection for a newly
+   * created (and therefore empty) data table.
+   *
+   * @param db
+   * @param tableId
+   */
+  public void createLatestSavepointProjection(OdkConnectionInterface db, String tableId) {
+    db.execSQL("DELETE FROM " + LATEST_SAVEPOINT_TABLE_NAME + " WHERE " + TABLE_ID + "=?",
+        new String[] { tableId });
+    createIndexAndTriggers(db, tableId);
+  }
+
+  /**
+   * Ensure that the projection is being maintained for this data table,
+   * creating the index and triggers and backfilling the projection rows if it
+   * is not. Invoked when the database is created or upgraded, for the data
+   * tables that already exist.
+   *
+   * @param db
+   * @param tableId
+   */
+  public void ensureLatestSavepointProjection(OdkConnectionInterface db, String tableId) {
+    boolean hasTrigger;
+    Cursor c = null;
+    try {
+      c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='trigger' AND name=?",
+          new String[] { tableId + TRIGGER_DELETE_SUFFIX });
+      hasTrigger = c.moveToFirst();
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+
+    if (!hasTrigger) {
+      boolean dbWithinTransaction = db.inTransaction();
+      try {
+        if (!dbWithinTransaction) {
+          db.beginTransactionNonExclusive();
+        }
+        WebLogger.getLogger(db.getAppName()).i(TAG, "backfilling projection for " + tableId);
+        db.execSQL("DELETE FROM " + LATEST_SAVEPOINT_TABLE_NAME + " WHERE " + TABLE_ID + "=?",
+            new String[] { tableId });
+        //@formatter:off
+        db.execSQL("INSERT INTO " + LATEST_SAVEPOINT_TABLE_NAME + " ("
+            + TABLE_ID + "," + ID + "," + SAVEPOINT_TIMESTAMP + "," + SAVED_SAVEPOINT_TIMESTAMP
+            + ") SELECT ?, " + ID + ", " + aggregates()
+            + " FROM \"" + tableId + "\" GROUP BY " + ID, new String[] { tableId });
+        //@formatter:on
+        createIndexAndTriggers(db, tableId);
+        if (!dbWithinTransaction) {
+          db.setTransactionSuccessful();
+        }
+      } finally {
+        if (!dbWithinTransaction) {
+          db.endTransaction();
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove the projection rows of a data table. Invoked when we delete a
+   * table; dropping the table drops its index and triggers.
+   *
+   * @param db
+   * @param tableId
+   */
+  public void dropLatestSavepointProjection(OdkConnectionInterface db, String tableId) {
+    db.execSQL("DELETE FROM " + LATEST_SAVEPOINT_TABLE_NAME + " WHERE " + TABLE_ID + "=?",
+        new String[] { tableId });
+  }
+
+  private static String aggregates() {
+    //@formatter:off
+    return "MAX(" + DataTableColumns.SAVEPOINT_TIMESTAMP + "), "
+        + "MAX(CASE WHEN " + DataTableColumns.SAVEPOINT_TYPE + " IS NOT NULL THEN "
+        + DataTableColumns.SAVEPOINT_TIMESTAMP + " ELSE NULL END)";
+    //@formatter:on
+  }
+
+  /**
+   * @param tableId
+   * @param rowIdRef  NEW._id or OLD._id
+   * @return the trigger statements that recompute the projection row of rowIdRef
+   */
+  private static String refreshStatements(String tableId, String rowIdRef) {
+    String tableIdLiteral = "'" + tableId.replace("'", "''") + "'";
+    //@formatter:off
+    return "DELETE FROM " + LATEST_SAVEPOINT_TABLE_NAME + " WHERE "
+        + TABLE_ID + "=" + tableIdLiteral + " AND " + ID + "=" + rowIdRef + "; "
+        + "INSERT INTO " + LATEST_SAVEPOINT_TABLE_NAME + " ("
+        + TABLE_ID + "," + ID + "," + SAVEPOINT_TIMESTAMP + "," + SAVED_SAVEPOINT_TIMESTAMP
+        + ") SELECT " + tableIdLiteral + ", " + ID + ", " + aggregates()
+        + " FROM \"" + tableId + "\" WHERE " + ID + "=" + rowIdRef + " GROUP BY " + ID + "; ";
+    //@formatter:on
+  }
+
+  private static void createIndexAndTriggers(OdkConnectionInterface db, String tableId) {
+    String quotedTableId = "\"" + tableId + "\"";
+    //@formatter:off
+    db.execSQL("CREATE INDEX IF NOT EXISTS \"" + tableId + INDEX_SUFFIX + "\" ON "
+        + quotedTableId + " (" + DataTableColumns.ID + ", "
+        + DataTableColumns.SAVEPOINT_TIMESTAMP + ")", null);
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + tableId + TRIGGER_INSERT_SUFFIX + "\""
+        + " AFTER INSERT ON " + quotedTableId + " BEGIN "
+        + refreshStatements(tableId, "NEW." + DataTableColumns.ID)
+        + "END", null);
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + tableId + TRIGGER_UPDATE_SUFFIX + "\""
+        + " AFTER UPDATE OF " + DataTableColumns.ID + ", "
+        + DataTableColumns.SAVEPOINT_TIMESTAMP + ", " + DataTableColumns.SAVEPOINT_TYPE
+        + " ON " + quotedTableId + " BEGIN "
+        + refreshStatements(tableId, "OLD." + DataTableColumns.ID)
+        + refreshStatements(tableId, "NEW." + DataTableColumns.ID)
+        + "END", null);
+
+    // created last: its presence marks the projection as being maintained
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + tableId + TRIGGER_DELETE_SUFFIX + "\""
+        + " AFTER DELETE ON " + quotedTableId + " BEGIN "
+        + refreshStatements(tableId, "OLD." + DataTableColumns.ID)
+        + "END", null);
+    //@formatter:on
+  }
+}
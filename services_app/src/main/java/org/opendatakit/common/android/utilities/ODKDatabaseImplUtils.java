@@ -71,21 +71,29 @@ public class ODKDatabaseImplUtils {
   private static ArrayList<String[]> knownKVSValueTypeRestrictions = new ArrayList<String[]>();
 
   /**
-   * Same as above, but quick access via the key.
-   * For now, we know that the keys are all unique.
-   * Eventually this might need to be a MultiMap.
+   * Same as above, but precompiled for a single hash lookup:
+   * kvsKey(partition, key) to the required value type.
    */
-  private static TreeMap<String, ArrayList<String[]>> keyToKnownKVSValueTypeRestrictions = new TreeMap<String, ArrayList<String[]>>();
+  private static HashMap<String, String> partitionKeyToKnownKVSValueType = new HashMap<String, String>();
 
   private static void updateKeyToKnownKVSValueTypeRestrictions(String[] field) {
-    ArrayList<String[]> fields = keyToKnownKVSValueTypeRestrictions.get(field[2]);
-    if (fields == null) {
-      fields = new ArrayList<String[]>();
-      keyToKnownKVSValueTypeRestrictions.put(field[2], fields);
+    partitionKeyToKnownKVSValueType.put(kvsKey(field[1], field[2]), field[0]);
+  }
+
+  /**
+   * @return a map key combining the given KVS fields
+   */
+  private static String kvsKey(String... fields) {
+    StringBuilder b = new StringBuilder();
+    for (String field : fields) {
+      b.append(field).append('\u0000');
     }
-    fields.add(field);
+    return b.toString();
   }
 
+  private static final String KVS_REPLACE_SQL;
+  private static final String KVS_DELETE_SQL;
+
   static {
     ArrayList<String> adminColumns = new ArrayList<String>();
     adminColumns.add(DataTableColumns.ID);
@@ -115,6 +123,18 @@ public class ODKDatabaseImplUtils {
     Collections.sort(exportColumns);
     EXPORT_COLUMNS = Collections.unmodifiableList(exportColumns);
 
+    //@formatter:off
+    KVS_REPLACE_SQL = "INSERT OR REPLACE INTO \"" + DatabaseConstants.KEY_VALUE_STORE_ACTIVE_TABLE_NAME
+        + "\" (" + KeyValueStoreColumns.TABLE_ID + "," + KeyValueStoreColumns.PARTITION + ","
+        + KeyValueStoreColumns.ASPECT + "," + KeyValueStoreColumns.KEY + ","
+        + KeyValueStoreColumns.VALUE_TYPE + "," + KeyValueStoreColumns.VALUE
+        + ") VALUES (?,?,?,?,?,?)";
+    KVS_DELETE_SQL = "DELETE FROM \"" + DatabaseConstants.KEY_VALUE_STORE_ACTIVE_TABLE_NAME
+        + "\" WHERE " + KeyValueStoreColumns.TABLE_ID + "=? AND "
+        + KeyValueStoreColumns.PARTITION + "=? AND " + KeyValueStoreColumns.ASPECT + "=? AND "
+        + KeyValueStoreColumns.KEY + "=?";
+    //@formatter:on
+
     // declare the KVS value_type restrictions we know about...
     // This is a list of triples: ( required value type, partition_label, key_label )
     {
@@ -324,6 +344,18 @@ public class ODKDatabaseImplUtils {
   public UserTable rawSqlQuery(OdkConnectionInterface db, String appName, String tableId,
       OrderedColumns columnDefns, String whereClause, String[] selectionArgs, String[] groupBy,
       String having, String orderByElementKey, String orderByDirection) {
+    return rawSqlQuery(db, appName, tableId, columnDefns, whereClause, selectionArgs, groupBy,
+        having, orderByElementKey, orderByDirection, null);
+  }
+
+  /**
+   * Same as above, but returns at most limit rows.
+   *
+   * @param limit the maximum number of rows to return, or null for no limit.
+   */
+  private UserTable rawSqlQuery(OdkConnectionInterface db, String appName, String tableId,
+      OrderedColumns columnDefns, String whereClause, String[] selectionArgs, String[] groupBy,
+      String having, String orderByElementKey, String orderByDirection, Integer limit) {
     Cursor c = null;
     try {
       StringBuilder s = new StringBuilder();
@@ -353,8 +385,19 @@ public class ODKDatabaseImplUtils {
           s.append(" ASC");
         }
       }
+      String[] bindArgs = selectionArgs;
+      if (limit != null) {
+        // bound, so that the statement text does not depend upon the limit
+        s.append(" LIMIT ?");
+        int nArgs = (selectionArgs == null) ? 0 : selectionArgs.length;
+        bindArgs = new String[nArgs + 1];
+        if (nArgs != 0) {
+          System.arraycopy(selectionArgs, 0, bindArgs, 0, nArgs);
+        }
+        bindArgs[nArgs] = Integer.toString(limit);
+      }
       String sqlQuery = s.toString();
-      c = db.rawQuery(sqlQuery, selectionArgs);
+      c = db.rawQuery(sqlQuery, bindArgs);
       UserTable table = buildUserTable(c, columnDefns, whereClause, selectionArgs, groupBy, having,
           orderByElementKey, orderByDirection);
       return table;
@@ -558,9 +601,16 @@ public class ODKDatabaseImplUtils {
   public UserTable getMostRecentRowWithId(OdkConnectionInterface db, String appName, String tableId,
       OrderedColumns orderedDefns, String rowId) {
 
-    StringBuilder b = new StringBuilder();
-    UserTable table = rawSqlQuery(db, appName, tableId, orderedDefns, DataTableColumns.ID + "=?",
-        new String[] { rowId }, null, null, DataTableColumns.SAVEPOINT_TIMESTAMP, "DESC");
+    // only the most recent savepoint timestamp is needed; look it up in the
+    // latest-savepoint projection rather than enumerating the checkpoints.
+    //@formatter:off
+    String whereClause = DataTableColumns.ID + "=? AND " + DataTableColumns.SAVEPOINT_TIMESTAMP
+        + "=(SELECT " + LatestSavepointUtils.SAVEPOINT_TIMESTAMP
+        + " FROM " + LatestSavepointUtils.LATEST_SAVEPOINT_TABLE_NAME
+        + " WHERE " + LatestSavepointUtils.TABLE_ID + "=? AND " + LatestSavepointUtils.ID + "=?)";
+    //@formatter:on
+    UserTable table = rawSqlQuery(db, appName, tableId, orderedDefns, whereClause,
+        new String[] { rowId, tableId, rowId }, null, null, null, null, 1);
 
     if (table.getNumberOfRows() == 0) {
       return table;
@@ -813,6 +863,12 @@ public class ODKDatabaseImplUtils {
       // Delete the server sync ETags associated with this table
       seu.deleteAllSyncETagsForTableId(db, tableId);
 
+      // Delete the latest-savepoint projection of this table
+      new LatestSavepointUtils().dropLatestSavepointProjection(db, tableId);
+
+      // Delete the change counter of this table
+      new TableChangeCounterUtils().dropChangeCounter(db, tableId);
+
       // Delete the table definition for the tableId
       int count;
       {
@@ -1108,30 +1164,22 @@ public class ODKDatabaseImplUtils {
         throw new IllegalArgumentException("KVS entry has a null or empty type");
       }
 
-      // find subset matching the key...
-      ArrayList<String[]> kvsValueTypeRestrictions = keyToKnownKVSValueTypeRestrictions
-          .get(kvs.key);
+      String requiredType = partitionKeyToKnownKVSValueType.get(kvsKey(kvs.partition, kvs.key));
 
-      if (kvsValueTypeRestrictions != null) {
-        for (String[] restriction : kvsValueTypeRestrictions) {
-          if (kvs.partition.equals(restriction[1]) && kvs.key.equals(restriction[2])) {
-            // see if the client specified an incorrect type
-            if (!kvs.type.equals(restriction[0])) {
-              String type = kvs.type;
-              kvs.type = restriction[0];
+      // see if the client specified an incorrect type
+      if (requiredType != null && !kvs.type.equals(requiredType)) {
+        String type = kvs.type;
+        kvs.type = requiredType;
 
-              // TODO: detect whether the value conforms to the specified type.
-              enforceKVSValueType(kvs, ElementDataType.valueOf(restriction[0]));
+        // TODO: detect whether the value conforms to the specified type.
+        enforceKVSValueType(kvs, ElementDataType.valueOf(requiredType));
 
-              WebLogger.getLogger(appName)
-                  .w("validateKVSEntry", "Client Error: KVS value type reset from " + type +
-                      " to " + restriction[0] +
-                      " table: " + kvs.tableId +
-                      " partition: " + restriction[1] +
-                      " key: " + restriction[2]);
-            }
-          }
-        }
+        WebLogger.getLogger(appName)
+            .w("validateKVSEntry", "Client Error: KVS value type reset from " + type +
+                " to " + requiredType +
+                " table: " + kvs.tableId +
+                " partition: " + kvs.partition +
+                " key: " + kvs.key);
       }
     } else {
       // makes later tests easier...
@@ -1201,24 +1249,12 @@ public class ODKDatabaseImplUtils {
   public void replaceDBTableMetadata(OdkConnectionInterface db, KeyValueStoreEntry e) {
     validateKVSEntry(db.getAppName(), e.tableId, e);
 
-    ContentValues values = new ContentValues();
-    values.put(KeyValueStoreColumns.TABLE_ID, e.tableId);
-    values.put(KeyValueStoreColumns.PARTITION, e.partition);
-    values.put(KeyValueStoreColumns.ASPECT, e.aspect);
-    values.put(KeyValueStoreColumns.KEY, e.key);
-    values.put(KeyValueStoreColumns.VALUE_TYPE, e.type);
-    values.put(KeyValueStoreColumns.VALUE, e.value);
-
     boolean dbWithinTransaction = db.inTransaction();
     try {
       if (!dbWithinTransaction) {
         db.beginTransactionNonExclusive();
       }
-      if (e.value == null || e.value.trim().length() == 0) {
-        deleteDBTableMetadata(db, e.tableId, e.partition, e.aspect, e.key);
-      } else {
-        db.replaceOrThrow(DatabaseConstants.KEY_VALUE_STORE_ACTIVE_TABLE_NAME, null, values);
-      }
+      writeKVSEntry(db, e);
 
       if (!dbWithinTransaction) {
         db.setTransactionSuccessful();
@@ -1250,14 +1286,7 @@ public class ODKDatabaseImplUtils {
         db.beginTransactionNonExclusive();
       }
 
-      if (clear) {
-        db.delete(DatabaseConstants.KEY_VALUE_STORE_ACTIVE_TABLE_NAME,
-            KeyValueStoreColumns.TABLE_ID + "=?", new String[] { tableId });
-      }
-
-      for (KeyValueStoreEntry e : metadata) {
-        replaceDBTableMetadata(db, e);
-      }
+      replaceKVSEntries(db, tableId, clear, null, null, metadata);
 
       if (!dbWithinTransaction) {
         db.setTransactionSuccessful();
@@ -1272,24 +1301,9 @@ public class ODKDatabaseImplUtils {
   public void replaceDBTableMetadataSubList(OdkConnectionInterface db, String tableId,
       String partition, String aspect, List<KeyValueStoreEntry> metadata) {
 
-    StringBuilder b = new StringBuilder();
-    ArrayList<String> whereArgsList = new ArrayList<String>();
-
     if (tableId == null || tableId.trim().length() == 0) {
       throw new IllegalArgumentException("tableId cannot be null or an empty string");
     }
-    b.append(KeyValueStoreColumns.TABLE_ID).append("=?");
-    whereArgsList.add(tableId);
-    if (partition != null) {
-      b.append(" AND ").append(KeyValueStoreColumns.PARTITION).append("=?");
-      whereArgsList.add(partition);
-    }
-    if (aspect != null) {
-      b.append(" AND ").append(KeyValueStoreColumns.ASPECT).append("=?");
-      whereArgsList.add(aspect);
-    }
-    String whereClause = b.toString();
-    String[] whereArgs = whereArgsList.toArray(new String[whereArgsList.size()]);
 
     boolean dbWithinTransaction = db.inTransaction();
     try {
@@ -1297,11 +1311,7 @@ public class ODKDatabaseImplUtils {
         db.beginTransactionNonExclusive();
       }
 
-      db.delete(DatabaseConstants.KEY_VALUE_STORE_ACTIVE_TABLE_NAME, whereClause, whereArgs);
-
-      for (KeyValueStoreEntry e : metadata) {
-        replaceDBTableMetadata(db, e);
-      }
+      replaceKVSEntries(db, tableId, true, partition, aspect, metadata);
 
       if (!dbWithinTransaction) {
         db.setTransactionSuccessful();
@@ -1313,6 +1323,98 @@ public class ODKDatabaseImplUtils {
     }
   }
 
+  /**
+   * Write a validated KVS entry, deleting it if its value is null.
+   * Always uses the same SQL so that the connection reuses its prepared statements.
+   *
+   * @param db
+   * @param e
+   */
+  private void writeKVSEntry(OdkConnectionInterface db, KeyValueStoreEntry e) {
+    if (e.value == null) {
+      db.execSQL(KVS_DELETE_SQL, new String[] { e.tableId, e.partition, e.aspect, e.key });
+    } else {
+      db.execSQL(KVS_REPLACE_SQL,
+          new String[] { e.tableId, e.partition, e.aspect, e.key, e.type, e.value });
+    }
+  }
+
+  /**
+   * Set-based update of the KVS entries of a table. All entries are validated
+   * before anything is written. The table's current entries are then read
+   * once and only the entries whose type or value differ are written.
+   * If clear is true, the current entries matching the (non-null) partition
+   * and aspect that are not in metadata are deleted.
+   * <p>
+   * Must be called within a transaction.
+   *
+   * @param db
+   * @param tableId
+   * @param clear
+   * @param partition null to clear all partitions
+   * @param aspect null to clear all aspects
+   * @param metadata
+   */
+  private void replaceKVSEntries(OdkConnectionInterface db, String tableId, boolean clear,
+      String partition, String aspect, List<KeyValueStoreEntry> metadata) {
+
+    // validate everything first; later entries for the same key win
+    LinkedHashMap<String, KeyValueStoreEntry> desired = new LinkedHashMap<String, KeyValueStoreEntry>();
+    for (KeyValueStoreEntry e : metadata) {
+      validateKVSEntry(db.getAppName(), e.tableId, e);
+      desired.put(kvsKey(e.tableId, e.partition, e.aspect, e.key), e);
+    }
+
+    // current type and value of each of this table's entries
+    HashMap<String, String[]> current = new HashMap<String, String[]>();
+    HashMap<String, String[]> currentKeys = new HashMap<String, String[]>();
+    Cursor c = null;
+    try {
+      c = db.rawQuery("SELECT " + KeyValueStoreColumns.PARTITION + "," + KeyValueStoreColumns.ASPECT
+          + "," + KeyValueStoreColumns.KEY + "," + KeyValueStoreColumns.VALUE_TYPE + ","
+          + KeyValueStoreColumns.VALUE + " FROM \"" + DatabaseConstants.KEY_VALUE_STORE_ACTIVE_TABLE_NAME
+          + "\" WHERE " + KeyValueStoreColumns.TABLE_ID + "=?", new String[] { tableId });
+      if (c.moveToFirst()) {
+        do {
+          String[] fields = { c.getString(0), c.getString(1), c.getString(2) };
+          String key = kvsKey(tableId, fields[0], fields[1], fields[2]);
+          current.put(key, new String[] { c.getString(3), c.getString(4) });
+          currentKeys.put(key, fields);
+        } while (c.moveToNext());
+      }
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+
+    if (clear) {
+      for (Map.Entry<String, String[]> entry : currentKeys.entrySet()) {
+        String[] fields = entry.getValue();
+        if ((partition == null || partition.equals(fields[0])) &&
+            (aspect == null || aspect.equals(fields[1])) &&
+            !desired.containsKey(entry.getKey())) {
+          db.execSQL(KVS_DELETE_SQL, new String[] { tableId, fields[0], fields[1], fields[2] });
+        }
+      }
+    }
+
+    for (Map.Entry<String, KeyValueStoreEntry> entry : desired.entrySet()) {
+      KeyValueStoreEntry e = entry.getValue();
+      if (e.tableId.equals(tableId)) {
+        String[] existing = current.get(entry.getKey());
+        if (e.value == null) {
+          if (existing == null) {
+            continue;
+          }
+        } else if (existing != null && e.type.equals(existing[0]) && e.value.equals(existing[1])) {
+          continue;
+        }
+      }
+      writeKVSEntry(db, e);
+    }
+  }
+
   /**
    * The deletion filter includes all non-null arguments. If all arguments
    * (except the db) are null, then all properties are removed.
@@ -1559,6 +1661,14 @@ public class ODKDatabaseImplUtils {
 
     db.execSQL(createTableCmdWithCols.toString(), null);
 
+    createSyncStateIndex(db, tableId);
+
+    // Maintain the latest-savepoint projection of the table
+    new LatestSavepointUtils().createLatestSavepointProjection(db, tableId);
+
+    // Maintain the change counter of the table
+    new TableChangeCounterUtils().createChangeCounter(db, tableId);
+
     // Create the metadata for the table - table def and KVS
     createDBTableMetadata(db, tableId);
 
@@ -1568,6 +1678,19 @@ public class ODKDatabaseImplUtils {
     }
   }
 
+  /**
+   * Index the sync state of the rows so that sync can find the rows it needs
+   * to push without scanning the whole table. Tables created before this
+   * index existed acquire it when they are next opened.
+   *
+   * @param db
+   * @param tableId
+   */
+  private void createSyncStateIndex(OdkConnectionInterface db, String tableId) {
+    db.execSQL("CREATE INDEX IF NOT EXISTS \"" + tableId + "_sync_state_idx\" ON \"" + tableId
+        + "\" (" + DataTableColumns.SYNC_STATE + ", " + DataTableColumns.ID + ")", null);
+  }
+
   /*
    * Create a new column metadata in the database - add column values to KVS and
    * column definitions
@@ -1726,6 +1849,7 @@ public class ODKDatabaseImplUtils {
         createDBTableWithColumns(db, appName, tableId, orderedDefs);
       } else {
         verifyTableSchema(db, appName, tableId, orderedDefs);
+        createSyncStateIndex(db, tableId);
       }
 
       if (!dbWithinTransaction) {
@@ -1792,6 +1916,7 @@ public class ODKDatabaseImplUtils {
       } else {
         // confirm that the column definitions are unchanged...
         verifyTableSchema(db, appName, tableId, orderedDefs);
+        createSyncStateIndex(db, tableId);
       }
 
       replaceDBTableMetadata(db, tableId, metaData, (clear || created));
@@ -2962,6 +3087,422 @@ public class ODKDatabaseImplUtils {
     }
   }
 
+  /**
+   * Receives progress reports from the bulk conflict resolution methods.
+   */
+  public interface ConflictResolutionProgressListener {
+    /**
+     * Called after each chunk of rowIds has been processed.
+     *
+     * @param rowsProcessed number of the listed rowIds processed so far
+     * @param totalRows     number of rowIds listed
+     */
+    void resolutionProgress(int rowsProcessed, int totalRows);
+  }
+
+  /**
+   * Outcome of a bulk conflict resolution.
+   */
+  public static final class ConflictResolutionResult {
+    private int resolvedCount = 0;
+    private final Map<String, String> failures = new LinkedHashMap<String, String>();
+
+    /**
+     * @return the number of listed rowIds that were resolved.
+     */
+    public int getResolvedCount() {
+      return resolvedCount;
+    }
+
+    /**
+     * @return the error message for each listed rowId that could not be resolved.
+     */
+    public Map<String, String> getFailures() {
+      return Collections.unmodifiableMap(failures);
+    }
+  }
+
+  private enum BulkConflictResolution {
+    TAKE_LOCAL, TAKE_SERVER, DELETE
+  }
+
+  /**
+   * Number of rowIds resolved within one transaction (and bound into each of
+   * its statements).
+   */
+  private static final int BULK_RESOLUTION_BATCH_SIZE = 100;
+
+  /**
+   * Number of placeholders in every rowId IN-list. The rowIds are bound in
+   * batches of exactly this many -- the last batch padded by repeating its
+   * final rowId -- so each statement has one text whatever the number of
+   * rowIds, and stays in the connection's prepared statement cache.
+   */
+  private static final int IN_LIST_SIZE = 20;
+  private static final String IN_LIST_PLACEHOLDERS = bindPlaceholders(IN_LIST_SIZE);
+
+  /**
+   * Resolve the server conflicts of the listed rowIds by taking the local changes.
+   * Equivalent to calling resolveServerConflictTakeLocalRowWithId() on each rowId,
+   * but done with set-based statements in one transaction per chunk of rowIds.
+   * Listed rowIds that are not in conflict are skipped. If a chunk fails, its
+   * rowIds are resolved one at a time and those that fail are reported.
+   *
+   * @param db
+   * @param appName
+   * @param tableId
+   * @param rowIds
+   * @param activeUser
+   * @param locale
+   * @param listener   may be null
+   * @return the number of rowIds resolved and the rowIds that failed
+   */
+  public ConflictResolutionResult resolveServerConflictsTakeLocalRows(OdkConnectionInterface db,
+      String appName, String tableId, List<String> rowIds, String activeUser, String locale,
+      ConflictResolutionProgressListener listener) {
+    return resolveServerConflicts(db, appName, tableId, rowIds, BulkConflictResolution.TAKE_LOCAL,
+        activeUser, locale, listener);
+  }
+
+  /**
+   * Resolve the server conflicts of the listed rowIds by taking the server changes.
+   * Equivalent to calling resolveServerConflictTakeServerRowWithId() on each rowId,
+   * but done with set-based statements in one transaction per chunk of rowIds.
+   * Listed rowIds that are not in conflict are skipped. If a chunk fails, its
+   * rowIds are resolved one at a time and those that fail are reported.
+   *
+   * @param db
+   * @param appName
+   * @param tableId
+   * @param rowIds
+   * @param activeUser
+   * @param locale
+   * @param listener   may be null
+   * @return the number of rowIds resolved and the rowIds that failed
+   */
+  public ConflictResolutionResult resolveServerConflictsTakeServerRows(OdkConnectionInterface db,
+      String appName, String tableId, List<String> rowIds, String activeUser, String locale,
+      ConflictResolutionProgressListener listener) {
+    return resolveServerConflicts(db, appName, tableId, rowIds, BulkConflictResolution.TAKE_SERVER,
+        activeUser, locale, listener);
+  }
+
+  /**
+   * Resolve the server conflicts of the listed rowIds by deleting the rows.
+   * Equivalent to calling resolveServerConflictWithDeleteRowWithId() on each rowId,
+   * but done with set-based statements in one transaction per chunk of rowIds.
+   * Listed rowIds that are not in conflict are skipped. If a chunk fails, its
+   * rowIds are resolved one at a time and those that fail are reported.
+   *
+   * @param db
+   * @param appName
+   * @param tableId
+   * @param rowIds
+   * @param listener may be null
+   * @return the number of rowIds resolved and the rowIds that failed
+   */
+  public ConflictResolutionResult resolveServerConflictsWithDeleteRows(OdkConnectionInterface db,
+      String appName, String tableId, List<String> rowIds,
+      ConflictResolutionProgressListener listener) {
+    return resolveServerConflicts(db, appName, tableId, rowIds, BulkConflictResolution.DELETE,
+        null, null, listener);
+  }
+
+  private ConflictResolutionResult resolveServerConflicts(OdkConnectionInterface db,
+      String appName, String tableId, List<String> rowIds, BulkConflictResolution resolution,
+      String activeUser, String locale, ConflictResolutionProgressListener listener) {
+
+    ConflictResolutionResult result = new ConflictResolutionResult();
+    boolean dbWithinTransaction = db.inTransaction();
+    OrderedColumns orderedColumns = getUserDefinedColumns(db, appName, tableId);
+
+    for (int start = 0; start < rowIds.size(); start += BULK_RESOLUTION_BATCH_SIZE) {
+      List<String> chunk = rowIds.subList(start,
+          Math.min(rowIds.size(), start + BULK_RESOLUTION_BATCH_SIZE));
+      try {
+        result.resolvedCount += resolveServerConflictsChunk(db, appName, tableId, orderedColumns,
+            chunk, resolution, activeUser, locale);
+      } catch (RuntimeException e) {
+        if (dbWithinTransaction) {
+          // the caller's transaction cannot be partially rolled back
+          throw e;
+        }
+        WebLogger.getLogger(appName).e(t, "resolveServerConflicts: chunk failed, resolving "
+            + chunk.size() + " rows individually: " + e.toString());
+        resolveServerConflictsIndividually(db, appName, tableId, chunk, resolution, activeUser,
+            locale, result);
+      }
+      if (listener != null) {
+        listener.resolutionProgress(start + chunk.size(), rowIds.size());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Resolve a failed chunk one rowId at a time, so that a bad row does not
+   * prevent the others in the chunk from being resolved.
+   */
+  private void resolveServerConflictsIndividually(OdkConnectionInterface db, String appName,
+      String tableId, List<String> rowIds, BulkConflictResolution resolution, String activeUser,
+      String locale, ConflictResolutionResult result) {
+    for (String rowId : rowIds) {
+      try {
+        if (resolution == BulkConflictResolution.DELETE) {
+          resolveServerConflictWithDeleteRowWithId(db, appName, tableId, rowId);
+        } else if (resolution == BulkConflictResolution.TAKE_LOCAL) {
+          resolveServerConflictTakeLocalRowWithId(db, appName, tableId, rowId, activeUser, locale);
+        } else {
+          resolveServerConflictTakeServerRowWithId(db, appName, tableId, rowId, activeUser, locale);
+        }
+        ++result.resolvedCount;
+      } catch (Exception e) {
+        String msg = e.getLocalizedMessage();
+        if (msg == null)
+          msg = e.getMessage();
+        if (msg == null)
+          msg = e.toString();
+        WebLogger.getLogger(appName).e(t, "resolveServerConflicts: unable to resolve "
+            + tableId + " row " + rowId + ": " + msg);
+        WebLogger.getLogger(appName).printStackTrace(e);
+        result.failures.put(rowId, msg);
+      }
+    }
+  }
+
+  /**
+   * Resolve the in-conflict rowIds of the chunk with set-based statements in a
+   * single transaction.
+   *
+   * @return the number of rowIds resolved
+   */
+  private int resolveServerConflictsChunk(OdkConnectionInterface db, String appName,
+      String tableId, OrderedColumns orderedColumns, List<String> chunk,
+      BulkConflictResolution resolution, String activeUser, String locale) {
+
+    final String localConflict = DataTableColumns.CONFLICT_TYPE + " IN ("
+        + ConflictType.LOCAL_DELETED_OLD_VALUES + ", " + ConflictType.LOCAL_UPDATED_UPDATED_VALUES + ")";
+    final String serverConflict = DataTableColumns.CONFLICT_TYPE + " IN ("
+        + ConflictType.SERVER_DELETED_OLD_VALUES + ", " + ConflictType.SERVER_UPDATED_UPDATED_VALUES + ")";
+    final String quotedTableId = "\"" + tableId + "\"";
+
+    // rowIds to physically delete (and whose attachments are removed) once committed
+    ArrayList<String> deletedRowIds = new ArrayList<String>();
+    int resolved = 0;
+
+    boolean dbWithinTransaction = db.inTransaction();
+    try {
+      if (!dbWithinTransaction) {
+        db.beginTransactionNonExclusive();
+      }
+
+      // Identify the listed rowIds that have both a local and a server conflict
+      // record, the kind of each, and whether the server record has any file
+      // attachments.
+      StringBuilder b = new StringBuilder();
+      b.append("SELECT L.").append(DataTableColumns.ID).append(", L.")
+          .append(DataTableColumns.CONFLICT_TYPE).append(", S.")
+          .append(DataTableColumns.CONFLICT_TYPE).append(", (0");
+      for (ColumnDefinition cd : orderedColumns.getColumnDefinitions()) {
+        if (cd.getType().getDataType() == ElementDataType.rowpath) {
+          b.append(" OR (S.\"").append(cd.getElementKey()).append("\" IS NOT NULL AND S.\"")
+              .append(cd.getElementKey()).append("\" <> '')");
+        }
+      }
+      b.append(") FROM ").append(quotedTableId).append(" AS L JOIN ").append(quotedTableId)
+          .append(" AS S ON L.").append(DataTableColumns.ID).append(" = S.")
+          .append(DataTableColumns.ID).append(" WHERE L.").append(localConflict)
+          .append(" AND S.").append(serverConflict).append(" AND L.")
+          .append(DataTableColumns.ID).append(" IN (").append(IN_LIST_PLACEHOLDERS).append(")");
+
+      // rowIds grouped by the statements that will resolve them
+      ArrayList<String> localUpdated = new ArrayList<String>();
+      ArrayList<String> localDeleted = new ArrayList<String>();
+      ArrayList<String> serverUpdatedSynced = new ArrayList<String>();
+      ArrayList<String> serverUpdatedPendingFiles = new ArrayList<String>();
+
+      for (String[] batch : toInListBatches(chunk)) {
+        Cursor c = null;
+        try {
+          c = db.rawQuery(b.toString(), batch);
+          while (c.moveToNext()) {
+            String rowId = c.getString(0);
+            int localConflictType = c.getInt(1);
+            int serverConflictType = c.getInt(2);
+            boolean hasFiles = c.getInt(3) != 0;
+            if (resolution == BulkConflictResolution.DELETE) {
+              deletedRowIds.add(rowId);
+            } else if (resolution == BulkConflictResolution.TAKE_LOCAL) {
+              if (localConflictType == ConflictType.LOCAL_UPDATED_UPDATED_VALUES) {
+                localUpdated.add(rowId);
+              } else {
+                localDeleted.add(rowId);
+              }
+            } else if (serverConflictType == ConflictType.SERVER_DELETED_OLD_VALUES) {
+              deletedRowIds.add(rowId);
+            } else if (hasFiles) {
+              serverUpdatedPendingFiles.add(rowId);
+            } else {
+              serverUpdatedSynced.add(rowId);
+            }
+          }
+        } finally {
+          if (c != null && !c.isClosed()) {
+            c.close();
+          }
+        }
+      }
+
+      String now = TableConstants.nanoSecondsFromMillis(System.currentTimeMillis());
+
+      // Taking the local changes to an updated row: take the server's rowETag and
+      // filter values, and restamp it as changed by the active user.
+      StringBuilder set = new StringBuilder();
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.ROW_ETAG, null);
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.FILTER_TYPE, null);
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.FILTER_VALUE, null);
+      set.append(", ").append(DataTableColumns.SAVEPOINT_TIMESTAMP).append(" = ?, ")
+          .append(DataTableColumns.SAVEPOINT_CREATOR).append(" = ?");
+      resolved += applyBulkResolution(db, quotedTableId, localUpdated, set.toString(),
+          new String[] { now, activeUser }, SyncState.changed, localConflict, serverConflict);
+
+      // Taking the local deletion or the server's update: the server's values
+      // for every metadata and user field.
+      set.setLength(0);
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.ROW_ETAG, null);
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.FILTER_TYPE, null);
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.FILTER_VALUE, null);
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.FORM_ID, null);
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.LOCALE, "?");
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.SAVEPOINT_TYPE, "?");
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.SAVEPOINT_TIMESTAMP, "?");
+      appendServerValue(set, quotedTableId, serverConflict, DataTableColumns.SAVEPOINT_CREATOR, "?");
+      for (String elementKey : orderedColumns.getRetentionColumnNames()) {
+        appendServerValue(set, quotedTableId, serverConflict, "\"" + elementKey + "\"", null);
+      }
+      String[] defaults = { locale, SavepointTypeManipulator.complete(), now, activeUser };
+      resolved += applyBulkResolution(db, quotedTableId, localDeleted, set.toString(), defaults,
+          SyncState.deleted, localConflict, serverConflict);
+      resolved += applyBulkResolution(db, quotedTableId, serverUpdatedSynced, set.toString(),
+          defaults, SyncState.synced, localConflict, serverConflict);
+      resolved += applyBulkResolution(db, quotedTableId, serverUpdatedPendingFiles, set.toString(),
+          defaults, SyncState.synced_pending_files, localConflict, serverConflict);
+
+      // Deleting the row, or taking the server's deletion: remove every record of the row.
+      for (String[] batch : toInListBatches(deletedRowIds)) {
+        db.execSQL("DELETE FROM " + quotedTableId + " WHERE " + DataTableColumns.ID + " IN ("
+            + IN_LIST_PLACEHOLDERS + ")", batch);
+      }
+      resolved += deletedRowIds.size();
+
+      if (!dbWithinTransaction) {
+        db.setTransactionSuccessful();
+      }
+    } finally {
+      if (!dbWithinTransaction) {
+        db.endTransaction();
+      }
+    }
+
+    for (String rowId : deletedRowIds) {
+      File instanceFolder = new File(ODKFileUtils.getInstanceFolder(appName, tableId, rowId));
+      try {
+        FileUtils.deleteDirectory(instanceFolder);
+      } catch (IOException e) {
+        WebLogger.getLogger(appName)
+            .e(t, "Unable to delete this directory: " + instanceFolder.getAbsolutePath());
+        WebLogger.getLogger(appName).printStackTrace(e);
+      }
+    }
+    return resolved;
+  }
+
+  /**
+   * Append an assignment of the server conflict record's value of the column
+   * to the local conflict record being updated.
+   *
+   * @param set
+   * @param quotedTableId
+   * @param serverConflict where clause selecting the server conflict record
+   * @param column
+   * @param defaultValue   expression used if the server's value is null; null for none
+   */
+  private void appendServerValue(StringBuilder set, String quotedTableId, String serverConflict,
+      String column, String defaultValue) {
+    if (set.length() != 0) {
+      set.append(", ");
+    }
+    set.append(column).append(" = ");
+    if (defaultValue != null) {
+      set.append("COALESCE(");
+    }
+    set.append("(SELECT S.").append(column).append(" FROM ").append(quotedTableId)
+        .append(" AS S WHERE S.").append(DataTableColumns.ID).append(" = ").append(quotedTableId)
+        .append(".").append(DataTableColumns.ID).append(" AND S.").append(serverConflict)
+        .append(")");
+    if (defaultValue != null) {
+      set.append(", ").append(defaultValue).append(")");
+    }
+  }
+
+  /**
+   * Update the local conflict records of the rowIds with the given assignments,
+   * restoring them from conflict into the final sync state, then delete their
+   * server conflict records.
+   *
+   * @return the number of rowIds resolved
+   */
+  private int applyBulkResolution(OdkConnectionInterface db, String quotedTableId,
+      List<String> rowIds, String assignments, String[] assignmentArgs, SyncState finalSyncState,
+      String localConflict, String serverConflict) {
+
+    String updateSql = "UPDATE " + quotedTableId + " SET " + assignments + ", "
+        + DataTableColumns.SYNC_STATE + " = ?, " + DataTableColumns.CONFLICT_TYPE + " = NULL"
+        + " WHERE " + DataTableColumns.ID + " IN (" + IN_LIST_PLACEHOLDERS + ") AND "
+        + localConflict;
+    String deleteSql = "DELETE FROM " + quotedTableId + " WHERE " + DataTableColumns.ID
+        + " IN (" + IN_LIST_PLACEHOLDERS + ") AND " + serverConflict;
+
+    for (String[] batch : toInListBatches(rowIds)) {
+      ArrayList<String> bindArgs = new ArrayList<String>();
+      Collections.addAll(bindArgs, assignmentArgs);
+      bindArgs.add(finalSyncState.name());
+      Collections.addAll(bindArgs, batch);
+      db.execSQL(updateSql, bindArgs.toArray(new String[bindArgs.size()]));
+
+      db.execSQL(deleteSql, batch);
+    }
+
+    return rowIds.size();
+  }
+
+  /**
+   * @param rowIds
+   * @return the rowIds in batches of exactly IN_LIST_SIZE, for binding to
+   * IN_LIST_PLACEHOLDERS. Repeating a rowId does not change which rows an
+   * IN-list matches.
+   */
+  private static List<String[]> toInListBatches(List<String> rowIds) {
+    List<String[]> batches = new ArrayList<String[]>();
+    for (int start = 0; start < rowIds.size(); start += IN_LIST_SIZE) {
+      int end = Math.min(rowIds.size(), start + IN_LIST_SIZE);
+      String[] batch = new String[IN_LIST_SIZE];
+      for (int i = 0; i < IN_LIST_SIZE; ++i) {
+        batch[i] = rowIds.get(Math.min(start + i, end - 1));
+      }
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  private static String bindPlaceholders(int count) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      b.append((i == 0) ? "?" : ",?");
+    }
+    return b.toString();
+  }
+
   /**
    * Inserts a checkpoint row for the given rowId in the tableId. Checkpoint
    * rows are created by ODK Survey to hold intermediate values during the
@@ -3547,16 +4088,15 @@ public class ODKDatabaseImplUtils {
         db.beginTransactionNonExclusive();
       }
 
-      String sel = "SELECT * FROM " + tableId + " WHERE " + whereClause;
+      // only the number of matching rows is needed; do not materialize them
+      String sel = "SELECT COUNT(*) FROM \"" + tableId + "\" WHERE " + whereClause;
       String[] selArgs = whereArgs;
 
       try {
         cursor = rawQuery(db, sel, selArgs);
 
-        cursor.moveToFirst();
-
         // There must be only one row in the db
-        if (cursor.getCount() != 1) {
+        if (!cursor.moveToFirst() || cursor.getLong(0) != 1L) {
           throw new IllegalArgumentException(
               t + ": row id " + rowId + " does not have exactly 1 row in table " + tableId);
         }
@@ -3684,6 +4224,15 @@ public class ODKDatabaseImplUtils {
 
   public static void initializeDatabase(OdkConnectionInterface db) {
     commonTableDefn(db);
+
+    // data tables created before the latest-savepoint projection and the
+    // change counter existed
+    LatestSavepointUtils lsu = new LatestSavepointUtils();
+    TableChangeCounterUtils tccu = new TableChangeCounterUtils();
+    for (String tableId : get().getAllTableIds(db)) {
+      lsu.ensureLatestSavepointProjection(db, tableId);
+      tccu.ensureChangeCounter(db, tableId);
+    }
   }
 
   private static void commonTableDefn(OdkConnectionInterface db) {
@@ -3712,6 +4261,22 @@ public class ODKDatabaseImplUtils {
     WebLogger.getLogger(db.getAppName())
         .i("commonTableDefn", DatabaseConstants.CHOICE_LIST_TABLE_NAME);
     db.execSQL(ChoiceListColumns.getTableCreateSql(DatabaseConstants.CHOICE_LIST_TABLE_NAME), null);
+    WebLogger.getLogger(db.getAppName())
+        .i("commonTableDefn", LatestSavepointUtils.LATEST_SAVEPOINT_TABLE_NAME);
+    db.execSQL(LatestSavepointUtils.getTableCreateSql(LatestSavepointUtils.LATEST_SAVEPOINT_TABLE_NAME),
+        null);
+    WebLogger.getLogger(db.getAppName())
+        .i("commonTableDefn", TableMetadataVersionUtils.TABLE_METADATA_VERSION_TABLE_NAME);
+    db.execSQL(TableMetadataVersionUtils.getTableCreateSql(
+        TableMetadataVersionUtils.TABLE_METADATA_VERSION_TABLE_NAME), null);
+    TableMetadataVersionUtils.createTriggers(db);
+    WebLogger.getLogger(db.getAppName())
+        .i("commonTableDefn", TableChangeCounterUtils.TABLE_CHANGE_COUNTER_TABLE_NAME);
+    db.execSQL(TableChangeCounterUtils.getTableCreateSql(
+        TableChangeCounterUtils.TABLE_CHANGE_COUNTER_TABLE_NAME), null);
+    // the data tables' triggers are recreated without it in initializeDatabase()
+    db.execSQL("DROP TABLE IF EXISTS "
+        + TableChangeCounterUtils.OBSOLETE_TABLE_CHANGE_LOG_TABLE_NAME, null);
     WebLogger.getLogger(db.getAppName()).i("commonTableDefn", "done");
   }
 }
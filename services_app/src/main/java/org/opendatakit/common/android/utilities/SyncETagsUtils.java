@@ -206,21 +206,17 @@ public class SyncETagsUtils {
     b.append(" AND ").append(SyncETagColumns.URL).append("=?");
     bindArgs.add(url);
     b.append(" ORDER BY ").append(SyncETagColumns.LAST_MODIFIED_TIMESTAMP).append(" DESC");
+    // only the most recent entry matters
+    b.append(" LIMIT 1");
 
     Cursor c = null;
     try {
-      c = db.rawQuery(b.toString(), bindArgs.toArray(new String[bindArgs.size()]));
-      c.moveToFirst();
-
-      if ( c.getCount() == 0 ) {
+      c = db.rawQueryWithDeferredCount(b.toString(), bindArgs.toArray(new String[bindArgs.size()]));
+      if ( !c.moveToFirst() ) {
         // unknown...
         return null;
       }
-      
-      if ( c.getCount() > 1 ) {
-        // TODO: log something
-      }
-      
+
       int idx = c.getColumnIndex(SyncETagColumns.ETAG_MD5_HASH);
       if ( c.isNull(idx) ) {
         // shouldn't happen...
@@ -325,21 +321,17 @@ public class SyncETagsUtils {
     b.append(" AND ").append(SyncETagColumns.URL).append("=?");
     bindArgs.add(url);
     b.append(" ORDER BY ").append(SyncETagColumns.LAST_MODIFIED_TIMESTAMP).append(" DESC");
+    // only the most recent entry matters
+    b.append(" LIMIT 1");
 
     Cursor c = null;
     try {
-      c = db.rawQuery(b.toString(), bindArgs.toArray(new String[bindArgs.size()]));
-      c.moveToFirst();
-
-      if (c.getCount() == 0) {
+      c = db.rawQueryWithDeferredCount(b.toString(), bindArgs.toArray(new String[bindArgs.size()]));
+      if (!c.moveToFirst()) {
         // unknown...
         return null;
       }
 
-      if (c.getCount() > 1) {
-        // TODO: log something
-      }
-
       int idx = c.getColumnIndex(SyncETagColumns.ETAG_MD5_HASH);
       int idxLMT = c.getColumnIndex(SyncETagColumns.LAST_MODIFIED_TIMESTAMP);
       if (c.isNull(idx)) {
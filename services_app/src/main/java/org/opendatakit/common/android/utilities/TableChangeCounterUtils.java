@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.android.utilities;
+
+import android.database.Cursor;
+
+import org.opendatakit.common.android.database.OdkConnectionInterface;
+
+/**
+ * Maintains a per-table change counter of the rows of each data table. The
+ * counter increases whenever a row of the table is inserted, updated or
+ * deleted, so readers can tell whether a table has changed since they last
+ * read it (e.g., to answer a conditional web request with a 304) without
+ * re-reading the table.
+ * <p>
+ * The counter is maintained by AFTER INSERT/UPDATE/DELETE triggers on each
+ * data table, so every write path (row inserts, updates, deletes,
+ * checkpoints, conflict resolution, sync) and every process that writes to
+ * the database bumps it. A table's counter is seeded from the current time
+ * when it is created so that values are not reused if the table or database
+ * is recreated.
+ * <p>
+ * Tables created before the counter existed are given their triggers when
+ * the database is upgraded (see ensureChangeCounter()). Readers only read
+ * the counter; a null counter means the table's changes are not (yet) being
+ * tracked.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class TableChangeCounterUtils {
+  private static final String TAG = "TableChangeCounterUtils";
+
+  public static final String TABLE_CHANGE_COUNTER_TABLE_NAME = "_table_change_counter";
+
+  /**
+   * the tableId of the data table whose counter this is.
+   */
+  public static final String TABLE_ID = "_table_id";
+  /**
+   * the change counter of the rows of the data table.
+   */
+  public static final String CHANGE_COUNTER = "_change_counter";
+
+  /**
+   * the per-row change log kept by schema version 5; dropped on upgrade.
+   */
+  public static final String OBSOLETE_TABLE_CHANGE_LOG_TABLE_NAME = "_table_change_log";
+
+  private static final String TRIGGER_INSERT_SUFFIX = "_change_counter_ai";
+  private static final String TRIGGER_UPDATE_SUFFIX = "_change_counter_au";
+  private static final String TRIGGER_DELETE_SUFFIX = "_change_counter_ad";
+
+  /**
+   * For ease of mocking...
+   */
+  public TableChangeCounterUtils() {
+  }
+
+  public static String getTableCreateSql(String tableName) {
+    //@formatter:off
+    return "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+        + TABLE_ID + " TEXT NOT NULL PRIMARY KEY, "
+        + CHANGE_COUNTER + " INTEGER NOT NULL )";
+    //@formatter:on
+  }
+
+  /**
+   * Seed the counter and create the triggers that maintain it for a newly
+   * created data table.
+   *
+   * @param db
+   * @param tableId
+   */
+  public void createChangeCounter(OdkConnectionInterface db, String tableId) {
+    seedCounter(db, tableId, true);
+    createTriggers(db, tableId);
+  }
+
+  /**
+   * Ensure that the counter is being maintained for this data table, seeding
+   * it if it does not exist and (re)creating the triggers so that they match
+   * this version of the code. Invoked when the database is created or
+   * upgraded, for the data tables that already exist.
+   *
+   * @param db
+   * @param tableId
+   */
+  public void ensureChangeCounter(OdkConnectionInterface db, String tableId) {
+    boolean dbWithinTransaction = db.inTransaction();
+    try {
+      if (!dbWithinTransaction) {
+        db.beginTransactionNonExclusive();
+      }
+      WebLogger.getLogger(db.getAppName()).i(TAG, "ensuring change counter for " + tableId);
+      seedCounter(db, tableId, false);
+      createTriggers(db, tableId);
+      if (!dbWithinTransaction) {
+        db.setTransactionSuccessful();
+      }
+    } finally {
+      if (!dbWithinTransaction) {
+        db.endTransaction();
+      }
+    }
+  }
+
+  /**
+   * Remove the counter of a data table. Invoked when we delete a table;
+   * dropping the table drops its triggers.
+   *
+   * @param db
+   * @param tableId
+   */
+  public void dropChangeCounter(OdkConnectionInterface db, String tableId) {
+    db.execSQL("DELETE FROM " + TABLE_CHANGE_COUNTER_TABLE_NAME + " WHERE " + TABLE_ID + "=?",
+        new String[] { tableId });
+  }
+
+  /**
+   * @param db
+   * @param tableId
+   * @return the current change counter of the data table, or null if the
+   * counter is not being maintained for it (see ensureChangeCounter()).
+   */
+  public Long getChangeCounter(OdkConnectionInterface db, String tableId) {
+    Cursor c = null;
+    try {
+      c = db.rawQuery("SELECT " + CHANGE_COUNTER + " FROM " + TABLE_CHANGE_COUNTER_TABLE_NAME
+          + " WHERE " + TABLE_ID + "=?", new String[] { tableId });
+      if (c.moveToFirst() && !c.isNull(0)) {
+        return c.getLong(0);
+      }
+      return null;
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+  }
+
+  private static String bumpCounterSql(String tableId) {
+    String tableIdLiteral = "'" + tableId.replace("'", "''") + "'";
+    //@formatter:off
+    return "UPDATE " + TABLE_CHANGE_COUNTER_TABLE_NAME + " SET "
+        + CHANGE_COUNTER + "=" + CHANGE_COUNTER + "+1 WHERE "
+        + TABLE_ID + "=" + tableIdLiteral + "; ";
+    //@formatter:on
+  }
+
+  /**
+   * @param db
+   * @param tableId
+   * @param replace true to restart an existing counter at the seed value
+   */
+  private static void seedCounter(OdkConnectionInterface db, String tableId, boolean replace) {
+    //@formatter:off
+    db.execSQL("INSERT OR " + (replace ? "REPLACE" : "IGNORE") + " INTO "
+        + TABLE_CHANGE_COUNTER_TABLE_NAME + " (" + TABLE_ID + "," + CHANGE_COUNTER + ") VALUES (?, "
+        + "CAST(strftime('%s','now') AS INTEGER) * 1000)", new String[] { tableId });
+    //@formatter:on
+  }
+
+  private static void createTriggers(OdkConnectionInterface db, String tableId) {
+    String quotedTableId = "\"" + tableId + "\"";
+    String[] suffixes = { TRIGGER_INSERT_SUFFIX, TRIGGER_UPDATE_SUFFIX, TRIGGER_DELETE_SUFFIX };
+    String[] events = { "INSERT", "UPDATE", "DELETE" };
+    for (int i = 0; i < suffixes.length; ++i) {
+      String triggerName = "\"" + tableId + suffixes[i] + "\"";
+      // replaces the triggers of an earlier version of the code
+      db.execSQL("DROP TRIGGER IF EXISTS " + triggerName, null);
+      //@formatter:off
+      db.execSQL("CREATE TRIGGER " + triggerName
+          + " AFTER " + events[i] + " ON " + quotedTableId + " BEGIN "
+          + bumpCounterSql(tableId)
+          + "END", null);
+      //@formatter:on
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.android.utilities;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import org.opendatakit.common.android.provider.InstanceProviderAPI;
+import org.opendatakit.common.android.provider.TablesProviderAPI;
+
+/**
+ * Cross-process notification that the rows of a data table have changed.
+ * <p>
+ * The database service calls notifyTableChanged() after it commits a change
+ * to a table. Observers register a ContentObserver on getTableUri() for one
+ * table, or on getAppUri() (with notifyForDescendants) for every table of an
+ * application. The notified URI carries the table's change counter (see
+ * {@link TableChangeCounterUtils}) as a query parameter; an observer that
+ * cached a result along with the counter it was read under can tell whether
+ * it is out of date without re-reading the table.
+ * <p>
+ * Cursors returned by the TablesProvider and InstanceProvider register for
+ * their request URIs, which lie under these, so they too are told to
+ * requery.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public final class TableChangeNotifier {
+
+  /**
+   * query parameter carrying the change counter of the table.
+   */
+  public static final String CHANGE_COUNTER_PARAMETER = "changeCounter";
+
+  private TableChangeNotifier() {
+  }
+
+  /**
+   * @param appName
+   * @return the URI under which changes to all the tables of appName are notified.
+   */
+  public static Uri getAppUri(String appName) {
+    return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT)
+        .authority(TablesProviderAPI.AUTHORITY).appendPath(appName).build();
+  }
+
+  /**
+   * @param appName
+   * @param tableId
+   * @return the URI on which changes to the rows of tableId are notified.
+   */
+  public static Uri getTableUri(String appName, String tableId) {
+    return getAppUri(appName).buildUpon().appendPath(tableId).build();
+  }
+
+  /**
+   * @param uri a notified URI
+   * @return the change counter carried by the URI, or null if it has none
+   * (e.g., the table was deleted).
+   */
+  public static Long getChangeCounter(Uri uri) {
+    String value = (uri == null) ? null : uri.getQueryParameter(CHANGE_COUNTER_PARAMETER);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.valueOf(value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Notify observers that the rows of tableId have changed. Must only be
+   * called once the change has been committed.
+   *
+   * @param context
+   * @param appName
+   * @param tableId
+   * @param changeCounter the table's change counter after the change, or null.
+   */
+  public static void notifyTableChanged(Context context, String appName, String tableId,
+      Long changeCounter) {
+    Uri.Builder tableUri = getTableUri(appName, tableId).buildUpon();
+    if (changeCounter != null) {
+      tableUri.appendQueryParameter(CHANGE_COUNTER_PARAMETER, Long.toString(changeCounter));
+    }
+    Uri instancesUri = new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT)
+        .authority(InstanceProviderAPI.AUTHORITY).appendPath(appName).appendPath(tableId).build();
+
+    ContentResolver resolver = context.getContentResolver();
+    try {
+      resolver.notifyChange(tableUri.build(), null, false);
+      resolver.notifyChange(instancesUri, null, false);
+    } catch (Exception e) {
+      // the change itself has been made; observers will catch up on their next load
+      WebLogger.getLogger(appName).w("TableChangeNotifier",
+          "unable to notify change of " + tableId + ": " + e.toString());
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.android.utilities;
+
+import android.database.Cursor;
+
+import org.opendatakit.common.android.database.DatabaseConstants;
+import org.opendatakit.common.android.database.OdkConnectionInterface;
+import org.opendatakit.common.android.provider.ColumnDefinitionsColumns;
+import org.opendatakit.common.android.provider.KeyValueStoreColumns;
+
+/**
+ * Maintains a per-table version number of the table's metadata: its column
+ * definitions and its key-value-store entries. The version changes whenever
+ * either of these changes, so callers that derive files from the metadata
+ * (e.g., the definition.csv and properties.csv written during sync) can skip
+ * that work when the version is unchanged.
+ * <p>
+ * The version is maintained by AFTER INSERT/UPDATE/DELETE triggers on the
+ * column definitions and active key-value-store tables, so every metadata
+ * write path bumps it. A table's first version is seeded from the current
+ * time so that versions are not reused if the database is recreated.
+ * <p>
+ * The version as of which the table's CSV files were last written is kept
+ * alongside it. Bumping the version replaces the row, which clears it.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class TableMetadataVersionUtils {
+
+  public static final String TABLE_METADATA_VERSION_TABLE_NAME = "_table_metadata_version";
+
+  /**
+   * the tableId whose metadata version this is.
+   */
+  public static final String TABLE_ID = "_table_id";
+  /**
+   * the version number of the column definitions and KVS entries of the table.
+   */
+  public static final String METADATA_VERSION = "_metadata_version";
+  /**
+   * the metadata version as of which the definition.csv and properties.csv
+   * of the table were last written, or null.
+   */
+  public static final String CSV_METADATA_VERSION = "_csv_metadata_version";
+
+  /**
+   * For ease of mocking...
+   */
+  public TableMetadataVersionUtils() {
+  }
+
+  public static String getTableCreateSql(String tableName) {
+    //@formatter:off
+    return "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+        + TABLE_ID + " TEXT NOT NULL PRIMARY KEY, "
+        + METADATA_VERSION + " INTEGER NOT NULL, "
+        + CSV_METADATA_VERSION + " INTEGER NULL )";
+    //@formatter:on
+  }
+
+  /**
+   * Create the triggers that maintain the metadata versions. Idempotent.
+   *
+   * @param db
+   */
+  public static void createTriggers(OdkConnectionInterface db) {
+    createTriggers(db, DatabaseConstants.COLUMN_DEFINITIONS_TABLE_NAME,
+        ColumnDefinitionsColumns.TABLE_ID, "_column_definitions_version");
+    createTriggers(db, DatabaseConstants.KEY_VALUE_STORE_ACTIVE_TABLE_NAME,
+        KeyValueStoreColumns.TABLE_ID, "_kvs_active_version");
+  }
+
+  private static void createTriggers(OdkConnectionInterface db, String tableName,
+      String tableIdColumn, String triggerPrefix) {
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + triggerPrefix + "_ai\" AFTER INSERT ON \""
+        + tableName + "\" BEGIN " + bumpVersionSql("NEW." + tableIdColumn) + " END", null);
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + triggerPrefix + "_au\" AFTER UPDATE ON \""
+        + tableName + "\" BEGIN " + bumpVersionSql("OLD." + tableIdColumn)
+        + bumpVersionSql("NEW." + tableIdColumn) + " END", null);
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + triggerPrefix + "_ad\" AFTER DELETE ON \""
+        + tableName + "\" BEGIN " + bumpVersionSql("OLD." + tableIdColumn) + " END", null);
+  }
+
+  private static String bumpVersionSql(String tableIdExpr) {
+    //@formatter:off
+    return "INSERT OR REPLACE INTO " + TABLE_METADATA_VERSION_TABLE_NAME + " ("
+        + TABLE_ID + ", " + METADATA_VERSION + ") VALUES (" + tableIdExpr + ", "
+        + "COALESCE((SELECT " + METADATA_VERSION + " + 1 FROM " + TABLE_METADATA_VERSION_TABLE_NAME
+        + " WHERE " + TABLE_ID + " = " + tableIdExpr + "), "
+        + "CAST(strftime('%s','now') AS INTEGER) * 1000)); ";
+    //@formatter:on
+  }
+
+  /**
+   * @param db
+   * @param tableId
+   * @return the current metadata version of the table, or null if its
+   * metadata has not been written since versions began to be tracked.
+   */
+  public Long getMetadataVersion(OdkConnectionInterface db, String tableId) {
+    Cursor c = null;
+    try {
+      c = db.rawQuery("SELECT " + METADATA_VERSION + " FROM " + TABLE_METADATA_VERSION_TABLE_NAME
+          + " WHERE " + TABLE_ID + "=?", new String[] { tableId });
+      if (c.moveToFirst() && !c.isNull(0)) {
+        return c.getLong(0);
+      }
+      return null;
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+  }
+
+  /**
+   * @param db
+   * @param tableId
+   * @return true if the CSV files of the table were last written as of its
+   * current metadata version.
+   */
+  public boolean isCsvCurrent(OdkConnectionInterface db, String tableId) {
+    Cursor c = null;
+    try {
+      c = db.rawQuery("SELECT " + METADATA_VERSION + " FROM " + TABLE_METADATA_VERSION_TABLE_NAME
+          + " WHERE " + TABLE_ID + "=? AND " + CSV_METADATA_VERSION + "=" + METADATA_VERSION,
+          new String[] { tableId });
+      return c.moveToFirst();
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+  }
+
+  /**
+   * Record that the CSV files of the table were written as of the given
+   * metadata version. Nothing is recorded if the metadata has since changed.
+   *
+   * @param db
+   * @param tableId
+   * @param metadataVersion
+   */
+  public void setCsvMetadataVersion(OdkConnectionInterface db, String tableId,
+      long metadataVersion) {
+    db.execSQL("UPDATE " + TABLE_METADATA_VERSION_TABLE_NAME + " SET " + CSV_METADATA_VERSION
+        + "=? WHERE " + TABLE_ID + "=? AND " + METADATA_VERSION + "=?",
+        new Object[] { metadataVersion, tableId, metadataVersion });
+  }
+}
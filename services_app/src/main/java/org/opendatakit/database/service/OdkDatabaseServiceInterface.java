@@ -32,7 +32,11 @@ import org.opendatakit.database.DatabaseConsts;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 
 public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
@@ -65,6 +69,92 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     return props.getLocale();
   }
 
+  /**
+   * Tables changed within a transaction that a call left open on a database
+   * handle, keyed by getPendingKey(). They are notified once the handle is
+   * next used outside of a transaction, or when it is closed.
+   */
+  private final Map<String, Set<String>> pendingNotifications =
+      new HashMap<String, Set<String>>();
+
+  private static String getPendingKey(String appName, OdkDbHandle dbHandleName) {
+    return appName + " " + dbHandleName.getDatabaseHandle();
+  }
+
+  /**
+   * Broadcast a change notification for a table the call may have modified,
+   * carrying the table's change counter as read after the change. Observers
+   * compare that counter against the one they last read, so a call that
+   * turned out not to change the table costs them nothing.
+   * <p>
+   * This is invoked after the call's own transaction has ended. If an
+   * enclosing transaction is still open on the handle, nothing is committed
+   * yet and the notification is queued until that transaction ends.
+   *
+   * @param db
+   * @param appName
+   * @param dbHandleName
+   * @param tableId
+   */
+  private void notifyTableChanged(OdkConnectionInterface db, String appName,
+      OdkDbHandle dbHandleName, String tableId) {
+    String key = getPendingKey(appName, dbHandleName);
+    Set<String> tableIds;
+    synchronized (pendingNotifications) {
+      if (db.isOpen() && db.inTransaction()) {
+        tableIds = pendingNotifications.get(key);
+        if (tableIds == null) {
+          tableIds = new TreeSet<String>();
+          pendingNotifications.put(key, tableIds);
+        }
+        tableIds.add(tableId);
+        return;
+      }
+      tableIds = pendingNotifications.remove(key);
+    }
+    if (tableIds == null) {
+      tableIds = new TreeSet<String>();
+    }
+    tableIds.add(tableId);
+    sendNotifications(db, appName, tableIds);
+  }
+
+  /**
+   * Send the notifications queued for a handle whose transactions have all
+   * ended.
+   *
+   * @param db
+   * @param appName
+   * @param dbHandleName
+   */
+  private void flushPendingNotifications(OdkConnectionInterface db, String appName,
+      OdkDbHandle dbHandleName) {
+    Set<String> tableIds;
+    synchronized (pendingNotifications) {
+      tableIds = pendingNotifications.remove(getPendingKey(appName, dbHandleName));
+    }
+    if (tableIds != null) {
+      sendNotifications(db, appName, tableIds);
+    }
+  }
+
+  private void sendNotifications(OdkConnectionInterface db, String appName,
+      Set<String> tableIds) {
+    TableChangeCounterUtils changeCounterUtils = new TableChangeCounterUtils();
+    for (String tableId : tableIds) {
+      Long changeCounter = null;
+      try {
+        // null if the table was deleted or its counter is not maintained
+        changeCounter = changeCounterUtils.getChangeCounter(db, tableId);
+      } catch (Exception e) {
+        WebLogger.getLogger(appName).w(TAG,
+            "unable to read change counter of " + tableId + ": " + e.toString());
+      }
+      TableChangeNotifier.notifyTableChanged(odkDatabaseService.getApplicationContext(), appName,
+          tableId, changeCounter);
+    }
+  }
+
   @Override public OdkDbHandle openDatabase(String appName) throws RemoteException {
 
     OdkDatabaseService.possiblyWaitForDatabaseServiceDebugger();
@@ -118,6 +208,11 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
         // (presumably) abort the outstanding transaction
         db.endTransaction();
       }
+      if (db != null) {
+        // the handle has no transaction left; an observer told of a table
+        // whose changes were rolled back re-reads an unchanged counter.
+        flushPendingNotifications(db, appName, dbHandleName);
+      }
     } catch (Exception e) {
       String msg = e.getLocalizedMessage();
       if (msg == null)
@@ -294,6 +389,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -331,6 +427,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -368,6 +465,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -405,6 +503,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -436,6 +535,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -505,6 +605,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -924,6 +1025,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -966,6 +1068,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1010,6 +1113,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1215,6 +1319,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1254,6 +1359,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1358,6 +1464,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
     } finally {
       if (db != null) {
         db.endTransaction();
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1392,6 +1499,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1429,6 +1537,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1468,6 +1577,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1505,6 +1615,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -1537,6 +1648,7 @@ public class OdkDatabaseServiceInterface extends OdkDbInterface.Stub {
       throw new RemoteException(msg);
     } finally {
       if (db != null) {
+        notifyTableChanged(db, appName, dbHandleName, tableId);
         // release the reference...
         // this does not necessarily close the db handle
         // or terminate any pending transaction
@@ -179,8 +179,8 @@ public class FormsProvider extends ContentProvider {
       }
     }
 
-    // parse the formDef.json
-    FormInfo fiFound = new FormInfo(getContext(), appName, formDefFile);
+    // parse the formDef.json (also computes its md5 hash)
+    FormInfo fiFound = FormInfo.getFormInfo(getContext(), appName, formDefFile);
 
     values.put(FormsColumns.SETTINGS, fiFound.settings);
     values.put(FormsColumns.FORM_VERSION, fiFound.formVersion);
@@ -188,8 +188,7 @@ public class FormsProvider extends ContentProvider {
     values.put(FormsColumns.DEFAULT_FORM_LOCALE, fiFound.defaultLocale);
     values.put(FormsColumns.INSTANCE_NAME, fiFound.instanceName);
 
-    String md5 = ODKFileUtils.getMd5Hash(appName, formDefFile);
-    values.put(FormsColumns.JSON_MD5_HASH, md5);
+    values.put(FormsColumns.JSON_MD5_HASH, fiFound.jsonMd5Hash);
     values.put(FormsColumns.DATE, fiFound.lastModificationDate);
     values.put(FormsColumns.FILE_LENGTH, fiFound.fileLength);
 
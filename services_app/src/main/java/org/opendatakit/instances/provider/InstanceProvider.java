@@ -37,6 +37,7 @@ import org.opendatakit.common.android.provider.DataTableColumns;
 import org.opendatakit.common.android.provider.InstanceColumns;
 import org.opendatakit.common.android.provider.InstanceProviderAPI;
 import org.opendatakit.common.android.provider.KeyValueStoreColumns;
+import org.opendatakit.common.android.utilities.LatestSavepointUtils;
 import org.opendatakit.common.android.utilities.ODKCursorUtils;
 import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
@@ -390,12 +391,13 @@ public class InstanceProvider extends ContentProvider {
     b.append(InstanceColumns.DATA_INSTANCE_NAME);
     b.append(" as ").append(InstanceColumns.DISPLAY_NAME);
     b.append(" FROM ");
-    b.append("( SELECT * FROM ").append(dbTableName).append(" AS T WHERE T.")
-     .append(DATA_TABLE_SAVEPOINT_TIMESTAMP_COLUMN).append("=(SELECT MAX(V.")
-     .append(DATA_TABLE_SAVEPOINT_TIMESTAMP_COLUMN).append(") FROM ")
-       .append(dbTableName).append(" AS V WHERE V.")
-       .append(DATA_TABLE_ID_COLUMN).append("=T.").append(DATA_TABLE_ID_COLUMN)
-     .append(" AND V.").append(DATA_TABLE_SAVEPOINT_TYPE_COLUMN).append(" IS NOT NULL").append(")")
+    // the most recent saved revision of each row, via the latest-savepoint projection
+    b.append("( SELECT T.* FROM ").append(LatestSavepointUtils.LATEST_SAVEPOINT_TABLE_NAME)
+     .append(" AS L JOIN ").append(dbTableName).append(" AS T ON T.")
+       .append(DATA_TABLE_ID_COLUMN).append("=L.").append(LatestSavepointUtils.ID)
+     .append(" AND T.").append(DATA_TABLE_SAVEPOINT_TIMESTAMP_COLUMN).append("=L.")
+       .append(LatestSavepointUtils.SAVED_SAVEPOINT_TIMESTAMP)
+     .append(" WHERE L.").append(LatestSavepointUtils.TABLE_ID).append("=?")
      .append(") as ").append(dbTableName);
     b.append(" JOIN ").append(DatabaseConstants.UPLOADS_TABLE_NAME).append(" ON ")
         .append(dbTableName).append(".").append(DATA_TABLE_ID_COLUMN).append("=")
@@ -409,10 +411,10 @@ public class InstanceProvider extends ContentProvider {
     if (instanceId != null) {
       b.append(" AND ").append(DatabaseConstants.UPLOADS_TABLE_NAME).append(".")
           .append(InstanceColumns._ID).append("=?");
-      String tempArgs[] = { tableId, InstanceColumns.STATUS_COMPLETE, instanceId };
+      String tempArgs[] = { tableId, tableId, InstanceColumns.STATUS_COMPLETE, instanceId };
       filterArgs = tempArgs;
     } else {
-      String tempArgs[] = { tableId, InstanceColumns.STATUS_COMPLETE };
+      String tempArgs[] = { tableId, tableId, InstanceColumns.STATUS_COMPLETE };
       filterArgs = tempArgs;
     }
 
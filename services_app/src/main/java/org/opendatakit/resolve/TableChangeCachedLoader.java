@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.resolve;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import org.opendatakit.common.android.database.OdkConnectionFactorySingleton;
+import org.opendatakit.common.android.database.OdkConnectionInterface;
+import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
+import org.opendatakit.common.android.utilities.TableChangeCounterUtils;
+import org.opendatakit.common.android.utilities.TableChangeNotifier;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A loader over one table (or all the tables) of an application that only
+ * re-reads the database when the table has changed.
+ * <p>
+ * The loader observes the table's {@link TableChangeNotifier} URI, so changes
+ * committed by the database service (e.g., by sync) trigger a reload. Each
+ * load first reads the tables' change counters; if they match those the
+ * cached result was loaded under, the cached result is returned rather than
+ * re-running the query. Because the counters are maintained by triggers,
+ * this also catches changes made directly through a connection in this
+ * process.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public abstract class TableChangeCachedLoader<D> extends AsyncTaskLoader<D> {
+
+  private final String mAppName;
+  /**
+   * null if the loader depends upon all the tables of the application.
+   */
+  private final String mTableId;
+  /**
+   * created when the loader is started: the observer's Handler needs the
+   * main thread's Looper, and the row loaders construct field loaders on
+   * their background threads.
+   */
+  private ForceLoadContentObserver mObserver = null;
+
+  // only accessed from loadInBackground()
+  private D mCachedResult = null;
+  private HashMap<String, Long> mCachedChangeCounters = null;
+
+  protected TableChangeCachedLoader(Context context, String appName, String tableId) {
+    super(context);
+    this.mAppName = appName;
+    this.mTableId = tableId;
+  }
+
+  /**
+   * Query the database. Invoked on the loader's background thread when the
+   * table has changed since the previous load.
+   *
+   * @return the result of the load.
+   */
+  protected abstract D loadData();
+
+  @Override public final D loadInBackground() {
+    HashMap<String, Long> changeCounters = readChangeCounters();
+    if (mCachedResult != null && changeCounters != null &&
+        changeCounters.equals(mCachedChangeCounters)) {
+      return mCachedResult;
+    }
+
+    D result = loadData();
+    mCachedResult = result;
+    mCachedChangeCounters = changeCounters;
+    return result;
+  }
+
+  /**
+   * @return the change counters of the tables this loader depends upon, or
+   * null if any is not maintained or they could not be read (in which case
+   * the data is always reloaded).
+   */
+  private HashMap<String, Long> readChangeCounters() {
+    OdkDbHandle dbHandleName = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+        .generateInternalUseDbHandle();
+    OdkConnectionInterface db = null;
+    try {
+      // +1 referenceCount if db is returned (non-null)
+      db = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+          .getConnection(mAppName, dbHandleName);
+
+      List<String> tableIds;
+      if (mTableId == null) {
+        tableIds = ODKDatabaseImplUtils.get().getAllTableIds(db);
+      } else {
+        tableIds = new ArrayList<String>();
+        tableIds.add(mTableId);
+      }
+
+      TableChangeCounterUtils changeCounterUtils = new TableChangeCounterUtils();
+      HashMap<String, Long> changeCounters = new HashMap<String, Long>();
+      for (String tableId : tableIds) {
+        Long changeCounter = changeCounterUtils.getChangeCounter(db, tableId);
+        if (changeCounter == null) {
+          // not tracked: whether the table changed is unknown
+          return null;
+        }
+        changeCounters.put(tableId, changeCounter);
+      }
+      return changeCounters;
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).w("TableChangeCachedLoader",
+          "unable to read change counters: " + e.toString());
+      return null;
+    } finally {
+      if (db != null) {
+        try {
+          db.releaseReference();
+        } finally {
+          // this closes the connection
+          OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
+              .removeConnection(mAppName, dbHandleName);
+        }
+      }
+    }
+  }
+
+  @Override protected void onStartLoading() {
+    super.onStartLoading();
+    if (mObserver == null) {
+      mObserver = new ForceLoadContentObserver();
+      getContext().getContentResolver().registerContentObserver(
+          (mTableId == null) ? TableChangeNotifier.getAppUri(mAppName) :
+              TableChangeNotifier.getTableUri(mAppName, mTableId), true, mObserver);
+    }
+    // cheap if nothing has changed
+    forceLoad();
+  }
+
+  @Override protected void onReset() {
+    super.onReset();
+    if (mObserver != null) {
+      getContext().getContentResolver().unregisterContentObserver(mObserver);
+      mObserver = null;
+    }
+  }
+}
@@ -15,7 +15,6 @@
  */
 package org.opendatakit.resolve.checkpoint;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
 import org.opendatakit.aggregate.odktables.rest.ElementType;
 import org.opendatakit.aggregate.odktables.rest.KeyValueStoreConstants;
@@ -33,6 +32,7 @@ import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.resolve.TableChangeCachedLoader;
 import org.opendatakit.resolve.views.components.*;
 
 import java.util.*;
@@ -40,7 +40,7 @@ import java.util.*;
 /**
  * @author mitchellsundt@gmail.com
  */
-public class OdkResolveCheckpointFieldLoader extends AsyncTaskLoader<ResolveActionList> {
+public class OdkResolveCheckpointFieldLoader extends TableChangeCachedLoader<ResolveActionList> {
 
   private final String mAppName;
   private final String mTableId;
@@ -48,7 +48,7 @@ public class OdkResolveCheckpointFieldLoader extends AsyncTaskLoader<ResolveActi
 
   public OdkResolveCheckpointFieldLoader(Context context, String appName, String tableId,
       String rowId) {
-    super(context);
+    super(context, appName, tableId);
     this.mAppName = appName;
     this.mTableId = tableId;
     this.mRowId = rowId;
@@ -201,15 +201,10 @@ public class OdkResolveCheckpointFieldLoader extends AsyncTaskLoader<ResolveActi
     return new ResolveActionList(actionType, concordantColumns, conflictColumns);
   }
 
-  @Override public ResolveActionList loadInBackground() {
+  @Override protected ResolveActionList loadData() {
 
     OdkDbHandle dbHandleName = new OdkDbHandle(UUID.randomUUID().toString());
 
     return doWork(dbHandleName);
   }
-
-  @Override protected void onStartLoading() {
-    super.onStartLoading();
-    forceLoad();
-  }
 }
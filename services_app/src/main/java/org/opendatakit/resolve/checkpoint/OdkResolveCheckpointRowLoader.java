@@ -15,7 +15,6 @@
  */
 package org.opendatakit.resolve.checkpoint;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.database.Cursor;
 import org.opendatakit.aggregate.odktables.rest.KeyValueStoreConstants;
@@ -33,6 +32,7 @@ import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.resolve.TableChangeCachedLoader;
 import org.opendatakit.resolve.views.components.ResolveActionList;
 import org.opendatakit.resolve.views.components.ResolveRowEntry;
 import org.opendatakit.services.R;
@@ -43,7 +43,7 @@ import java.util.UUID;
 /**
  * @author mitchellsundt@gmail.com
  */
-public class OdkResolveCheckpointRowLoader extends AsyncTaskLoader<ArrayList<ResolveRowEntry>> {
+public class OdkResolveCheckpointRowLoader extends TableChangeCachedLoader<ArrayList<ResolveRowEntry>> {
 
   private final String mAppName;
   private final String mTableId;
@@ -57,14 +57,14 @@ public class OdkResolveCheckpointRowLoader extends AsyncTaskLoader<ArrayList<Res
 
   public OdkResolveCheckpointRowLoader(Context context, String appName, String tableId,
       boolean haveResolvedMetadataConflicts) {
-    super(context);
+    super(context, appName, tableId);
     this.mAppName = appName;
     this.mTableId = tableId;
     this.mHaveResolvedMetadataConflicts = haveResolvedMetadataConflicts;
   }
 
   @Override
-  public ArrayList<ResolveRowEntry> loadInBackground() {
+  protected ArrayList<ResolveRowEntry> loadData() {
 
     OdkDbHandle dbHandleName = new OdkDbHandle(UUID.randomUUID().toString());
 
@@ -221,9 +221,4 @@ public class OdkResolveCheckpointRowLoader extends AsyncTaskLoader<ArrayList<Res
     }
     return results;
   }
-
-  @Override protected void onStartLoading() {
-    super.onStartLoading();
-    forceLoad();
-  }
 }
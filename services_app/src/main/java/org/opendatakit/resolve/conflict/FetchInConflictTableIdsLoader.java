@@ -15,7 +15,6 @@
  */
 package org.opendatakit.resolve.conflict;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
 
 import org.opendatakit.common.android.database.OdkConnectionFactorySingleton;
@@ -24,6 +23,7 @@ import org.opendatakit.common.android.utilities.ODKCursorUtils;
 import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.resolve.TableChangeCachedLoader;
 
 import java.util.ArrayList;
 import java.util.UUID;
@@ -33,16 +33,16 @@ import java.util.UUID;
  *
  * @author mitchellsundt@gmail.com
  */
-public class FetchInConflictTableIdsLoader extends AsyncTaskLoader<ArrayList<String>> {
+public class FetchInConflictTableIdsLoader extends TableChangeCachedLoader<ArrayList<String>> {
 
   private final String mAppName;
 
   public FetchInConflictTableIdsLoader(Context context, String appName) {
-    super(context);
+    super(context, appName, null);
     this.mAppName = appName;
   }
 
-  @Override public ArrayList<String> loadInBackground() {
+  @Override protected ArrayList<String> loadData() {
 
     OdkConnectionInterface db = null;
 
@@ -85,9 +85,4 @@ public class FetchInConflictTableIdsLoader extends AsyncTaskLoader<ArrayList<Str
 
     return conflictingTableIds;
   }
-
-  @Override protected void onStartLoading() {
-    super.onStartLoading();
-    forceLoad();
-  }
 }
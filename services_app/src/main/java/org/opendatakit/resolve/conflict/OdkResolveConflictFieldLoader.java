@@ -15,7 +15,6 @@
  */
 package org.opendatakit.resolve.conflict;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
 
 import org.opendatakit.aggregate.odktables.rest.ConflictType;
@@ -35,6 +34,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.OdkDbSerializedInterface;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.resolve.TableChangeCachedLoader;
 import org.opendatakit.resolve.views.components.ConcordantColumn;
 import org.opendatakit.resolve.views.components.ConflictColumn;
 import org.opendatakit.resolve.views.components.ResolveActionList;
@@ -48,7 +48,7 @@ import java.util.UUID;
 /**
  * @author mitchellsundt@gmail.com
  */
-public class OdkResolveConflictFieldLoader extends AsyncTaskLoader<ResolveActionList> {
+public class OdkResolveConflictFieldLoader extends TableChangeCachedLoader<ResolveActionList> {
 
   private final String mAppName;
   private final String mTableId;
@@ -56,7 +56,7 @@ public class OdkResolveConflictFieldLoader extends AsyncTaskLoader<ResolveAction
 
   public OdkResolveConflictFieldLoader(Context context, String appName, String tableId,
       String rowId) {
-    super(context);
+    super(context, appName, tableId);
     this.mAppName = appName;
     this.mTableId = tableId;
     this.mRowId = rowId;
@@ -206,15 +206,10 @@ public class OdkResolveConflictFieldLoader extends AsyncTaskLoader<ResolveAction
         concordantColumns, conflictColumns);
   }
 
-  @Override public ResolveActionList loadInBackground() {
+  @Override protected ResolveActionList loadData() {
 
     OdkDbHandle dbHandleName = new OdkDbHandle(UUID.randomUUID().toString());
 
     return doWork(dbHandleName);
   }
-
-  @Override protected void onStartLoading() {
-    super.onStartLoading();
-    forceLoad();
-  }
 }
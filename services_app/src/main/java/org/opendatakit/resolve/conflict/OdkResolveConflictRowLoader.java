@@ -15,7 +15,6 @@
  */
 package org.opendatakit.resolve.conflict;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.database.Cursor;
 import org.opendatakit.aggregate.odktables.rest.ConflictType;
@@ -36,6 +35,7 @@ import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.resolve.TableChangeCachedLoader;
 import org.opendatakit.resolve.views.components.ResolveActionList;
 import org.opendatakit.resolve.views.components.ResolveRowEntry;
 
@@ -45,7 +45,7 @@ import java.util.UUID;
 /**
  * @author mitchellsundt@gmail.com
  */
-public class OdkResolveConflictRowLoader extends AsyncTaskLoader<ArrayList<ResolveRowEntry>> {
+public class OdkResolveConflictRowLoader extends TableChangeCachedLoader<ArrayList<ResolveRowEntry>> {
 
   private final String mAppName;
   private final String mTableId;
@@ -59,13 +59,13 @@ public class OdkResolveConflictRowLoader extends AsyncTaskLoader<ArrayList<Resol
 
   public OdkResolveConflictRowLoader(Context context, String appName, String tableId,
       boolean haveResolvedMetadataConflicts) {
-    super(context);
+    super(context, appName, tableId);
     this.mAppName = appName;
     this.mTableId = tableId;
     this.mHaveResolvedMetadataConflicts = haveResolvedMetadataConflicts;
   }
 
-  @Override public ArrayList<ResolveRowEntry> loadInBackground() {
+  @Override protected ArrayList<ResolveRowEntry> loadData() {
 
     OdkConnectionInterface db = null;
 
@@ -226,9 +226,4 @@ public class OdkResolveConflictRowLoader extends AsyncTaskLoader<ArrayList<Resol
 
     return results;
   }
-
-  @Override protected void onStartLoading() {
-    super.onStartLoading();
-    forceLoad();
-  }
 }
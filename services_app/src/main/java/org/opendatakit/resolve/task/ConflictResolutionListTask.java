@@ -15,6 +15,8 @@ import org.opendatakit.resolve.listener.ResolutionListener;
 import org.opendatakit.resolve.views.components.ResolveRowEntry;
 import org.opendatakit.services.R;
 
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -56,55 +58,60 @@ public class ConflictResolutionListTask extends AsyncTask<Void, String, String>
       db = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
           .getConnection(mAppName, dbHandleName);
 
+      // resolve the rows listed in the adapter, one transaction per chunk of rows
+      ArrayList<String> rowIds = new ArrayList<String>();
       for ( int i = 0 ; i < mAdapter.getCount() ; ++i ) {
-        this.publishProgress(
-            mContext.getString(R.string.resolving_row_n_of_m, i+1, mAdapter.getCount()));
-
-        ResolveRowEntry entry = mAdapter.getItem(i);
-        try {
-
-          if ( mTakeLocal ) {
-            ODKDatabaseImplUtils.get()
-                .resolveServerConflictTakeLocalRowWithId(db, mAppName, mTableId, entry.rowId,
-                    activeUser, locale);
-          } else {
-            ODKDatabaseImplUtils.get()
-                .resolveServerConflictTakeServerRowWithId(db, mAppName, mTableId, entry.rowId,
-                    activeUser, locale);
-          }
-
-        } catch (Exception e) {
-          String msg = e.getLocalizedMessage();
-          if (msg == null)
-            msg = e.getMessage();
-          if (msg == null)
-            msg = e.toString();
-          msg = "Exception: " + msg;
-          WebLogger.getLogger(mAppName).e("takeAllLocal",
-              mAppName + " " + dbHandleName.getDatabaseHandle() + " " + msg);
-          WebLogger.getLogger(mAppName).printStackTrace(e);
+        rowIds.add(mAdapter.getItem(i).rowId);
+      }
+      this.publishProgress(
+          mContext.getString(R.string.resolving_row_n_of_m, 1, rowIds.size()));
+
+      ODKDatabaseImplUtils.ConflictResolutionProgressListener progress =
+          new ODKDatabaseImplUtils.ConflictResolutionProgressListener() {
+            @Override public void resolutionProgress(int rowsProcessed, int totalRows) {
+              publishProgress(mContext.getString(R.string.resolving_row_n_of_m,
+                  Math.min(rowsProcessed + 1, totalRows), totalRows));
+            }
+          };
+      try {
+
+        ODKDatabaseImplUtils.ConflictResolutionResult result;
+        if ( mTakeLocal ) {
+          result = ODKDatabaseImplUtils.get()
+              .resolveServerConflictsTakeLocalRows(db, mAppName, mTableId, rowIds,
+                  activeUser, locale, progress);
+        } else {
+          result = ODKDatabaseImplUtils.get()
+              .resolveServerConflictsTakeServerRows(db, mAppName, mTableId, rowIds,
+                  activeUser, locale, progress);
+        }
 
+        for ( Map.Entry<String, String> failure : result.getFailures().entrySet() ) {
           if (exceptions == null) {
             exceptions = new StringBuilder();
           } else {
             exceptions.append("\n");
           }
-          exceptions.append(msg);
-
-          // and to be sure, try to release this database connection and create a new one...
-          OdkConnectionInterface dbOld = db;
-          db = null;
-
-          dbHandleName = new OdkDbHandle(UUID.randomUUID().toString());
-
-          if ( dbOld != null ) {
-            dbOld.releaseReference();
-          }
+          exceptions.append("Exception: ").append(failure.getValue());
+        }
 
-          // +1 referenceCount if db is returned (non-null)
-          db = OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface()
-              .getConnection(mAppName, dbHandleName);
+      } catch (Exception e) {
+        String msg = e.getLocalizedMessage();
+        if (msg == null)
+          msg = e.getMessage();
+        if (msg == null)
+          msg = e.toString();
+        msg = "Exception: " + msg;
+        WebLogger.getLogger(mAppName).e(mTakeLocal ? "takeAllLocal" : "takeAllServer",
+            mAppName + " " + dbHandleName.getDatabaseHandle() + " " + msg);
+        WebLogger.getLogger(mAppName).printStackTrace(e);
+
+        if (exceptions == null) {
+          exceptions = new StringBuilder();
+        } else {
+          exceptions.append("\n");
         }
+        exceptions.append(msg);
       }
       this.publishProgress(
           mContext.getString(R.string.done_resolving_rows));
@@ -25,6 +25,7 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
 import org.opendatakit.IntentConsts;
+import org.opendatakit.common.android.database.AndroidConnectFactory;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 
@@ -138,6 +139,8 @@ public class OdkSyncService extends Service {
     serviceInterface = new OdkSyncServiceInterfaceImpl(this);
     notificationManager = new GlobalSyncNotificationManager(this);
     shutdownTester = Executors.newSingleThreadScheduledExecutor();
+    // the row sync applies its outcomes through a direct database connection
+    AndroidConnectFactory.configure();
   }
 
   @Override
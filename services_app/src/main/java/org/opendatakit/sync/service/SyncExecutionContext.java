@@ -40,12 +40,15 @@ import org.opendatakit.database.OdkDbSerializedInterface;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.database.service.OdkDbInterface;
+import org.opendatakit.sync.service.data.SyncPlan;
 import org.opendatakit.sync.service.exceptions.*;
 import org.opendatakit.sync.service.logic.Synchronizer;
 import org.opendatakit.sync.service.logic.Synchronizer.SynchronizerStatus;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SyncExecutionContext implements SynchronizerStatus {
@@ -54,6 +57,12 @@ public class SyncExecutionContext implements SynchronizerStatus {
   private static final String ACCOUNT_TYPE_G = "com.google";
 
   private static final int OVERALL_PROGRESS_BAR_LENGTH = 6350400;
+
+  /**
+   * Default number of tables whose row data is sync'd concurrently.
+   * Most of the per-table time is spent waiting on server round-trips.
+   */
+  public static final int DEFAULT_ROW_SYNC_PARALLELISM = 3;
   private static final ObjectMapper mapper;
 
   static {
@@ -76,6 +85,21 @@ public class SyncExecutionContext implements SynchronizerStatus {
   private int nMajorSyncSteps;
   private int iMajorSyncStep;
   private int GRAINS_PER_MAJOR_SYNC_STEP;
+  // progress grains of the major sync steps that have completed
+  private int completedGrains;
+  // when non-null, the grains of each app- and table-level major sync step,
+  // in order. Otherwise every step gets GRAINS_PER_MAJOR_SYNC_STEP.
+  private int[] sequentialStepGrains = null;
+  // grains of the row-data step of each table. These steps may complete in
+  // any order, so they are accounted for by tableId, not by step index.
+  private final Map<String, Integer> tableStepGrains = new HashMap<String, Integer>();
+  // row-data steps in progress: tableId to percent complete
+  private final Map<String, Double> activeTableSteps = new HashMap<String, Double>();
+  // the table whose row-data step is running on this thread, if any
+  private final ThreadLocal<String> currentTableStep = new ThreadLocal<String>();
+
+  // estimate of the work of this sync, if one was computed
+  private SyncPlan syncPlan = null;
 
   private final AppAwareApplication application;
   private final String appName;
@@ -95,6 +119,13 @@ public class SyncExecutionContext implements SynchronizerStatus {
 
   private OdkDbHandle odkDbHandle = null;
 
+  // number of tables whose row data can be sync'd concurrently
+  private int rowSyncParallelism = DEFAULT_ROW_SYNC_PARALLELISM;
+
+  // held across any sequence of database-modifying calls so that
+  // concurrently-sync'd tables funnel their writes through a single writer.
+  private final Object databaseWriterLock = new Object();
+
   public SyncExecutionContext(AppAwareApplication context, String appName,
       SyncNotification syncProgress,
       SyncOverallResult syncResult) {
@@ -118,15 +149,48 @@ public class SyncExecutionContext implements SynchronizerStatus {
     this.nMajorSyncSteps = 1;
     this.GRAINS_PER_MAJOR_SYNC_STEP = (OVERALL_PROGRESS_BAR_LENGTH / nMajorSyncSteps);
     this.iMajorSyncStep = 0;
+    this.completedGrains = 0;
   }
 
   public void setSynchronizer(Synchronizer synchronizer) {
     this.synchronizer = synchronizer;
   }
 
+  public int getRowSyncParallelism() {
+    return rowSyncParallelism;
+  }
+
+  /**
+   * Set the number of tables whose row data can be sync'd concurrently.
+   * A value of 1 restores the serial, table-at-a-time sync.
+   *
+   * @param rowSyncParallelism
+   */
+  public void setRowSyncParallelism(int rowSyncParallelism) {
+    if ( rowSyncParallelism < 1 ) {
+      throw new IllegalArgumentException("rowSyncParallelism must be at least 1");
+    }
+    this.rowSyncParallelism = rowSyncParallelism;
+  }
+
+  /**
+   * All database-modifying work performed during the row-data sync must
+   * synchronize on this object. This serializes the writes of the tables
+   * that are being sync'd concurrently.
+   *
+   * @return the lock object
+   */
+  public Object getDatabaseWriterLock() {
+    return databaseWriterLock;
+  }
+
   public String getString(int resId) {
     return application.getString(resId);
   }
+
+  public Context getApplicationContext() {
+    return application;
+  }
   
   public void setAppLevelSyncOutcome(SyncOutcome syncOutcome) {
     mUserResult.setAppLevelSyncOutcome(syncOutcome);
@@ -360,18 +424,121 @@ public class SyncExecutionContext implements SynchronizerStatus {
     }
   }
 
-  public void resetMajorSyncSteps(int nMajorSyncSteps) {
+  public SyncPlan getSyncPlan() {
+    return syncPlan;
+  }
+
+  public void setSyncPlan(SyncPlan syncPlan) {
+    this.syncPlan = syncPlan;
+  }
+
+  public synchronized void resetMajorSyncSteps(int nMajorSyncSteps) {
     this.nMajorSyncSteps = nMajorSyncSteps;
     this.GRAINS_PER_MAJOR_SYNC_STEP = (OVERALL_PROGRESS_BAR_LENGTH / nMajorSyncSteps);
+    this.sequentialStepGrains = null;
+    this.tableStepGrains.clear();
+    this.activeTableSteps.clear();
     this.iMajorSyncStep = 0;
+    this.completedGrains = 0;
   }
-  
-  public void incMajorSyncStep() {
+
+  /**
+   * Reset the major sync steps, sizing each step's share of the progress bar
+   * by its (estimated) cost rather than giving every step an equal share.
+   *
+   * @param sequentialStepWeights the relative cost of each app- and
+   *                              table-level step, in the order they run.
+   *                              These complete through incMajorSyncStep().
+   * @param tableStepWeights the relative cost of the row-data step of each
+   *                         table. These complete through
+   *                         completeTableSyncStep(tableId).
+   */
+  public synchronized void resetMajorSyncSteps(long[] sequentialStepWeights,
+      Map<String, Long> tableStepWeights) {
+    resetMajorSyncSteps(sequentialStepWeights.length + tableStepWeights.size());
+    long totalWeight = 0L;
+    for (long weight : sequentialStepWeights) {
+      totalWeight += Math.max(1L, weight);
+    }
+    for (Long weight : tableStepWeights.values()) {
+      totalWeight += Math.max(1L, weight);
+    }
+    // apportion by cumulative weight so that the grains sum to the bar length
+    long cumulativeWeight = 0L;
+    int cumulativeGrains = 0;
+    sequentialStepGrains = new int[sequentialStepWeights.length];
+    for (int i = 0; i < sequentialStepWeights.length; ++i) {
+      cumulativeWeight += Math.max(1L, sequentialStepWeights[i]);
+      int end = (int) (cumulativeWeight * OVERALL_PROGRESS_BAR_LENGTH / totalWeight);
+      sequentialStepGrains[i] = end - cumulativeGrains;
+      cumulativeGrains = end;
+    }
+    for (Map.Entry<String, Long> entry : tableStepWeights.entrySet()) {
+      cumulativeWeight += Math.max(1L, entry.getValue());
+      int end = (int) (cumulativeWeight * OVERALL_PROGRESS_BAR_LENGTH / totalWeight);
+      tableStepGrains.put(entry.getKey(), end - cumulativeGrains);
+      cumulativeGrains = end;
+    }
+  }
+
+  /**
+   * @return the grains of the current app- or table-level step.
+   */
+  private int getSequentialStepGrains() {
+    if (sequentialStepGrains == null) {
+      return (iMajorSyncStep < nMajorSyncSteps) ? GRAINS_PER_MAJOR_SYNC_STEP : 0;
+    }
+    return (iMajorSyncStep < sequentialStepGrains.length) ?
+        sequentialStepGrains[iMajorSyncStep] : 0;
+  }
+
+  private void addCompletedGrains(int grains) {
+    completedGrains = Math.min(OVERALL_PROGRESS_BAR_LENGTH, completedGrains + grains);
+  }
+
+  public synchronized void incMajorSyncStep() {
+    addCompletedGrains(getSequentialStepGrains());
     ++iMajorSyncStep;
     if ( iMajorSyncStep > nMajorSyncSteps ) {
       iMajorSyncStep = nMajorSyncSteps - 1;
     }
   }
+
+  private int getTableStepGrains(String tableId) {
+    if (sequentialStepGrains == null) {
+      return GRAINS_PER_MAJOR_SYNC_STEP;
+    }
+    Integer grains = tableStepGrains.get(tableId);
+    return (grains == null) ? 0 : grains;
+  }
+
+  /**
+   * Begin the row-data step of this table on the calling thread. Until
+   * completeTableSyncStep is called on this thread, the progress percentages
+   * it reports are applied to this table's share of the progress bar.
+   *
+   * @param tableId
+   */
+  public synchronized void startTableSyncStep(String tableId) {
+    activeTableSteps.put(tableId, 0.0);
+    currentTableStep.set(tableId);
+  }
+
+  /**
+   * Mark the row-data step of this table as complete, advancing the progress
+   * bar by that table's own share. Tables sync'd concurrently may complete in
+   * any order.
+   *
+   * @param tableId
+   */
+  public synchronized void completeTableSyncStep(String tableId) {
+    if (tableId.equals(currentTableStep.get())) {
+      currentTableStep.remove();
+    }
+    activeTableSteps.remove(tableId);
+    addCompletedGrains(getTableStepGrains(tableId));
+    tableStepGrains.remove(tableId);
+  }
   
   @Override
   public void updateNotification(SyncProgressState state, int textResource, Object[] formatArgVals,
@@ -385,9 +552,29 @@ public class SyncExecutionContext implements SynchronizerStatus {
         text = String.format(fmt, formatArgVals);
       }
     }
-    syncProgress.updateNotification(state, text, OVERALL_PROGRESS_BAR_LENGTH, (int) (iMajorSyncStep
-        * GRAINS_PER_MAJOR_SYNC_STEP + ((progressPercentage != null) ? (progressPercentage
-        * GRAINS_PER_MAJOR_SYNC_STEP / 100.0) : 0.0)), indeterminateProgress);
+    int stepStart;
+    int stepGrains;
+    synchronized (this) {
+      stepStart = completedGrains;
+      String tableId = currentTableStep.get();
+      if (tableId == null) {
+        stepGrains = getSequentialStepGrains();
+      } else {
+        // concurrent row-data steps: each table advances its own share
+        if (progressPercentage != null) {
+          activeTableSteps.put(tableId, progressPercentage);
+        }
+        double inProgressGrains = 0.0;
+        for (Map.Entry<String, Double> entry : activeTableSteps.entrySet()) {
+          inProgressGrains += entry.getValue() * getTableStepGrains(entry.getKey()) / 100.0;
+        }
+        stepStart += (int) inProgressGrains;
+        stepGrains = 0;
+      }
+    }
+    syncProgress.updateNotification(state, text, OVERALL_PROGRESS_BAR_LENGTH, (int) (stepStart
+        + ((progressPercentage != null) ? (progressPercentage
+        * stepGrains / 100.0) : 0.0)), indeterminateProgress);
   }
 
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.sync.service.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimate of the work a sync will do, computed by the SyncPlanner before any
+ * files or rows are transferred.
+ * <p>
+ * Costs are expressed in row-equivalents: pushing or pulling one row costs 1.
+ * The other weights are rough relative magnitudes, good enough to order the
+ * tables and to apportion the progress bar; they are not timings.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class SyncPlan {
+
+  /**
+   * A file transfer is a round-trip of its own.
+   */
+  public static final long FILE_COST = 5L;
+  /**
+   * Bytes transferred per row-equivalent of cost.
+   */
+  public static final long BYTES_PER_UNIT_COST = 8192L;
+  /**
+   * Assumed number of rows pulled for each change set; the planner assumes a
+   * single change set for a table whose dataETag has moved on.
+   */
+  public static final long CHANGE_SET_ROW_ESTIMATE = 20L;
+  /**
+   * Assumed number of rows in a table that has never been pulled.
+   */
+  public static final long FULL_PULL_ROW_ESTIMATE = 500L;
+
+  /**
+   * Estimated work for one table.
+   */
+  public static final class TableEstimate {
+    private final String tableId;
+    private long rowsToPush = 0L;
+    private long rowsWithPendingAttachments = 0L;
+    private long changeSetsToPull = 0L;
+    private boolean fullPull = false;
+    private long configFilesToSync = 0L;
+    private long configBytesToSync = 0L;
+
+    public TableEstimate(String tableId) {
+      this.tableId = tableId;
+    }
+
+    public String getTableId() {
+      return tableId;
+    }
+
+    /**
+     * @return rows in the new_row, changed or deleted sync states.
+     */
+    public long getRowsToPush() {
+      return rowsToPush;
+    }
+
+    public void setRowsToPush(long rowsToPush) {
+      this.rowsToPush = rowsToPush;
+    }
+
+    /**
+     * @return rows whose attachments may need to be transferred.
+     */
+    public long getRowsWithPendingAttachments() {
+      return rowsWithPendingAttachments;
+    }
+
+    public void setRowsWithPendingAttachments(long rowsWithPendingAttachments) {
+      this.rowsWithPendingAttachments = rowsWithPendingAttachments;
+    }
+
+    /**
+     * @return the estimated number of server change sets after the device's
+     * dataETag.
+     */
+    public long getChangeSetsToPull() {
+      return changeSetsToPull;
+    }
+
+    public void setChangeSetsToPull(long changeSetsToPull) {
+      this.changeSetsToPull = changeSetsToPull;
+    }
+
+    /**
+     * @return true if the table has never been pulled to this device, so every
+     * server row will be pulled.
+     */
+    public boolean isFullPull() {
+      return fullPull;
+    }
+
+    public void setFullPull(boolean fullPull) {
+      this.fullPull = fullPull;
+    }
+
+    public long getConfigFilesToSync() {
+      return configFilesToSync;
+    }
+
+    public long getConfigBytesToSync() {
+      return configBytesToSync;
+    }
+
+    public void setConfigFilesToSync(long configFilesToSync, long configBytesToSync) {
+      this.configFilesToSync = configFilesToSync;
+      this.configBytesToSync = configBytesToSync;
+    }
+
+    /**
+     * @return the estimated number of rows that will be pulled.
+     */
+    public long getEstimatedRowsToPull() {
+      return fullPull ? FULL_PULL_ROW_ESTIMATE : changeSetsToPull * CHANGE_SET_ROW_ESTIMATE;
+    }
+
+    /**
+     * @return the cost of the table-level file sync.
+     */
+    public long getConfigCost() {
+      return configFilesToSync * FILE_COST + configBytesToSync / BYTES_PER_UNIT_COST;
+    }
+
+    /**
+     * @return the cost of the row data and attachment sync.
+     */
+    public long getRowDataCost() {
+      return rowsToPush + getEstimatedRowsToPull() + rowsWithPendingAttachments * FILE_COST;
+    }
+
+    public long getCost() {
+      return getConfigCost() + getRowDataCost();
+    }
+
+    @Override public String toString() {
+      return tableId + ": push " + rowsToPush + " rows, pull "
+          + (fullPull ? "all rows" : (changeSetsToPull + " change sets")) + ", "
+          + rowsWithPendingAttachments + " rows with pending attachments, "
+          + configFilesToSync + " config files (" + configBytesToSync + " bytes), cost "
+          + getCost();
+    }
+  }
+
+  private long appLevelFilesToSync = 0L;
+  private long appLevelBytesToSync = 0L;
+  private final Map<String, TableEstimate> tableEstimates = new LinkedHashMap<String, TableEstimate>();
+
+  public void setAppLevelFilesToSync(long appLevelFilesToSync, long appLevelBytesToSync) {
+    this.appLevelFilesToSync = appLevelFilesToSync;
+    this.appLevelBytesToSync = appLevelBytesToSync;
+  }
+
+  public long getAppLevelFilesToSync() {
+    return appLevelFilesToSync;
+  }
+
+  public long getAppLevelBytesToSync() {
+    return appLevelBytesToSync;
+  }
+
+  public long getAppLevelCost() {
+    return appLevelFilesToSync * FILE_COST + appLevelBytesToSync / BYTES_PER_UNIT_COST;
+  }
+
+  public void addTableEstimate(TableEstimate estimate) {
+    tableEstimates.put(estimate.getTableId(), estimate);
+  }
+
+  /**
+   * @param tableId
+   * @return the estimate for the table, or null if it was not planned.
+   */
+  public TableEstimate getTableEstimate(String tableId) {
+    return tableEstimates.get(tableId);
+  }
+
+  public Collection<TableEstimate> getTableEstimates() {
+    return Collections.unmodifiableCollection(tableEstimates.values());
+  }
+
+  public long getTotalCost() {
+    long cost = getAppLevelCost();
+    for (TableEstimate estimate : tableEstimates.values()) {
+      cost += estimate.getCost();
+    }
+    return cost;
+  }
+
+  public List<String> describe() {
+    List<String> lines = new ArrayList<String>();
+    lines.add("app-level: " + appLevelFilesToSync + " files (" + appLevelBytesToSync
+        + " bytes), total cost " + getTotalCost());
+    for (TableEstimate estimate : tableEstimates.values()) {
+      lines.add(estimate.toString());
+    }
+    return lines;
+  }
+}
@@ -36,6 +36,17 @@ import java.util.List;
  */
 public class SyncRow {
   private static final List<String> emptyUriFragmentsList = Collections.unmodifiableList(new ArrayList<String>());
+
+  /**
+   * The order of the values of a SyncRow: by column (elementKey).
+   */
+  private static final Comparator<DataKeyValue> VALUE_ORDER = new Comparator<DataKeyValue>() {
+
+    @Override
+    public int compare(DataKeyValue arg0, DataKeyValue arg1) {
+      return arg0.column.compareTo(arg1.column);
+    }
+  };
   
   private String rowId;
   private String rowETag;
@@ -88,6 +99,19 @@ public class SyncRow {
       final String formId, final String locale, final String savepointType,
       final String savepointTimestamp, final String savepointCreator, final Scope filterScope,
       final ArrayList<DataKeyValue> values, final ArrayList<ColumnDefinition> fileAttachmentColumns) {
+    this(rowId, rowETag, deleted, formId, locale, savepointType, savepointTimestamp,
+        savepointCreator, filterScope, values, fileAttachmentColumns, false);
+  }
+
+  /**
+   * @param valuesAreOrdered true if values are already sorted by column
+   *                         (see {@link Converter}).
+   */
+  private SyncRow(final String rowId, final String rowETag, final boolean deleted,
+      final String formId, final String locale, final String savepointType,
+      final String savepointTimestamp, final String savepointCreator, final Scope filterScope,
+      final ArrayList<DataKeyValue> values, final ArrayList<ColumnDefinition> fileAttachmentColumns,
+      final boolean valuesAreOrdered) {
     this.rowId = rowId;
     this.rowETag = rowETag;
     this.deleted = deleted;
@@ -100,14 +124,9 @@ public class SyncRow {
     if (values == null) {
       this.orderedValues = new ArrayList<DataKeyValue>();
     } else {
-      Collections.sort(values, new Comparator<DataKeyValue>() {
-
-        @Override
-        public int compare(DataKeyValue arg0, DataKeyValue arg1) {
-          return arg0.column.compareTo(arg1.column);
-        }
-      });
-
+      if (!valuesAreOrdered) {
+        Collections.sort(values, VALUE_ORDER);
+      }
       this.orderedValues = values;
     }
     // build up the uriFragments value...
@@ -228,14 +247,7 @@ public class SyncRow {
     if (values == null) {
       this.orderedValues = new ArrayList<DataKeyValue>();
     } else {
-      Collections.sort(values, new Comparator<DataKeyValue>() {
-
-        @Override
-        public int compare(DataKeyValue arg0, DataKeyValue arg1) {
-          return arg0.column.compareTo(arg1.column);
-        }
-      });
-
+      Collections.sort(values, VALUE_ORDER);
       this.orderedValues = values;
     }
   }
@@ -337,27 +349,51 @@ public class SyncRow {
 
   public static final SyncRow convertToSyncRow(OrderedColumns orderedColumns,
       ArrayList<ColumnDefinition> fileAttachmentColumns, Row localRow) {
-    String rowId = localRow.getRowId();
-    String rowETag = localRow.getRawDataOrMetadataByElementKey(DataTableColumns.ROW_ETAG);
+    return new Converter(orderedColumns, fileAttachmentColumns).convert(localRow);
+  }
+
+  /**
+   * Converts the rows of one table to SyncRows. The unit-of-retention
+   * columns are gathered and put in SyncRow value order once, when the
+   * converter is constructed, rather than for every row.
+   */
+  public static final class Converter {
+    private final ArrayList<ColumnDefinition> fileAttachmentColumns;
+    private final String[] orderedElementKeys;
+
+    public Converter(OrderedColumns orderedColumns,
+        ArrayList<ColumnDefinition> fileAttachmentColumns) {
+      this.fileAttachmentColumns = fileAttachmentColumns;
+      ArrayList<String> elementKeys = new ArrayList<String>();
+      for (ColumnDefinition column : orderedColumns.getColumnDefinitions()) {
+        if (column.isUnitOfRetention()) {
+          elementKeys.add(column.getElementKey());
+        }
+      }
+      Collections.sort(elementKeys);
+      this.orderedElementKeys = elementKeys.toArray(new String[elementKeys.size()]);
+    }
 
-    ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>();
-    for (ColumnDefinition column : orderedColumns.getColumnDefinitions()) {
-      if (column.isUnitOfRetention()) {
-        String elementKey = column.getElementKey();
+    public SyncRow convert(Row localRow) {
+      String rowId = localRow.getRowId();
+      String rowETag = localRow.getRawDataOrMetadataByElementKey(DataTableColumns.ROW_ETAG);
+
+      ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>(orderedElementKeys.length);
+      for (String elementKey : orderedElementKeys) {
         values.add(new DataKeyValue(elementKey, localRow
             .getRawDataOrMetadataByElementKey(elementKey)));
       }
-    }
 
-    SyncRow syncRow = new SyncRow(rowId, rowETag, false,
-        localRow.getRawDataOrMetadataByElementKey(DataTableColumns.FORM_ID),
-        localRow.getRawDataOrMetadataByElementKey(DataTableColumns.LOCALE),
-        localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SAVEPOINT_TYPE),
-        localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SAVEPOINT_TIMESTAMP),
-        localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SAVEPOINT_CREATOR),
-        Scope.asScope(localRow.getRawDataOrMetadataByElementKey(DataTableColumns.FILTER_TYPE),
-            localRow.getRawDataOrMetadataByElementKey(DataTableColumns.FILTER_VALUE)), values,
-        fileAttachmentColumns);
-    return syncRow;
+      SyncRow syncRow = new SyncRow(rowId, rowETag, false,
+          localRow.getRawDataOrMetadataByElementKey(DataTableColumns.FORM_ID),
+          localRow.getRawDataOrMetadataByElementKey(DataTableColumns.LOCALE),
+          localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SAVEPOINT_TYPE),
+          localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SAVEPOINT_TIMESTAMP),
+          localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SAVEPOINT_CREATOR),
+          Scope.asScope(localRow.getRawDataOrMetadataByElementKey(DataTableColumns.FILTER_TYPE),
+              localRow.getRawDataOrMetadataByElementKey(DataTableColumns.FILTER_VALUE)), values,
+          fileAttachmentColumns, true);
+      return syncRow;
+    }
   }
 }
@@ -94,7 +94,20 @@ public class HttpRestProtocolWrapper {
   private CloseableHttpClient httpClient = null;
   private CloseableHttpClient httpAuthClient = null;
 
-  private HttpContext localContext = null;
+  /**
+   * The HttpContext holds the authentication state machine, so it cannot be
+   * shared across threads. Each thread that issues requests (e.g., each table
+   * being concurrently sync'd) gets its own context. These share the same
+   * cookie store and credentials provider.
+   */
+  private final ThreadLocal<HttpContext> localContext = new ThreadLocal<HttpContext>() {
+    @Override protected HttpContext initialValue() {
+      HttpContext context = new BasicHttpContext();
+      context.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
+      context.setAttribute(HttpClientContext.CREDS_PROVIDER, credsProvider);
+      return context;
+    }
+  };
   private HttpContext localAuthContext = null;
 
   private CookieStore cookieStore = null;
@@ -640,8 +653,7 @@ public class HttpRestProtocolWrapper {
 
     // Context
     // context holds authentication state machine, so it cannot be
-    // shared across independent activities.
-    localContext = new BasicHttpContext();
+    // shared across independent activities. See localContext.
 
     cookieStore = new BasicCookieStore();
     credsProvider = new BasicCredentialsProvider();
@@ -686,9 +698,6 @@ public class HttpRestProtocolWrapper {
       }
     }
 
-    localContext.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
-    localContext.setAttribute(HttpClientContext.CREDS_PROVIDER, credsProvider);
-
     SocketConfig socketConfig = SocketConfig.copy(SocketConfig.DEFAULT).setSoTimeout(2 * CONNECTION_TIMEOUT).build();
 
     // if possible, bias toward digest auth (may not be in 4.0 beta 2)
@@ -709,9 +718,15 @@ public class HttpRestProtocolWrapper {
             .setCookieSpec(CookieSpecs.DEFAULT)
             .build();
 
+    // the pooling connection manager defaults to 2 connections per route.
+    // Allow one per concurrently-sync'd table.
+    int maxConnections = Math.max(2, sc.getRowSyncParallelism());
+
     httpClient = HttpClientBuilder.create()
             .setDefaultSocketConfig(socketConfig)
-            .setDefaultRequestConfig(requestConfig).build();
+            .setDefaultRequestConfig(requestConfig)
+            .setMaxConnPerRoute(maxConnections)
+            .setMaxConnTotal(maxConnections).build();
 
   }
 
@@ -802,11 +817,7 @@ public class HttpRestProtocolWrapper {
     boolean success = false;
     try {
       try {
-        if (localContext != null) {
-          response = httpClient.execute(request, localContext);
-        } else {
-          response = httpClient.execute(request);
-        }
+        response = httpClient.execute(request, localContext.get());
 
         if (isGoogleAccount && response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
           request.removeHeaders("Authorization");
@@ -814,11 +825,7 @@ public class HttpRestProtocolWrapper {
           request.addHeader("Authorization", "Bearer " + accessToken);
 
           // re-issue the request with new access token
-          if (localContext != null) {
-            response = httpClient.execute(request, localContext);
-          } else {
-            response = httpClient.execute(request);
-          }
+          response = httpClient.execute(request, localContext.get());
         }
       } catch (MalformedURLException e) {
         log.e(LOGTAG, "Bad client config -- malformed URL");
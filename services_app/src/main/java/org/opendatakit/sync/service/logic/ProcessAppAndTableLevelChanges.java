@@ -24,25 +24,43 @@ import org.opendatakit.aggregate.odktables.rest.entity.TableResource;
 import org.opendatakit.aggregate.odktables.rest.entity.TableResourceList;
 import org.opendatakit.common.android.data.ColumnList;
 import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.RawUserTable;
+import org.opendatakit.common.android.data.Row;
 import org.opendatakit.common.android.data.TableDefinitionEntry;
+import org.opendatakit.common.android.database.DatabaseConstants;
+import org.opendatakit.common.android.database.OdkConnectionFactoryInterface;
+import org.opendatakit.common.android.database.OdkConnectionFactorySingleton;
+import org.opendatakit.common.android.database.OdkConnectionInterface;
+import org.opendatakit.common.android.provider.ChoiceListColumns;
 import org.opendatakit.common.android.provider.FormsColumns;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.common.android.utilities.PropertiesFileUtils;
+import org.opendatakit.common.android.utilities.TableMetadataVersionUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.common.android.utilities.WebLoggerIf;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.services.R;
 import org.opendatakit.sync.service.*;
+import org.opendatakit.sync.service.data.SyncPlan;
 import org.opendatakit.sync.service.exceptions.SchemaMismatchException;
 import org.opendatakit.sync.service.logic.Synchronizer.OnTablePropertiesChanged;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Isolate the app-level and table-level synchronization steps
@@ -175,11 +193,15 @@ public class ProcessAppAndTableLevelChanges {
     }
 
     // get the tables on the local device
+    // and all of their definitions
     List<String> localTableIds;
+    Map<String, TableDefinitionEntry> localEntries = new HashMap<String, TableDefinitionEntry>();
+    Map<String, OrderedColumns> localColumns = new HashMap<String, OrderedColumns>();
     OdkDbHandle db = null;
     try {
       db = sc.getDatabase();
       localTableIds = sc.getDatabaseService().getAllTableIds(sc.getAppName(), db);
+      getLocalTableDefinitions(db, localTableIds, localEntries, localColumns);
     } catch (Exception e) {
       sc.setAppLevelSyncOutcome(sc.exceptionEquivalentOutcome(e));
       log.e(TAG,
@@ -231,8 +253,39 @@ public class ProcessAppAndTableLevelChanges {
       // everything from the server.
       int nMajorSyncSteps = 1 + (pushToServer ? 2 * localTableIds.size()
           : (uniqueTableIds.size() + tables.size()));
-      
-      sc.resetMajorSyncSteps(nMajorSyncSteps);
+
+      // estimate the work before transferring anything, and size each major
+      // step's share of the progress bar by its estimated cost.
+      List<String> plannedTableIds = new ArrayList<String>();
+      if (pushToServer) {
+        plannedTableIds.addAll(localTableIds);
+      } else {
+        for (TableResource table : tables) {
+          plannedTableIds.add(table.getTableId());
+        }
+      }
+      SyncPlan plan = new SyncPlanner(sc).plan(plannedTableIds, tables, localEntries,
+          pushToServer, tableList.getAppLevelManifestETag());
+      sc.setSyncPlan(plan);
+
+      long[] sequentialStepWeights = new long[nMajorSyncSteps - plannedTableIds.size()];
+      int step = 0;
+      sequentialStepWeights[step++] = 1L + plan.getAppLevelCost();
+      // table-level files (in the order they are processed below)
+      for (String tableId : plannedTableIds) {
+        sequentialStepWeights[step++] = 1L + plan.getTableEstimate(tableId).getConfigCost();
+      }
+      // local tables to delete (pull only)
+      while (step < sequentialStepWeights.length) {
+        sequentialStepWeights[step++] = 1L;
+      }
+      // row data -- tables may complete in any order, so these are by tableId
+      Map<String, Long> tableStepWeights = new HashMap<String, Long>();
+      for (String tableId : plannedTableIds) {
+        tableStepWeights.put(tableId, 1L + plan.getTableEstimate(tableId).getRowDataCost());
+      }
+
+      sc.resetMajorSyncSteps(sequentialStepWeights, tableStepWeights);
     }
 
     // TODO: fix sync sequence
@@ -296,17 +349,19 @@ public class ProcessAppAndTableLevelChanges {
 
         // do not sync the framework table
         if (!localTableId.equals(FormsColumns.COMMON_BASE_FORM_ID)) {
-          TableDefinitionEntry entry;
-          OrderedColumns orderedDefns;
-          try {
-            db = sc.getDatabase();
-            entry = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, localTableId);
-            orderedDefns = sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, localTableId);
-          } finally {
+          TableDefinitionEntry entry = localEntries.get(localTableId);
+          OrderedColumns orderedDefns = localColumns.get(localTableId);
+          if (entry == null || orderedDefns == null) {
             try {
-              sc.releaseDatabase(db);
+              db = sc.getDatabase();
+              entry = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, localTableId);
+              orderedDefns = sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, localTableId);
             } finally {
-              db = null;
+              try {
+                sc.releaseDatabase(db);
+              } finally {
+                db = null;
+              }
             }
           }
 
@@ -358,106 +413,157 @@ public class ProcessAppAndTableLevelChanges {
       // do not remove the framework table
       localTableIdsToDelete.remove(FormsColumns.COMMON_BASE_FORM_ID);
 
-      boolean firstTime = true;
+      // Tables whose local schemaETag matches the server's need no further
+      // verification. Fetch the definitions of all the others concurrently.
+      List<TableResource> tablesToFetch = new ArrayList<TableResource>();
       for (TableResource table : tables) {
-        if ( !firstTime ) {
-          sc.incMajorSyncStep();
+        TableDefinitionEntry entry = localEntries.get(table.getTableId());
+        if (entry == null || !table.getSchemaETag().equals(entry.getSchemaETag())) {
+          tablesToFetch.add(table);
         }
-        firstTime = false;
+      }
+      ExecutorService executor = null;
+      Map<String, Future<TableDefinitionResource>> definitionFetches = new HashMap<String,
+          Future<TableDefinitionResource>>();
+      int nThreads = Math.min(Math.max(2, sc.getRowSyncParallelism()), tablesToFetch.size());
+      if (nThreads > 1) {
+        executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+          private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+          @Override public Thread newThread(Runnable r) {
+            return new Thread(r, "TableDefinitionFetch-" + threadNumber.getAndIncrement());
+          }
+        });
+        for (final TableResource table : tablesToFetch) {
+          definitionFetches.put(table.getTableId(), executor.submit(new Callable<TableDefinitionResource>() {
+            @Override public TableDefinitionResource call() throws Exception {
+              return sc.getSynchronizer().getTableDefinition(table.getDefinitionUri());
+            }
+          }));
+        }
+      }
 
-        OrderedColumns orderedDefns = null;
+      try {
+        boolean firstTime = true;
+        for (TableResource table : tables) {
+          if ( !firstTime ) {
+            sc.incMajorSyncStep();
+          }
+          firstTime = false;
 
-        String serverTableId = table.getTableId();
+          OrderedColumns orderedDefns = null;
 
-        TableLevelResult tableLevelResult = sc.getTableLevelResult(serverTableId);
+          String serverTableId = table.getTableId();
 
-        boolean doesNotExistLocally = true;
-        boolean isLocalMatch = false;
-        TableDefinitionEntry entry = null;
+          TableLevelResult tableLevelResult = sc.getTableLevelResult(serverTableId);
 
-        if (localTableIds.contains(serverTableId)) {
-          localTableIdsToDelete.remove(serverTableId);
-          doesNotExistLocally = false;
+          boolean doesNotExistLocally = true;
+          boolean isLocalMatch = false;
+          TableDefinitionEntry entry = null;
 
-          sc.updateNotification(SyncProgressState.TABLE_FILES,
-              R.string.sync_verifying_table_schema_on_server, new Object[] { serverTableId },
-              0.0,
-              false);
+          if (localTableIds.contains(serverTableId)) {
+            localTableIdsToDelete.remove(serverTableId);
+            doesNotExistLocally = false;
 
-          // see if the schemaETag matches. If so, we can skip a lot of steps...
-          // no need to verify schema match -- just sync files...
-          try {
-            db = sc.getDatabase();
-            entry = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, serverTableId);
-            orderedDefns = sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, serverTableId);
-            if (table.getSchemaETag().equals(entry.getSchemaETag())) {
-              isLocalMatch = true;
-            }
-          } catch (Exception e) {
-            exception("synchronizeConfigurationAndContent - database exception", serverTableId, e, tableLevelResult);
-            continue;
-          } finally {
-            if ( db != null ) {
+            sc.updateNotification(SyncProgressState.TABLE_FILES,
+                R.string.sync_verifying_table_schema_on_server, new Object[] { serverTableId },
+                0.0,
+                false);
+
+            // see if the schemaETag matches. If so, we can skip a lot of steps...
+            // no need to verify schema match -- just sync files...
+            entry = localEntries.get(serverTableId);
+            orderedDefns = localColumns.get(serverTableId);
+            if (entry == null || orderedDefns == null) {
               try {
-                sc.releaseDatabase(db);
+                db = sc.getDatabase();
+                entry = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, serverTableId);
+                orderedDefns = sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, serverTableId);
+              } catch (Exception e) {
+                exception("synchronizeConfigurationAndContent - database exception", serverTableId, e, tableLevelResult);
+                continue;
               } finally {
-                db = null;
+                if ( db != null ) {
+                  try {
+                    sc.releaseDatabase(db);
+                  } finally {
+                    db = null;
+                  }
+                }
               }
             }
+            if (entry != null && table.getSchemaETag().equals(entry.getSchemaETag())) {
+              isLocalMatch = true;
+            }
           }
-        }
 
-        if (!isLocalMatch) {
-          sc.updateNotification(SyncProgressState.TABLE_FILES,
-              R.string.sync_creating_local_table, new Object[] { serverTableId },
-              0.0,
-              false);
-
-          try {
-            TableDefinitionResource definitionResource = sc.getSynchronizer().getTableDefinition(table
-                .getDefinitionUri());
+          if (!isLocalMatch) {
+            sc.updateNotification(SyncProgressState.TABLE_FILES,
+                R.string.sync_creating_local_table, new Object[] { serverTableId },
+                0.0,
+                false);
 
             try {
-              db = sc.getDatabase();
-              orderedDefns = addTableFromDefinitionResource(db, definitionResource, doesNotExistLocally);
-              // NOTE: get entry after addTableFromDefinitionResource() because that may update tableSchemaETag
-              entry = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, serverTableId);
-            } finally {
-              if (db != null) {
+              TableDefinitionResource definitionResource;
+              Future<TableDefinitionResource> fetch = definitionFetches.get(serverTableId);
+              if (fetch != null) {
                 try {
-                  sc.releaseDatabase(db);
-                } finally {
-                  db = null;
+                  definitionResource = fetch.get();
+                } catch (ExecutionException e) {
+                  Throwable cause = e.getCause();
+                  throw (cause instanceof Exception) ? (Exception) cause : e;
                 }
+              } else {
+                definitionResource = sc.getSynchronizer().getTableDefinition(table
+                    .getDefinitionUri());
               }
+
+              try {
+                db = sc.getDatabase();
+                orderedDefns = addTableFromDefinitionResource(db, definitionResource, doesNotExistLocally);
+                // NOTE: get entry after addTableFromDefinitionResource() because that may update tableSchemaETag
+                entry = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, serverTableId);
+              } finally {
+                if (db != null) {
+                  try {
+                    sc.releaseDatabase(db);
+                  } finally {
+                    db = null;
+                  }
+                }
+              }
+            } catch (Exception e) {
+              exception("synchronizeConfigurationAndContent - exception while verifying table definition",
+                  serverTableId, e, tableLevelResult);
+              continue;
             }
-          } catch (Exception e) {
-            exception("synchronizeConfigurationAndContent - exception while verifying table definition",
-                serverTableId, e, tableLevelResult);
-            continue;
           }
-        }
 
-        // only sync the files if we don't yet have a failure on this tableId
-        if ( tableLevelResult.getSyncOutcome().equals(SyncOutcome.WORKING) ) {
-          // Sync the local media files with the server if the table
-          // existed locally before we attempted downloading it.
-
-          TableResource updatedResource = synchronizeTableConfigurationAndContent(entry,
-              orderedDefns, table, false);
-          if (updatedResource != null) {
-            // there were no errors sync'ing the table-level info.
-            // allow client to sync instance-level data...
-            workingListOfTables.add(updatedResource);
+          // only sync the files if we don't yet have a failure on this tableId
+          if ( tableLevelResult.getSyncOutcome().equals(SyncOutcome.WORKING) ) {
+            // Sync the local media files with the server if the table
+            // existed locally before we attempted downloading it.
+
+            TableResource updatedResource = synchronizeTableConfigurationAndContent(entry,
+                orderedDefns, table, false);
+            if (updatedResource != null) {
+              // there were no errors sync'ing the table-level info.
+              // allow client to sync instance-level data...
+              workingListOfTables.add(updatedResource);
+            }
+            sc.updateNotification(SyncProgressState.TABLE_FILES,
+                R.string.sync_table_level_file_sync_complete, new Object[] { serverTableId }, 100.0,
+                false);
+          } else {
+            // otherwise leave our local configuration. We need to resolve earlier failures first.
+            sc.updateNotification(SyncProgressState.TABLE_FILES,
+                R.string.sync_table_level_sync_failed, new Object[] { serverTableId }, 100.0,
+                false);
           }
-          sc.updateNotification(SyncProgressState.TABLE_FILES,
-              R.string.sync_table_level_file_sync_complete, new Object[] { serverTableId }, 100.0,
-              false);
-        } else {
-          // otherwise leave our local configuration. We need to resolve earlier failures first.
-          sc.updateNotification(SyncProgressState.TABLE_FILES,
-              R.string.sync_table_level_sync_failed, new Object[] { serverTableId }, 100.0,
-              false);
+        }
+      } finally {
+        if (executor != null) {
+          executor.shutdownNow();
         }
       }
       sc.incMajorSyncStep();
@@ -500,6 +606,110 @@ public class ProcessAppAndTableLevelChanges {
     return workingListOfTables;
   }
 
+  /**
+   * Maximum number of choiceListIds bound into a single query.
+   */
+  private static final int CHOICE_LIST_QUERY_BATCH_SIZE = 200;
+
+  /**
+   * Fetch the choiceListJSON of many choice lists with a few queries rather
+   * than one getChoiceList() call apiece.
+   *
+   * @param db
+   * @param choiceListIds
+   * @return map of choiceListId to choiceListJSON. Unknown choiceListIds are absent.
+   * @throws RemoteException
+   */
+  private Map<String, String> getChoiceLists(OdkDbHandle db, List<String> choiceListIds)
+      throws RemoteException {
+    Map<String, String> choiceLists = new HashMap<String, String>();
+    List<String> ids = new ArrayList<String>(new HashSet<String>(choiceListIds));
+    for (int start = 0; start < ids.size(); start += CHOICE_LIST_QUERY_BATCH_SIZE) {
+      List<String> batch = ids.subList(start,
+          Math.min(ids.size(), start + CHOICE_LIST_QUERY_BATCH_SIZE));
+      StringBuilder b = new StringBuilder();
+      b.append("SELECT ").append(ChoiceListColumns.CHOICE_LIST_ID).append(", ")
+          .append(ChoiceListColumns.CHOICE_LIST_JSON).append(" FROM \"")
+          .append(DatabaseConstants.CHOICE_LIST_TABLE_NAME).append("\" WHERE ")
+          .append(ChoiceListColumns.CHOICE_LIST_ID).append(" IN (");
+      for (int i = 0; i < batch.size(); ++i) {
+        b.append((i == 0) ? "?" : ",?");
+      }
+      b.append(")");
+      RawUserTable result = sc.getDatabaseService().arbitraryQuery(sc.getAppName(), db,
+          b.toString(), batch.toArray(new String[batch.size()]));
+      for (int i = 0; i < result.getNumberOfRows(); ++i) {
+        Row row = result.getRowAtIndex(i);
+        String value = row.getRawDataOrMetadataByElementKey(ChoiceListColumns.CHOICE_LIST_JSON);
+        if (value != null && value.trim().length() != 0) {
+          choiceLists.put(row.getRawDataOrMetadataByElementKey(ChoiceListColumns.CHOICE_LIST_ID),
+              value);
+        }
+      }
+    }
+    return choiceLists;
+  }
+
+  /**
+   * Read the table definition entries and user-defined columns of the local
+   * tables through the database service, with the tables read concurrently.
+   *
+   * @param db
+   * @param tableIds the local tableIds to read
+   * @param entries populated with the TableDefinitionEntry of each tableId
+   * @param columns populated with the OrderedColumns of each tableId
+   * @throws RemoteException
+   * @throws InterruptedException
+   * @throws ExecutionException
+   */
+  private void getLocalTableDefinitions(final OdkDbHandle db, List<String> tableIds,
+      Map<String, TableDefinitionEntry> entries, Map<String, OrderedColumns> columns)
+      throws RemoteException, InterruptedException, ExecutionException {
+
+    int nThreads = Math.min(Math.max(2, sc.getRowSyncParallelism()), tableIds.size());
+    if (nThreads <= 1) {
+      for (String tableId : tableIds) {
+        entries.put(tableId,
+            sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, tableId));
+        columns.put(tableId,
+            sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, tableId));
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+      private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+      @Override public Thread newThread(Runnable r) {
+        return new Thread(r, "TableDefinitionRead-" + threadNumber.getAndIncrement());
+      }
+    });
+    try {
+      Map<String, Future<TableDefinitionEntry>> entryReads = new HashMap<String,
+          Future<TableDefinitionEntry>>();
+      Map<String, Future<OrderedColumns>> columnReads = new HashMap<String,
+          Future<OrderedColumns>>();
+      for (final String tableId : tableIds) {
+        entryReads.put(tableId, executor.submit(new Callable<TableDefinitionEntry>() {
+          @Override public TableDefinitionEntry call() throws Exception {
+            return sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, tableId);
+          }
+        }));
+        columnReads.put(tableId, executor.submit(new Callable<OrderedColumns>() {
+          @Override public OrderedColumns call() throws Exception {
+            return sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, tableId);
+          }
+        }));
+      }
+      for (String tableId : tableIds) {
+        entries.put(tableId, entryReads.get(tableId).get());
+        columns.put(tableId, columnReads.get(tableId).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * Synchronize the table represented by the given TableProperties with the
    * cloud.
@@ -649,41 +859,76 @@ public class ProcessAppAndTableLevelChanges {
 
       // write our properties and definitions files.
       // write the current schema and properties set.
+      // This is skipped if the metadata has not changed since we last wrote them.
+      OdkConnectionFactoryInterface factory =
+          OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface();
+      OdkDbHandle versionHandleName = factory.generateInternalUseDbHandle();
+      OdkConnectionInterface versionDb = null;
       try {
         db = sc.getDatabase();
+        // +1 referenceCount if db is returned (non-null)
+        versionDb = factory.getConnection(sc.getAppName(), versionHandleName);
+        TableMetadataVersionUtils versionUtils = new TableMetadataVersionUtils();
         File definitionCsv = new File(ODKFileUtils.getTableDefinitionCsvFile(sc.getAppName(), tableId));
         File propertiesCsv = new File(ODKFileUtils.getTablePropertiesCsvFile(sc.getAppName(), tableId));
-        /**
-         * Since the md5Hash of the file identifies identical properties, ensure
-         * that the list of KVS entries is in alphabetical order.
-         */
-        List<KeyValueStoreEntry> kvsEntries =
-            sc.getDatabaseService().getDBTableMetadata(sc.getAppName(), db, tableId, null, null, null);
-
-        for (int i = 0; i < kvsEntries.size(); i++) {
-          KeyValueStoreEntry entry = kvsEntries.get(i);
+        Long metadataVersion = versionUtils.getMetadataVersion(versionDb, tableId);
+        if (metadataVersion == null || !definitionCsv.exists() || !propertiesCsv.exists() ||
+            !versionUtils.isCsvCurrent(versionDb, tableId)) {
+          /**
+           * Since the md5Hash of the file identifies identical properties, ensure
+           * that the list of KVS entries is in alphabetical order.
+           */
+          List<KeyValueStoreEntry> kvsEntries =
+              sc.getDatabaseService().getDBTableMetadata(sc.getAppName(), db, tableId, null, null, null);
 
           // replace all the choiceList entries with their choiceListJSON
-          if (entry.partition.equals(KeyValueStoreConstants.PARTITION_COLUMN) && entry.key
-              .equals(KeyValueStoreConstants.COLUMN_DISPLAY_CHOICES_LIST)) {
-            // exported type is an array -- the choiceListJSON
-            entry.type = ElementDataType.array.name();
-            if ((entry.value != null) && (entry.value.trim().length() != 0)) {
-              String choiceListJSON =
-                  sc.getDatabaseService().getChoiceList(sc.getAppName(), db, entry.value);
-              entry.value = choiceListJSON;
-            } else {
-              entry.value = null;
+          List<String> choiceListIds = new ArrayList<String>();
+          for (KeyValueStoreEntry entry : kvsEntries) {
+            if (entry.partition.equals(KeyValueStoreConstants.PARTITION_COLUMN) && entry.key
+                .equals(KeyValueStoreConstants.COLUMN_DISPLAY_CHOICES_LIST) &&
+                (entry.value != null) && (entry.value.trim().length() != 0)) {
+              choiceListIds.add(entry.value);
             }
           }
-        }
+          Map<String, String> choiceLists = getChoiceLists(db, choiceListIds);
+
+          for (int i = 0; i < kvsEntries.size(); i++) {
+            KeyValueStoreEntry entry = kvsEntries.get(i);
+
+            if (entry.partition.equals(KeyValueStoreConstants.PARTITION_COLUMN) && entry.key
+                .equals(KeyValueStoreConstants.COLUMN_DISPLAY_CHOICES_LIST)) {
+              // exported type is an array -- the choiceListJSON
+              entry.type = ElementDataType.array.name();
+              if ((entry.value != null) && (entry.value.trim().length() != 0)) {
+                entry.value = choiceLists.get(entry.value);
+              } else {
+                entry.value = null;
+              }
+            }
+          }
+
+          PropertiesFileUtils
+              .writePropertiesIntoCsv(sc.getAppName(), tableId, orderedDefns, kvsEntries,
+                  definitionCsv, propertiesCsv);
 
-        PropertiesFileUtils
-            .writePropertiesIntoCsv(sc.getAppName(), tableId, orderedDefns, kvsEntries,
-                definitionCsv, propertiesCsv);
+          if (metadataVersion != null) {
+            versionUtils.setCsvMetadataVersion(versionDb, tableId, metadataVersion);
+          }
+        }
       } finally {
-        sc.releaseDatabase(db);
-        db = null;
+        try {
+          sc.releaseDatabase(db);
+          db = null;
+        } finally {
+          if (versionDb != null) {
+            try {
+              versionDb.releaseReference();
+            } finally {
+              // this closes the connection
+              factory.removeConnection(sc.getAppName(), versionHandleName);
+            }
+          }
+        }
       }
 
       try {
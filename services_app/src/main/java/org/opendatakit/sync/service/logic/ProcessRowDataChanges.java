@@ -34,11 +34,18 @@ import org.opendatakit.aggregate.odktables.rest.entity.Scope;
 import org.opendatakit.aggregate.odktables.rest.entity.TableResource;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.RawUserTable;
 import org.opendatakit.common.android.data.Row;
 import org.opendatakit.common.android.data.TableDefinitionEntry;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.database.OdkConnectionFactoryInterface;
+import org.opendatakit.common.android.database.OdkConnectionFactorySingleton;
+import org.opendatakit.common.android.database.OdkConnectionInterface;
 import org.opendatakit.common.android.provider.FormsColumns;
+import org.opendatakit.common.android.utilities.ODKDatabaseImplUtils;
+import org.opendatakit.common.android.utilities.TableChangeCounterUtils;
+import org.opendatakit.common.android.utilities.TableChangeNotifier;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.common.android.utilities.WebLoggerIf;
 import org.opendatakit.database.service.OdkDbHandle;
@@ -68,6 +75,8 @@ public class ProcessRowDataChanges {
   private static final String TAG = ProcessRowDataChanges.class.getSimpleName();
 
   private static final int UPSERT_BATCH_SIZE = 500;
+  static final String[] ALTERED_SYNC_STATES = { SyncState.new_row.name(),
+      SyncState.changed.name(), SyncState.deleted.name() };
   private static final int ROWS_BETWEEN_PROGRESS_UPDATES = 10;
   private static final ObjectMapper mapper;
 
@@ -164,33 +173,45 @@ public class ProcessRowDataChanges {
       SyncAttachmentState attachmentState) throws RemoteException {
     log.i(TAG, "entered synchronize()");
 
-    OdkDbHandle db = null;
-
-    // we can assume that all the local table properties should
-    // sync with the server.
-    for (TableResource tableResource : workingListOfTables) {
-      // Sync the local media files with the server if the table
-      // existed locally before we attempted downloading it.
+    RowDataSyncScheduler scheduler = new RowDataSyncScheduler(sc, sc.getRowSyncParallelism());
+    scheduler.synchronizeDataRowsAndAttachments(workingListOfTables, attachmentState);
+  }
 
-      String tableId = tableResource.getTableId();
-      TableDefinitionEntry te;
-      OrderedColumns orderedDefns;
-      String displayName;
-      try {
-        db = sc.getDatabase();
-        te = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db, 
-            tableId);
-        orderedDefns = sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, tableId);
-        displayName = sc.getTableDisplayName(tableId);
-      } finally {
-        sc.releaseDatabase(db);
-        db = null;
-      }
+  /**
+   * Synchronize the data rows and attachments of a single table.
+   * <p>
+   * The per-table progress counters are held in this object, so
+   * concurrently-sync'd tables must each use their own ProcessRowDataChanges
+   * instance. All database writes are made while holding the
+   * SyncExecutionContext's database writer lock.
+   *
+   * @param tableResource
+   * @param attachmentState
+   * @throws RemoteException
+   */
+  void synchronizeTable(TableResource tableResource, SyncAttachmentState attachmentState)
+      throws RemoteException {
+    // Sync the local media files with the server if the table
+    // existed locally before we attempted downloading it.
 
-      synchronizeTableDataRowsAndAttachments(tableResource, te, orderedDefns, displayName,
-          attachmentState);
-      sc.incMajorSyncStep();
+    OdkDbHandle db = null;
+    String tableId = tableResource.getTableId();
+    TableDefinitionEntry te;
+    OrderedColumns orderedDefns;
+    String displayName;
+    try {
+      db = sc.getDatabase();
+      te = sc.getDatabaseService().getTableDefinitionEntry(sc.getAppName(), db,
+          tableId);
+      orderedDefns = sc.getDatabaseService().getUserDefinedColumns(sc.getAppName(), db, tableId);
+      displayName = sc.getTableDisplayName(tableId);
+    } finally {
+      sc.releaseDatabase(db);
+      db = null;
     }
+
+    synchronizeTableDataRowsAndAttachments(tableResource, te, orderedDefns, displayName,
+        attachmentState);
   }
 
   /**
@@ -211,7 +232,7 @@ public class ProcessRowDataChanges {
   private UserTable updateLocalRowsFromServerChanges(TableResource tableResource,
       TableDefinitionEntry te, OrderedColumns orderedColumns, String displayName,
       SyncAttachmentState attachmentState, ArrayList<ColumnDefinition> fileAttachmentColumns,
-      UserTable localDataTable, RowResourceList rows)
+      SyncRow.Converter syncRowConverter, UserTable localDataTable, RowResourceList rows)
       throws IOException, RemoteException
   {
     String tableId = tableResource.getTableId();
@@ -316,8 +337,7 @@ public class ProcessRowDataChanges {
         // but those are dealt with separately.
 
         if (serverRow.isDeleted()) {
-          rowsToDeleteLocally.add(new SyncRowDataChanges(serverRow, SyncRow.convertToSyncRow(
-              orderedColumns, fileAttachmentColumns, localRow),
+          rowsToDeleteLocally.add(new SyncRowDataChanges(serverRow, syncRowConverter.convert(localRow),
               (state == SyncState.synced_pending_files)));
         } else {
           // When a prior sync ends with conflicts, we will not update the table's "lastDataETag"
@@ -328,14 +348,12 @@ public class ProcessRowDataChanges {
           // applied (for the rows were not in conflict). Detect and ignore these already-
           // processed changes by testing for the server and device having identical field values.
           //
-          SyncRowDataChanges syncRow = new SyncRowDataChanges(serverRow, SyncRow.convertToSyncRow(
-                  orderedColumns, fileAttachmentColumns, localRow), false, ConflictType.LOCAL_UPDATED_UPDATED_VALUES);
+          SyncRowDataChanges syncRow = new SyncRowDataChanges(serverRow, syncRowConverter.convert(localRow), false, ConflictType.LOCAL_UPDATED_UPDATED_VALUES);
 
           if (!syncRow.identicalValues(orderedColumns)) {
             // Only add a local-update if the server and device rows have different values.
             //
-            rowsToUpdateLocally.add(new SyncRowDataChanges(serverRow, SyncRow.convertToSyncRow(
-                      orderedColumns, fileAttachmentColumns, localRow),
+            rowsToUpdateLocally.add(new SyncRowDataChanges(serverRow, syncRowConverter.convert(localRow),
                       (state == SyncState.synced_pending_files)));
           }
         }
@@ -353,8 +371,7 @@ public class ProcessRowDataChanges {
         // no need to worry about server in_conflict records.
         // any server in_conflict rows will be deleted during the delete
         // step
-        rowsToDeleteLocally.add(new SyncRowDataChanges(serverRow, SyncRow.convertToSyncRow(
-            orderedColumns, fileAttachmentColumns, localRow), false));
+        rowsToDeleteLocally.add(new SyncRowDataChanges(serverRow, syncRowConverter.convert(localRow), false));
       } else {
         // SyncState.deleted and server is not deleting
         // SyncState.new_row and record exists on server
@@ -427,15 +444,13 @@ public class ProcessRowDataChanges {
         } else {
           throw new IllegalStateException("Unexpected state encountered");
         }
-        SyncRowDataChanges syncRow = new SyncRowDataChanges(serverRow, SyncRow.convertToSyncRow(
-            orderedColumns, fileAttachmentColumns, localRow), false, localRowConflictType);
+        SyncRowDataChanges syncRow = new SyncRowDataChanges(serverRow, syncRowConverter.convert(localRow), false, localRowConflictType);
 
         if (!syncRow.identicalValues(orderedColumns)) {
           if (syncRow.identicalValuesExceptRowETagAndFilterScope(orderedColumns)) {
             // just apply the server RowETag and filterScope to the
             // local row
-            rowsToUpdateLocally.add(new SyncRowDataChanges(serverRow, SyncRow.convertToSyncRow(
-                orderedColumns, fileAttachmentColumns, localRow), true));
+            rowsToUpdateLocally.add(new SyncRowDataChanges(serverRow, syncRowConverter.convert(localRow), true));
           } else {
             rowsToMoveToInConflictLocally.add(syncRow);
           }
@@ -487,23 +502,26 @@ public class ProcessRowDataChanges {
 
         // this will individually move some files to the locally-deleted state
         // if we cannot sync file attachments in those rows.
+        // This accesses the network, so it is done before taking the writer lock.
         pushLocalAttachmentsBeforeDeleteRowsInDb(db, tableResource, rowsToDeleteLocally);
 
-        deleteRowsInDb(db, tableResource, rowsToDeleteLocally, tableLevelResult);
+        synchronized (sc.getDatabaseWriterLock()) {
+          deleteRowsInDb(db, tableResource, rowsToDeleteLocally, tableLevelResult);
 
-        insertRowsInDb(db, tableResource, orderedColumns, rowsToInsertLocally,
-                hasAttachments, tableLevelResult);
+          insertRowsInDb(db, tableResource, orderedColumns, rowsToInsertLocally,
+                  hasAttachments, tableLevelResult);
 
-        updateRowsInDb(db, tableResource, orderedColumns, rowsToUpdateLocally,
-                hasAttachments, tableLevelResult);
+          updateRowsInDb(db, tableResource, orderedColumns, rowsToUpdateLocally,
+                  hasAttachments, tableLevelResult);
 
-        conflictRowsInDb(db, tableResource, orderedColumns, rowsToMoveToInConflictLocally,
-                tableLevelResult);
+          conflictRowsInDb(db, tableResource, orderedColumns, rowsToMoveToInConflictLocally,
+                  tableLevelResult);
 
-        String[] empty = {};
+          String[] empty = {};
 
-        localDataTable = sc.getDatabaseService().rawSqlQuery(sc.getAppName(), db,
-            tableId, orderedColumns, null, empty, empty, null, DataTableColumns.ID, "ASC");
+          localDataTable = sc.getDatabaseService().rawSqlQuery(sc.getAppName(), db,
+              tableId, orderedColumns, null, empty, empty, null, DataTableColumns.ID, "ASC");
+        }
 
         // TODO: fix this for synced_pending_files
         // We likely need to relax this constraint on the
@@ -520,16 +538,144 @@ public class ProcessRowDataChanges {
     return localDataTable;
   }
 
-  private int countRowToSyncFileAttachments(ArrayList<ColumnDefinition> fileAttachmentColumns,
-                                            SyncState state) {
-    if (state == SyncState.in_conflict) {
-      if ( !fileAttachmentColumns.isEmpty() ) {
-        return 1;
+  /**
+   * Count the local rows in each sync state.
+   *
+   * @param sc
+   * @param tableId
+   * @return map of sync state name to the number of rows in that state.
+   * @throws RemoteException
+   */
+  static Map<String, Integer> countRowsBySyncState(SyncExecutionContext sc, String tableId)
+      throws RemoteException {
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    OdkDbHandle db = null;
+    try {
+      db = sc.getDatabase();
+      RawUserTable result = sc.getDatabaseService().arbitraryQuery(sc.getAppName(), db,
+          "SELECT " + DataTableColumns.SYNC_STATE + ", COUNT(*) AS cnt FROM \"" + tableId
+              + "\" GROUP BY " + DataTableColumns.SYNC_STATE, null);
+      for (int i = 0; i < result.getNumberOfRows(); ++i) {
+        Row row = result.getRowAtIndex(i);
+        String state = row.getRawDataOrMetadataByElementKey(DataTableColumns.SYNC_STATE);
+        String cnt = row.getRawDataOrMetadataByElementKey("cnt");
+        if (state != null && cnt != null) {
+          counts.put(state, Integer.valueOf(cnt));
+        }
       }
-    } else if (state == SyncState.synced_pending_files) {
-      return 1;
+    } finally {
+      sc.releaseDatabase(db);
+      db = null;
+    }
+    return counts;
+  }
+
+  static int getSyncStateCount(Map<String, Integer> syncStateCounts, String state) {
+    Integer count = syncStateCounts.get(state);
+    return (count == null) ? 0 : count;
+  }
+
+  /**
+   * Fetch the next UPSERT_BATCH_SIZE rows (ordered by rowId) that are in one of
+   * the given sync states. The rawSqlQuery interface has no limit clause, so the
+   * slice is selected with a subquery on the (_sync_state, _id) index.
+   *
+   * @param tableId
+   * @param orderedColumns
+   * @param syncStates
+   * @param lastRowId rows with rowIds after this one are returned.
+   * @return the slice; empty when there are no more.
+   * @throws RemoteException
+   */
+  private UserTable getNextRowsInSyncStates(String tableId, OrderedColumns orderedColumns,
+      String[] syncStates, String lastRowId) throws RemoteException {
+    StringBuilder inStates = new StringBuilder("(");
+    for (int i = 0; i < syncStates.length; ++i) {
+      inStates.append((i == 0) ? "?" : ",?");
+    }
+    inStates.append(")");
+    String whereClause = DataTableColumns.SYNC_STATE + " IN " + inStates + " AND "
+        + DataTableColumns.ID + " IN (SELECT " + DataTableColumns.ID + " FROM \"" + tableId
+        + "\" WHERE " + DataTableColumns.SYNC_STATE + " IN " + inStates + " AND "
+        + DataTableColumns.ID + " > ? ORDER BY " + DataTableColumns.ID + " ASC LIMIT "
+        + UPSERT_BATCH_SIZE + ")";
+    String[] bindArgs = new String[2 * syncStates.length + 1];
+    for (int i = 0; i < syncStates.length; ++i) {
+      bindArgs[i] = syncStates[i];
+      bindArgs[syncStates.length + i] = syncStates[i];
+    }
+    bindArgs[bindArgs.length - 1] = lastRowId;
+
+    OdkDbHandle db = null;
+    try {
+      db = sc.getDatabase();
+      String[] empty = {};
+      return sc.getDatabaseService().rawSqlQuery(sc.getAppName(), db, tableId, orderedColumns,
+          whereClause, bindArgs, empty, null, DataTableColumns.ID, "ASC");
+    } finally {
+      sc.releaseDatabase(db);
+      db = null;
     }
-    return 0;
+  }
+
+  /**
+   * Fetch the next UPSERT_BATCH_SIZE rows (ordered by rowId) whose file
+   * attachments need to be sync'd.
+   *
+   * @param tableId
+   * @param orderedColumns
+   * @param syncRowConverter
+   * @param fileAttachmentColumns
+   * @param syncStates the sync states of the rows to sync attachments for.
+   * @param lastRowId rows with rowIds after this one are returned.
+   * @return the slice; empty when there are no more.
+   * @throws RemoteException
+   */
+  private List<SyncRowPending> getNextRowsToSyncFileAttachments(String tableId,
+      OrderedColumns orderedColumns, SyncRow.Converter syncRowConverter,
+      ArrayList<ColumnDefinition> fileAttachmentColumns, String[] syncStates,
+      String lastRowId) throws RemoteException {
+    UserTable slice = getNextRowsInSyncStates(tableId, orderedColumns, syncStates, lastRowId);
+
+    List<SyncRowPending> rowsToSyncFileAttachments = new ArrayList<SyncRowPending>();
+    for (int i = 0; i < slice.getNumberOfRows(); ++i) {
+      Row localRow = slice.getRowAtIndex(i);
+      String stateStr = localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SYNC_STATE);
+      SyncState state = (stateStr == null) ? null : SyncState.valueOf(stateStr);
+      perhapsAddToRowsToSyncFileAttachments(rowsToSyncFileAttachments, syncRowConverter,
+          fileAttachmentColumns, localRow, state);
+    }
+    return rowsToSyncFileAttachments;
+  }
+
+  /**
+   * Fetch the next UPSERT_BATCH_SIZE rows (ordered by rowId) that need to be
+   * pushed to the server. The rawSqlQuery interface has no limit clause, so the
+   * slice is selected with a subquery on the (_sync_state, _id) index.
+   *
+   * @param tableId
+   * @param orderedColumns
+   * @param syncRowConverter
+   * @param lastRowId rows with rowIds after this one are returned.
+   * @return the slice, converted to SyncRows; empty when there are no more.
+   * @throws RemoteException
+   */
+  private List<SyncRow> getNextAlteredRows(String tableId, OrderedColumns orderedColumns,
+      SyncRow.Converter syncRowConverter, String lastRowId) throws RemoteException {
+    UserTable slice = getNextRowsInSyncStates(tableId, orderedColumns, ALTERED_SYNC_STATES,
+        lastRowId);
+
+    List<SyncRow> rows = new ArrayList<SyncRow>(slice.getNumberOfRows());
+    for (int i = 0; i < slice.getNumberOfRows(); ++i) {
+      Row localRow = slice.getRowAtIndex(i);
+      SyncRow sRow = syncRowConverter.convert(localRow);
+      if (SyncState.deleted.name().equals(
+          localRow.getRawDataOrMetadataByElementKey(DataTableColumns.SYNC_STATE))) {
+        sRow.setDeleted(true);
+      }
+      rows.add(sRow);
+    }
+    return rows;
   }
 
   /**
@@ -543,7 +689,7 @@ public class ProcessRowDataChanges {
    * @param state
    */
   private void perhapsAddToRowsToSyncFileAttachments(List<SyncRowPending> rowsToSyncFileAttachments,
-                                                      OrderedColumns orderedColumns,
+                                                      SyncRow.Converter syncRowConverter,
                                                       ArrayList<ColumnDefinition> fileAttachmentColumns,
                                                       Row localRow,
                                                       SyncState state) {
@@ -551,14 +697,12 @@ public class ProcessRowDataChanges {
       if ( !fileAttachmentColumns.isEmpty() ) {
         // fetch the file attachments for an in_conflict row but don't delete
         // anything and never update the state to synced (it must stay in in_conflict)
-        rowsToSyncFileAttachments.add(new SyncRowPending(SyncRow.convertToSyncRow(
-                orderedColumns, fileAttachmentColumns, localRow), true, false, false));
+        rowsToSyncFileAttachments.add(new SyncRowPending(syncRowConverter.convert(localRow), true, false, false));
       }
     } else if (state == SyncState.synced_pending_files) {
       // if we succeed in fetching and deleting the local files to match the server
       // then update the state to synced.
-      rowsToSyncFileAttachments.add(new SyncRowPending(SyncRow.convertToSyncRow(
-              orderedColumns, fileAttachmentColumns, localRow), false, true, true));
+      rowsToSyncFileAttachments.add(new SyncRowPending(syncRowConverter.convert(localRow), false, true, true));
     }
   }
 
@@ -596,6 +740,7 @@ public class ProcessRowDataChanges {
         fileAttachmentColumns.add(cd);
       }
     }
+    SyncRow.Converter syncRowConverter = new SyncRow.Converter(orderedColumns, fileAttachmentColumns);
 
     log.i(
         TAG,
@@ -745,7 +890,8 @@ public class ProcessRowDataChanges {
               }
 
               localDataTable = updateLocalRowsFromServerChanges(tableResource, te, orderedColumns,
-                  displayName, attachmentState, fileAttachmentColumns, localDataTable, rows);
+                  displayName, attachmentState, fileAttachmentColumns, syncRowConverter,
+                  localDataTable, rows);
 
               containsConflicts = localDataTable.hasConflictRows();
 
@@ -772,9 +918,11 @@ public class ProcessRowDataChanges {
                     db = sc.getDatabase();
                     // update the dataETag to the one returned by the first
                     // of the fetch queries, above.
-                    sc.getDatabaseService().updateDBTableETags(sc.getAppName(), db, 
-                        tableId,
-                        tableResource.getSchemaETag(), firstDataETag);
+                    synchronized (sc.getDatabaseWriterLock()) {
+                      sc.getDatabaseService().updateDBTableETags(sc.getAppName(), db,
+                          tableId,
+                          tableResource.getSchemaETag(), firstDataETag);
+                    }
                     // the above will throw a RemoteException if the change is not committed
                     // and be sure to update our in-memory objects...
                     te.setSchemaETag(tableResource.getSchemaETag());
@@ -823,29 +971,18 @@ public class ProcessRowDataChanges {
             // localRow SyncState.new_row no changes pulled from server
             // localRow SyncState.changed no changes pulled from server
             // localRow SyncState.deleted no changes pulled from server
-            List<SyncRow> allAlteredRows = new ArrayList<SyncRow>();
-
-            // loop through the localRow table
-            for (int i = 0; i < localDataTable.getNumberOfRows(); i++) {
-              Row localRow = localDataTable.getRowAtIndex(i);
-              String stateStr = localRow
-                  .getRawDataOrMetadataByElementKey(DataTableColumns.SYNC_STATE);
-              SyncState state = (stateStr == null) ? null : SyncState.valueOf(stateStr);
-
-              String rowId = localRow.getRowId();
-
-              // the local row wasn't impacted by a server change
-              // see if this local row should be pushed to the server.
-              if (state == SyncState.new_row || state == SyncState.changed
-                  || state == SyncState.deleted) {
-                SyncRow sRow = SyncRow.convertToSyncRow(orderedColumns, fileAttachmentColumns, localRow);
-                if (state == SyncState.deleted) {
-                  sRow.setDeleted(true);
-                }
-                allAlteredRows.add(sRow);
-              } else {
-                rowsToSyncCount += countRowToSyncFileAttachments(fileAttachmentColumns, state);
-              }
+            // Only the dirty rows are read back from the database. The counts
+            // come from the (indexed) sync state column; the rows themselves
+            // are fetched in UPSERT_BATCH_SIZE slices ordered by rowId.
+            Map<String, Integer> syncStateCounts = countRowsBySyncState(sc, tableId);
+            int alteredRowCount = 0;
+            for (String state : ALTERED_SYNC_STATES) {
+              alteredRowCount += getSyncStateCount(syncStateCounts, state);
+            }
+            rowsToSyncCount += getSyncStateCount(syncStateCounts,
+                SyncState.synced_pending_files.name());
+            if (!fileAttachmentColumns.isEmpty()) {
+              rowsToSyncCount += getSyncStateCount(syncStateCounts, SyncState.in_conflict.name());
             }
 
             // We know the changes for the server. Determine the per-row
@@ -854,7 +991,7 @@ public class ProcessRowDataChanges {
             // only need to update a small portion of that row's files.
             // TODO: Improve size calculations
 
-            int totalChange = allAlteredRows.size() + rowsToSyncCount;
+            int totalChange = alteredRowCount + rowsToSyncCount;
 
             perRowIncrement = 90.0 / ((double) (totalChange + 1));
             rowsProcessed = 0;
@@ -871,7 +1008,7 @@ public class ProcessRowDataChanges {
             // SERVER CHANGES
             // SERVER CHANGES
 
-            if (allAlteredRows.size() != 0) {
+            if (alteredRowCount != 0) {
               tableLevelResult.setHadLocalDataChanges(true);
             }
 
@@ -881,15 +1018,16 @@ public class ProcessRowDataChanges {
 
             ArrayList<RowOutcome> specialCases = new ArrayList<RowOutcome>();
 
-            if (!allAlteredRows.isEmpty()) {
-              int offset = 0;
-              while (offset < allAlteredRows.size()) {
+            if (alteredRowCount != 0) {
+              String lastRowId = "";
+              for (;;) {
                 // alter UPSERT_BATCH_SIZE rows at a time to the server
-                int max = offset + UPSERT_BATCH_SIZE;
-                if (max > allAlteredRows.size()) {
-                  max = allAlteredRows.size();
+                List<SyncRow> segmentAlter = getNextAlteredRows(tableId, orderedColumns,
+                    syncRowConverter, lastRowId);
+                if (segmentAlter.isEmpty()) {
+                  break;
                 }
-                List<SyncRow> segmentAlter = allAlteredRows.subList(offset, max);
+                lastRowId = segmentAlter.get(segmentAlter.size() - 1).getRowId();
 
                 // TODO: not yet handled dataETag change will report SC_CONFLICT outer retry
                 // TODO: ...is an attempt to handle this (inadequate).
@@ -901,10 +1039,13 @@ public class ProcessRowDataChanges {
                 }
 
                 // process outcomes...
-                RowOutcomeSummary outcomeSummary = processRowOutcomes(te, tableResource,
-                    tableLevelResult, orderedColumns,
-                    fileAttachmentColumns, hasAttachments, count,
-                    allAlteredRows.size(), segmentAlter, outcomes.getRows(), specialCases);
+                RowOutcomeSummary outcomeSummary;
+                synchronized (sc.getDatabaseWriterLock()) {
+                  outcomeSummary = processRowOutcomes(te, tableResource,
+                      tableLevelResult, orderedColumns,
+                      fileAttachmentColumns, hasAttachments, count,
+                      alteredRowCount, segmentAlter, outcomes.getRows(), specialCases);
+                }
 
                 count = outcomeSummary.countSoFar;
                 containsConflicts = containsConflicts || outcomeSummary.hasNewConflicts;
@@ -927,9 +1068,11 @@ public class ProcessRowDataChanges {
                     db = sc.getDatabase();
                     // update the dataETag to the one returned by the first
                     // of the fetch queries, above.
-                    sc.getDatabaseService().updateDBTableETags(sc.getAppName(), db, 
-                        tableId,
-                        tableResource.getSchemaETag(), outcomes.getDataETag());
+                    synchronized (sc.getDatabaseWriterLock()) {
+                      sc.getDatabaseService().updateDBTableETags(sc.getAppName(), db,
+                          tableId,
+                          tableResource.getSchemaETag(), outcomes.getDataETag());
+                    }
                     // the above will throw a RemoteException if the changed were not committed.
                     // and be sure to update our in-memory objects...
                     te.setSchemaETag(tableResource.getSchemaETag());
@@ -941,8 +1084,6 @@ public class ProcessRowDataChanges {
                   }
                 }
 
-                // process next segment...
-                offset = max;
               }
             }
 
@@ -970,112 +1111,106 @@ public class ProcessRowDataChanges {
           ////////////////////////////////////////////////////////////////////////////////////////
           //
           // now compute the set of rows that require file attachments to be sync'd.
-          // It is easiest to just re-fetch the localRowTable so...
-          // get all the rows in the data table -- we will iterate through
-          // them all.
-
-          // file attachments we should sync with the server...
-          List<SyncRowPending> rowsToSyncFileAttachments = new ArrayList<SyncRowPending>();
-          {
-            // place localDataTable in this scope so it can be garbage collected...
-            UserTable localDataTable = null;
-            {
-              OdkDbHandle db = null;
-              try {
-                db = sc.getDatabase();
-                String[] empty = {};
-                String[] syncStates = {SyncState.in_conflict.name(), SyncState.synced_pending_files.name()};
-
-                localDataTable = sc.getDatabaseService()
-                        .rawSqlQuery(sc.getAppName(), db, tableId, orderedColumns,
-                                DataTableColumns.SYNC_STATE + " IN (?,?)", syncStates, empty,
-                                null, DataTableColumns.ID, "ASC");
-              } finally {
-                sc.releaseDatabase(db);
-                db = null;
-              }
-            }
-
-            // loop through the localRow table
-            for (int i = 0; i < localDataTable.getNumberOfRows(); i++) {
-              Row localRow = localDataTable.getRowAtIndex(i);
-              String stateStr = localRow
-                      .getRawDataOrMetadataByElementKey(DataTableColumns.SYNC_STATE);
-              SyncState state = (stateStr == null) ? null : SyncState.valueOf(stateStr);
-
-              // the local row wasn't impacted by a server change
-              // see if this local row should be pushed to the server.
-              perhapsAddToRowsToSyncFileAttachments(rowsToSyncFileAttachments, orderedColumns,
-                      fileAttachmentColumns, localRow, state);
-            }
+          // The sync states were updated by the push above, so recount them.
+
+          // file attachments we should sync with the server. Only the rows in
+          // the synced_pending_files state (and, for tables with file
+          // attachment columns, the in_conflict state) are read, in
+          // UPSERT_BATCH_SIZE slices ordered by rowId.
+          String[] attachmentSyncStates;
+          if (fileAttachmentColumns.isEmpty()) {
+            attachmentSyncStates = new String[] { SyncState.synced_pending_files.name() };
+          } else {
+            attachmentSyncStates = new String[] { SyncState.synced_pending_files.name(),
+                SyncState.in_conflict.name() };
+          }
+          Map<String, Integer> attachmentStateCounts = countRowsBySyncState(sc, tableId);
+          int attachmentRowCount = 0;
+          for (String state : attachmentSyncStates) {
+            attachmentRowCount += getSyncStateCount(attachmentStateCounts, state);
           }
 
-          attachmentSyncSuccessful = (rowsToSyncFileAttachments.isEmpty());
+          attachmentSyncSuccessful = (attachmentRowCount == 0);
           // And try to push the file attachments...
           int count = 0;
           boolean attachmentSyncFailed = false;
           SyncOutcome tableLevelSyncOutcome = SyncOutcome.WORKING;
           try {
-            for (SyncRowPending syncRowPending : rowsToSyncFileAttachments) {
-              try {
-                boolean outcome = true;
-
-                SyncAttachmentState filteredAttachmentState = (syncRowPending.onlyGetFiles() ?
-                        SyncAttachmentState.DOWNLOAD : attachmentState);
-
-                log.i(TAG, "synchronizeDataRowsAndAttachments beginning processing for " + syncRowPending.getRowId());
-
-                outcome = manifestProcessor.syncRowLevelFileAttachments(
-                        tableResource.getInstanceFilesUri(), tableId, syncRowPending, filteredAttachmentState);
-
-                if (outcome) {
-                  if (syncRowPending.updateSyncState()) {
-                    // OK -- we succeeded in putting/getting all attachments
-                    // update our state to the synced state.
-                    OdkDbHandle db = null;
-                    try {
-                      db = sc.getDatabase();
-                      sc.getDatabaseService().updateRowETagAndSyncState(sc.getAppName(), db, tableId,
-                              syncRowPending.getRowId(), syncRowPending.getRowETag(), SyncState.synced.name());
-                    } finally {
-                      sc.releaseDatabase(db);
-                      db = null;
+            String lastRowId = "";
+            while (attachmentRowCount != 0) {
+              List<SyncRowPending> rowsToSyncFileAttachments =
+                  getNextRowsToSyncFileAttachments(tableId, orderedColumns, syncRowConverter,
+                      fileAttachmentColumns, attachmentSyncStates, lastRowId);
+              if (rowsToSyncFileAttachments.isEmpty()) {
+                break;
+              }
+              lastRowId = rowsToSyncFileAttachments.get(rowsToSyncFileAttachments.size() - 1)
+                  .getRowId();
+
+              for (SyncRowPending syncRowPending : rowsToSyncFileAttachments) {
+                try {
+                  boolean outcome = true;
+
+                  SyncAttachmentState filteredAttachmentState = (syncRowPending.onlyGetFiles() ?
+                          SyncAttachmentState.DOWNLOAD : attachmentState);
+
+                  log.i(TAG, "synchronizeDataRowsAndAttachments beginning processing for " + syncRowPending.getRowId());
+
+                  outcome = manifestProcessor.syncRowLevelFileAttachments(
+                          tableResource.getInstanceFilesUri(), tableId, syncRowPending, filteredAttachmentState);
+
+                  if (outcome) {
+                    if (syncRowPending.updateSyncState()) {
+                      // OK -- we succeeded in putting/getting all attachments
+                      // update our state to the synced state.
+                      OdkDbHandle db = null;
+                      try {
+                        db = sc.getDatabase();
+                        synchronized (sc.getDatabaseWriterLock()) {
+                          sc.getDatabaseService().updateRowETagAndSyncState(sc.getAppName(), db,
+                              tableId, syncRowPending.getRowId(), syncRowPending.getRowETag(),
+                              SyncState.synced.name());
+                        }
+                      } finally {
+                        sc.releaseDatabase(db);
+                        db = null;
+                      }
                     }
+                  } else {
+                    outstandingAttachmentsToSync = true;
                   }
-                } else {
-                  outstandingAttachmentsToSync = true;
+                } catch (Throwable e) {
+                  log.printStackTrace(e);
+                  tableLevelSyncOutcome = sc.exceptionEquivalentOutcome(e);
+                  attachmentSyncFailed = true;
+                  log.e(TAG, "[synchronizeTableRest] error synchronizing attachments " + e.toString());
                 }
-              } catch (Throwable e) {
-                log.printStackTrace(e);
-                tableLevelSyncOutcome = sc.exceptionEquivalentOutcome(e);
-                attachmentSyncFailed = true;
-                log.e(TAG, "[synchronizeTableRest] error synchronizing attachments " + e.toString());
-              }
-              tableLevelResult.incLocalAttachmentRetries();
-
-              log.i(TAG, "synchronizeDataRowsAndAttachments completed processing for " + syncRowPending.getRowId());
-
-              ++count;
-              ++rowsProcessed;
-              int idString;
-              switch (attachmentState) {
-                default:
-                case NONE:
-                  idString = R.string.sync_skipping_attachments_server_row;
-                  break;
-                case SYNC:
-                  idString = R.string.sync_syncing_attachments_server_row;
-                  break;
-                case UPLOAD:
-                  idString = R.string.sync_uploading_attachments_server_row;
-                  break;
-                case DOWNLOAD:
-                  idString = R.string.sync_downloading_attachments_server_row;
-                  break;
+                tableLevelResult.incLocalAttachmentRetries();
+
+                log.i(TAG, "synchronizeDataRowsAndAttachments completed processing for " + syncRowPending.getRowId());
+
+                ++count;
+                ++rowsProcessed;
+                int idString;
+                switch (attachmentState) {
+                  default:
+                  case NONE:
+                    idString = R.string.sync_skipping_attachments_server_row;
+                    break;
+                  case SYNC:
+                    idString = R.string.sync_syncing_attachments_server_row;
+                    break;
+                  case UPLOAD:
+                    idString = R.string.sync_uploading_attachments_server_row;
+                    break;
+                  case DOWNLOAD:
+                    idString = R.string.sync_downloading_attachments_server_row;
+                    break;
+                }
+                sc.updateNotification(SyncProgressState.ROWS, idString, new Object[]{tableId, count,
+                                attachmentRowCount}, 10.0 + rowsProcessed * perRowIncrement,
+                        false);
               }
-              sc.updateNotification(SyncProgressState.ROWS, idString, new Object[]{tableId, count,
-                              rowsToSyncFileAttachments.size()}, 10.0 + rowsProcessed * perRowIncrement,
-                      false);
             }
           } catch ( Throwable e) {
             log.printStackTrace(e);
@@ -1106,7 +1241,9 @@ public class ProcessRowDataChanges {
         OdkDbHandle db = null;
         try {
           db = sc.getDatabase();
-          sc.getDatabaseService().updateDBTableLastSyncTime(sc.getAppName(), db, tableId);
+          synchronized (sc.getDatabaseWriterLock()) {
+            sc.getDatabaseService().updateDBTableLastSyncTime(sc.getAppName(), db, tableId);
+          }
         } finally {
           sc.releaseDatabase(db);
           db = null;
@@ -1188,6 +1325,9 @@ public class ProcessRowDataChanges {
       List<SyncRow> segmentAlter, ArrayList<RowOutcome> outcomes, ArrayList<RowOutcome> specialCases) throws RemoteException {
 
     ArrayList<SyncRowDataChanges> rowsToMoveToInConflictLocally = new ArrayList<SyncRowDataChanges>();
+    ArrayList<RowOutcome> successfulDeletes = new ArrayList<RowOutcome>();
+    ArrayList<RowOutcome> successfulUpdates = new ArrayList<RowOutcome>();
+    ArrayList<SyncState> successfulUpdateStates = new ArrayList<SyncState>();
 
     // For speed, do this all within a transaction. Processing is
     // all in-memory except when we are deleting a client row. In that
@@ -1215,20 +1355,17 @@ public class ProcessRowDataChanges {
           if (r.isDeleted()) {
             // DELETE
             // same as a conflict resolution to accept server-side changes
-            sc.getDatabaseService().resolveServerConflictWithDeleteRowWithId(sc
-                .getAppName(), db, resource.getTableId(), r.getRowId());
+            // (applied with the rest of the batch, below)
+            successfulDeletes.add(r);
             // !!Important!! update the rowETag in our copy of this row.
             syncRow.setRowETag(r.getRowETag());
             tableLevelResult.incServerDeletes();
           } else {
             SyncState newSyncState = (hasAttachments && !syncRow.getUriFragments().isEmpty())
                     ? SyncState.synced_pending_files : SyncState.synced;
-           sc.getDatabaseService().updateRowETagAndSyncState(
-                      sc.getAppName(), db,
-                      resource.getTableId(),
-                      r.getRowId(),
-                      r.getRowETag(),
-                      newSyncState.name());
+            // applied with the rest of the batch, below
+            successfulUpdates.add(r);
+            successfulUpdateStates.add(newSyncState);
             // !!Important!! update the rowETag in our copy of this row.
             syncRow.setRowETag(r.getRowETag());
             // UPDATE or INSERT
@@ -1286,6 +1423,9 @@ public class ProcessRowDataChanges {
             * perRowIncrement, false);
       }
 
+      applySuccessfulOutcomes(db, resource.getTableId(), successfulDeletes, successfulUpdates,
+          successfulUpdateStates);
+
       if (badState) {
         // TODO: we could update all the other row state then throw this...
         throw new IllegalStateException(
@@ -1305,6 +1445,95 @@ public class ProcessRowDataChanges {
     return new RowOutcomeSummary(countSoFar, !rowsToMoveToInConflictLocally.isEmpty());
   }
 
+  /**
+   * Apply the successful outcomes of a batch of pushed rows: delete the rows
+   * the server deleted and record the new rowETag and sync state of the
+   * others.
+   * <p>
+   * The outcomes are written through a direct connection within a single
+   * transaction, so the batch costs one commit rather than one per row. If
+   * any of them fails, that transaction is rolled back and the outcomes are
+   * applied one row at a time through the database service, as before, so
+   * that only the failing row is affected.
+   * <p>
+   * The caller must hold the database writer lock.
+   *
+   * @param db
+   * @param tableId
+   * @param deletes       outcomes of rows deleted on the server
+   * @param updates       outcomes of rows inserted or updated on the server
+   * @param updateStates  the new sync state of each of the updates
+   * @throws RemoteException
+   */
+  private void applySuccessfulOutcomes(OdkDbHandle db, String tableId, List<RowOutcome> deletes,
+      List<RowOutcome> updates, List<SyncState> updateStates) throws RemoteException {
+
+    if (deletes.isEmpty() && updates.isEmpty()) {
+      return;
+    }
+
+    String appName = sc.getAppName();
+    OdkConnectionFactoryInterface factory =
+        OdkConnectionFactorySingleton.getOdkConnectionFactoryInterface();
+    OdkDbHandle batchHandleName = factory.generateInternalUseDbHandle();
+    OdkConnectionInterface batchDb = null;
+    boolean applied = false;
+    Long changeCounter = null;
+    try {
+      // +1 referenceCount if db is returned (non-null)
+      batchDb = factory.getConnection(appName, batchHandleName);
+      batchDb.beginTransactionNonExclusive();
+      try {
+        ODKDatabaseImplUtils dbUtil = ODKDatabaseImplUtils.get();
+        for (RowOutcome r : deletes) {
+          dbUtil.resolveServerConflictWithDeleteRowWithId(batchDb, appName, tableId,
+              r.getRowId());
+        }
+        for (int i = 0; i < updates.size(); ++i) {
+          RowOutcome r = updates.get(i);
+          dbUtil.updateRowETagAndSyncState(batchDb, tableId, r.getRowId(), r.getRowETag(),
+              updateStates.get(i));
+        }
+        // the counter as of this commit, for the change notification
+        changeCounter = new TableChangeCounterUtils().getChangeCounter(batchDb, tableId);
+        batchDb.setTransactionSuccessful();
+      } finally {
+        batchDb.endTransaction();
+      }
+      applied = true;
+    } catch (Exception e) {
+      log.w(TAG, "applySuccessfulOutcomes: unable to apply " + (deletes.size() + updates.size())
+          + " outcomes to " + tableId + " in one transaction; applying them row by row: "
+          + e.toString());
+    } finally {
+      if (batchDb != null) {
+        try {
+          batchDb.releaseReference();
+        } finally {
+          // this closes the connection
+          factory.removeConnection(appName, batchHandleName);
+        }
+      }
+    }
+
+    if (applied) {
+      // these writes did not go through the database service; notify its observers here
+      TableChangeNotifier.notifyTableChanged(sc.getApplicationContext(), appName, tableId,
+          changeCounter);
+      return;
+    }
+
+    for (RowOutcome r : deletes) {
+      sc.getDatabaseService().resolveServerConflictWithDeleteRowWithId(appName, db, tableId,
+          r.getRowId());
+    }
+    for (int i = 0; i < updates.size(); ++i) {
+      RowOutcome r = updates.get(i);
+      sc.getDatabaseService().updateRowETagAndSyncState(appName, db, tableId, r.getRowId(),
+          r.getRowETag(), updateStates.get(i).name());
+    }
+  }
+
   /**
    * Delete any pre-existing server conflict records for the list of rows
    * (changes). If the server and local rows are both deletes, delete the local
@@ -1561,9 +1790,12 @@ public class ProcessRowDataChanges {
             // this list. Whenever we next sync files, we will push
             // any local files that are not on the server then delete
             // the local record.
-            sc.getDatabaseService().updateRowETagAndSyncState(sc.getAppName(), db, 
-                resource.getTableId(),
-                change.localRow.getRowId(), change.serverRow.getRowETag(), SyncState.deleted.name());
+            synchronized (sc.getDatabaseWriterLock()) {
+              sc.getDatabaseService().updateRowETagAndSyncState(sc.getAppName(), db,
+                  resource.getTableId(),
+                  change.localRow.getRowId(), change.serverRow.getRowETag(),
+                  SyncState.deleted.name());
+            }
             changes.remove(i);
           }
         }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.sync.service.logic;
+
+import android.os.RemoteException;
+
+import org.opendatakit.aggregate.odktables.rest.entity.TableResource;
+import org.opendatakit.common.android.data.RawUserTable;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.common.android.utilities.WebLoggerIf;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.sync.service.SyncAttachmentState;
+import org.opendatakit.sync.service.SyncExecutionContext;
+import org.opendatakit.sync.service.SyncOutcome;
+import org.opendatakit.sync.service.TableLevelResult;
+import org.opendatakit.sync.service.data.SyncPlan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the row-data sync of the tables in the working list.
+ * <p>
+ * Most of the time spent sync'ing a table's rows is spent waiting on server
+ * round-trips, so up to degreeOfParallelism tables are sync'd concurrently.
+ * Each table is sync'd by its own ProcessRowDataChanges instance, which
+ * isolates its progress counters and TableLevelResult. Database writes are
+ * serialized through the SyncExecutionContext's writer lock.
+ * <p>
+ * Tables are started costliest-first so that the longest table syncs do not
+ * end up at the tail of the schedule. The cost is the SyncPlan's row-data
+ * estimate when a plan was computed, otherwise the local row count.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class RowDataSyncScheduler {
+
+  private static final String TAG = RowDataSyncScheduler.class.getSimpleName();
+
+  private final SyncExecutionContext sc;
+  private final int degreeOfParallelism;
+  private final WebLoggerIf log;
+
+  /**
+   * sum of the per-table elapsed times -- i.e., what a serial sync would have taken
+   */
+  private long serialEquivalentMillis = 0L;
+  /**
+   * elapsed wall-clock time of the entire row-data sync
+   */
+  private long wallClockMillis = 0L;
+
+  /**
+   * Per-table work item. Holds the cost estimate used for ordering and the
+   * timing used for the serial vs. parallel metrics.
+   */
+  private static final class TableTask {
+    final TableResource tableResource;
+    final long estimatedCost;
+    long elapsedMillis = 0L;
+
+    TableTask(TableResource tableResource, long estimatedCost) {
+      this.tableResource = tableResource;
+      this.estimatedCost = estimatedCost;
+    }
+  }
+
+  public RowDataSyncScheduler(SyncExecutionContext sc, int degreeOfParallelism) {
+    if ( degreeOfParallelism < 1 ) {
+      throw new IllegalArgumentException("degreeOfParallelism must be at least 1");
+    }
+    this.sc = sc;
+    this.degreeOfParallelism = degreeOfParallelism;
+    this.log = WebLogger.getLogger(sc.getAppName());
+  }
+
+  /**
+   * @return the sum of the elapsed times of the individual table syncs of the
+   * last run. This is the time a serial sync would have taken.
+   */
+  public long getSerialEquivalentMillis() {
+    return serialEquivalentMillis;
+  }
+
+  /**
+   * @return the elapsed wall-clock time of the last run.
+   */
+  public long getWallClockMillis() {
+    return wallClockMillis;
+  }
+
+  /**
+   * Sync the data rows and attachments of all the tables in the working list.
+   * <p>
+   * A RemoteException while sync'ing one table does not abort the sync of the
+   * other tables. If any table failed with a RemoteException, the first such
+   * exception is rethrown once all tables have been processed. An unchecked
+   * exception indicates a programming error; it is logged and rethrown
+   * immediately, abandoning the tables that have not yet completed.
+   *
+   * @param workingListOfTables
+   * @param attachmentState
+   * @throws RemoteException
+   */
+  public void synchronizeDataRowsAndAttachments(List<TableResource> workingListOfTables,
+      SyncAttachmentState attachmentState) throws RemoteException {
+
+    long startTime = System.currentTimeMillis();
+
+    List<TableTask> tasks = new ArrayList<TableTask>();
+    for (TableResource tableResource : workingListOfTables) {
+      // create the TableLevelResult on this thread so that the worker
+      // threads only ever retrieve existing entries.
+      sc.getTableLevelResult(tableResource.getTableId());
+      tasks.add(new TableTask(tableResource, estimateCost(tableResource.getTableId())));
+    }
+
+    // costliest tables first...
+    Collections.sort(tasks, new Comparator<TableTask>() {
+      @Override public int compare(TableTask lhs, TableTask rhs) {
+        if (lhs.estimatedCost == rhs.estimatedCost) {
+          return 0;
+        }
+        return (lhs.estimatedCost > rhs.estimatedCost) ? -1 : 1;
+      }
+    });
+
+    RemoteException firstFailure = null;
+    int nThreads = Math.min(degreeOfParallelism, tasks.size());
+
+    if (nThreads <= 1) {
+      // do everything on this thread
+      for (TableTask task : tasks) {
+        RemoteException e = runTableTask(task, attachmentState);
+        if (firstFailure == null) {
+          firstFailure = e;
+        }
+      }
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override public Thread newThread(Runnable r) {
+          return new Thread(r, "RowDataSync-" + threadNumber.getAndIncrement());
+        }
+      });
+
+      try {
+        List<Future<RemoteException>> futures = new ArrayList<Future<RemoteException>>();
+        for (final TableTask task : tasks) {
+          final SyncAttachmentState state = attachmentState;
+          futures.add(executor.submit(new Callable<RemoteException>() {
+            @Override public RemoteException call() {
+              return runTableTask(task, state);
+            }
+          }));
+        }
+
+        for (Future<RemoteException> f : futures) {
+          RemoteException e = null;
+          try {
+            e = f.get();
+          } catch (InterruptedException ex) {
+            log.printStackTrace(ex);
+            Thread.currentThread().interrupt();
+            e = new RemoteException("interrupted while waiting for table sync");
+          } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+              throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+              throw (Error) cause;
+            }
+            log.printStackTrace(ex);
+            e = new RemoteException("unexpected failure during table sync: " + ex.toString());
+          }
+          if (firstFailure == null) {
+            firstFailure = e;
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    wallClockMillis = System.currentTimeMillis() - startTime;
+    serialEquivalentMillis = 0L;
+    for (TableTask task : tasks) {
+      serialEquivalentMillis += task.elapsedMillis;
+      log.i(TAG, "table: " + task.tableResource.getTableId() + " estimatedCost: "
+          + task.estimatedCost + " elapsed: " + task.elapsedMillis + " ms");
+    }
+    log.i(TAG, "row data sync of " + tasks.size() + " tables with " + nThreads
+        + " threads -- wall-clock: " + wallClockMillis + " ms serial-equivalent: "
+        + serialEquivalentMillis + " ms speedup: "
+        + ((wallClockMillis == 0L) ? "n/a" :
+        String.format("%.2f", ((double) serialEquivalentMillis) / ((double) wallClockMillis))));
+
+    if (firstFailure != null) {
+      throw firstFailure;
+    }
+  }
+
+  /**
+   * Sync one table. A RemoteException is recorded in that table's
+   * TableLevelResult so that it does not affect the other tables. An
+   * unchecked exception is recorded and rethrown.
+   *
+   * @param task
+   * @param attachmentState
+   * @return null on success, otherwise the RemoteException that was thrown.
+   */
+  private RemoteException runTableTask(TableTask task, SyncAttachmentState attachmentState) {
+    String tableId = task.tableResource.getTableId();
+    long startTime = System.currentTimeMillis();
+    sc.startTableSyncStep(tableId);
+    try {
+      ProcessRowDataChanges rowDataProcessor = new ProcessRowDataChanges(sc);
+      rowDataProcessor.synchronizeTable(task.tableResource, attachmentState);
+      return null;
+    } catch (RemoteException e) {
+      recordFailure(tableId, e);
+      return e;
+    } catch (RuntimeException e) {
+      recordFailure(tableId, e);
+      throw e;
+    } finally {
+      task.elapsedMillis = System.currentTimeMillis() - startTime;
+      sc.completeTableSyncStep(tableId);
+    }
+  }
+
+  private void recordFailure(String tableId, Exception e) {
+    log.e(TAG, "row data sync of table: " + tableId + " failed: " + e.toString());
+    log.printStackTrace(e);
+    TableLevelResult tableLevelResult = sc.getTableLevelResult(tableId);
+    if (tableLevelResult.getSyncOutcome() == SyncOutcome.WORKING) {
+      tableLevelResult.setSyncOutcome(sc.exceptionEquivalentOutcome(e));
+      tableLevelResult.setMessage("exception during row data sync: " + e.toString());
+    }
+  }
+
+  /**
+   * Estimate the work required to sync this table's rows.
+   *
+   * @param tableId
+   * @return the SyncPlan's row-data cost, if there is a plan for this table,
+   * otherwise the local row count.
+   */
+  private long estimateCost(String tableId) {
+    SyncPlan plan = sc.getSyncPlan();
+    SyncPlan.TableEstimate estimate = (plan == null) ? null : plan.getTableEstimate(tableId);
+    if (estimate != null) {
+      return estimate.getRowDataCost();
+    }
+    return estimateRowCount(tableId);
+  }
+
+  /**
+   * Estimate the work required to sync this table by its local row count.
+   *
+   * @param tableId
+   * @return the number of local rows, or 0 if this could not be determined.
+   */
+  private long estimateRowCount(String tableId) {
+    OdkDbHandle db = null;
+    try {
+      db = sc.getDatabase();
+      RawUserTable result = sc.getDatabaseService().arbitraryQuery(sc.getAppName(), db,
+          "SELECT COUNT(*) AS cnt FROM \"" + tableId + "\"", null);
+      if (result.getNumberOfRows() == 1) {
+        String value = result.getRowAtIndex(0).getRawDataOrMetadataByElementKey("cnt");
+        if (value != null) {
+          return Long.parseLong(value);
+        }
+      }
+    } catch (Exception e) {
+      log.w(TAG, "unable to estimate size of table: " + tableId + " " + e.toString());
+    } finally {
+      try {
+        sc.releaseDatabase(db);
+      } catch (RemoteException e) {
+        log.printStackTrace(e);
+      }
+    }
+    return 0L;
+  }
+}
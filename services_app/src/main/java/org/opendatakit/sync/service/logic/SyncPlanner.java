@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.sync.service.logic;
+
+import org.opendatakit.aggregate.odktables.rest.SyncState;
+import org.opendatakit.aggregate.odktables.rest.entity.TableResource;
+import org.opendatakit.common.android.data.TableDefinitionEntry;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.common.android.utilities.WebLoggerIf;
+import org.opendatakit.sync.service.SyncExecutionContext;
+import org.opendatakit.sync.service.data.SyncPlan;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes a SyncPlan -- an estimate of the rows, change sets and files each
+ * table will transfer -- before the file and row sync begins.
+ * <p>
+ * Planning only uses cheap local sources, so that it adds no server requests
+ * and no file hashing to the sync: the sync_state counts, the dataETags and
+ * manifest ETags recorded by the previous sync, and the number and size of
+ * the configuration files that sync left on the device. Nothing is
+ * transferred or written. Any failure while estimating a table is logged and
+ * that part of the estimate is left at zero; the sync itself reports the real
+ * error.
+ *
+ * @author mitchellsundt@gmail.com
+ */
+public class SyncPlanner {
+
+  private static final String TAG = SyncPlanner.class.getSimpleName();
+
+  private final SyncExecutionContext sc;
+  private final WebLoggerIf log;
+
+  public SyncPlanner(SyncExecutionContext sc) {
+    this.sc = sc;
+    this.log = WebLogger.getLogger(sc.getAppName());
+  }
+
+  /**
+   * Estimate the work of the upcoming sync.
+   *
+   * @param tableIds the tables that will be sync'd.
+   * @param serverTables the tables on the server.
+   * @param localEntries the table definition entries of the tables on the device.
+   * @param pushToServer true if the device's configuration is being pushed to the server.
+   * @param serverReportedAppLevelETag
+   * @return the plan
+   */
+  public SyncPlan plan(Collection<String> tableIds, Collection<TableResource> serverTables,
+      Map<String, TableDefinitionEntry> localEntries, boolean pushToServer,
+      String serverReportedAppLevelETag) {
+
+    SyncPlan plan = new SyncPlan();
+
+    String appName = sc.getAppName();
+    if (manifestMayHaveChanged(null, serverReportedAppLevelETag, pushToServer)) {
+      // everything under config/ except the table-level files
+      Set<File> excluded = new HashSet<File>();
+      excluded.add(new File(ODKFileUtils.getTablesFolder(appName)));
+      excluded.add(new File(ODKFileUtils.getAssetsCsvFolder(appName)));
+      excluded.add(new File(ODKFileUtils.getTablesInitializationFile(appName)));
+      long[] filesAndBytes = countFilesUnder(new File(ODKFileUtils.getConfigFolder(appName)),
+          excluded);
+      plan.setAppLevelFilesToSync(filesAndBytes[0], filesAndBytes[1]);
+    }
+
+    Map<String, TableResource> serverTableMap = new HashMap<String, TableResource>();
+    for (TableResource table : serverTables) {
+      serverTableMap.put(table.getTableId(), table);
+    }
+
+    for (String tableId : tableIds) {
+      SyncPlan.TableEstimate estimate = new SyncPlan.TableEstimate(tableId);
+      TableResource serverTable = serverTableMap.get(tableId);
+      TableDefinitionEntry localEntry = localEntries.get(tableId);
+
+      if (localEntry != null) {
+        estimateRowsToPush(estimate);
+      }
+      if (serverTable != null) {
+        estimateRowsToPull(estimate, serverTable, localEntry);
+      }
+      if (manifestMayHaveChanged(tableId,
+          (serverTable == null) ? null : serverTable.getTableLevelManifestETag(), pushToServer)) {
+        long[] filesAndBytes = countFilesUnder(
+            new File(ODKFileUtils.getTablesFolder(appName, tableId)), new HashSet<File>());
+        estimate.setConfigFilesToSync(filesAndBytes[0], filesAndBytes[1]);
+      }
+      plan.addTableEstimate(estimate);
+    }
+
+    for (String line : plan.describe()) {
+      log.i(TAG, line);
+    }
+    return plan;
+  }
+
+  private void estimateRowsToPush(SyncPlan.TableEstimate estimate) {
+    try {
+      Map<String, Integer> syncStateCounts = ProcessRowDataChanges.countRowsBySyncState(sc,
+          estimate.getTableId());
+      long alteredRowCount = 0L;
+      for (String state : ProcessRowDataChanges.ALTERED_SYNC_STATES) {
+        alteredRowCount += ProcessRowDataChanges.getSyncStateCount(syncStateCounts, state);
+      }
+      estimate.setRowsToPush(alteredRowCount);
+      estimate.setRowsWithPendingAttachments(ProcessRowDataChanges.getSyncStateCount(
+          syncStateCounts, SyncState.synced_pending_files.name()));
+    } catch (Exception e) {
+      log.w(TAG, "unable to count local changes of table: " + estimate.getTableId() + " "
+          + e.toString());
+    }
+  }
+
+  private void estimateRowsToPull(SyncPlan.TableEstimate estimate, TableResource serverTable,
+      TableDefinitionEntry localEntry) {
+    String serverDataETag = serverTable.getDataETag();
+    String localDataETag = (localEntry == null) ? null : localEntry.getLastDataETag();
+    if (serverDataETag == null) {
+      // nothing has ever been written to the server table
+      return;
+    }
+    if (serverDataETag.equals(localDataETag)) {
+      return;
+    }
+    if (localDataETag == null) {
+      estimate.setFullPull(true);
+      return;
+    }
+    // the number of change sets is only known once they are fetched
+    estimate.setChangeSetsToPull(1L);
+  }
+
+  /**
+   * The same test the synchronizer applies before fetching a file manifest:
+   * when pulling, a manifest whose ETag matches the one recorded by the
+   * previous sync is skipped; when pushing, it is always compared.
+   *
+   * @param tableId null for the app-level manifest.
+   * @param serverReportedETag
+   * @param pushToServer
+   * @return true if the files may need to be transferred.
+   */
+  private boolean manifestMayHaveChanged(String tableId, String serverReportedETag,
+      boolean pushToServer) {
+    if (pushToServer || serverReportedETag == null) {
+      return true;
+    }
+    try {
+      return !serverReportedETag.equals(sc.getSynchronizer().getManifestSyncETag(tableId));
+    } catch (Exception e) {
+      log.w(TAG, "unable to read manifest ETag of " + ((tableId == null) ? "app" : tableId)
+          + ": " + e.toString());
+      return true;
+    }
+  }
+
+  /**
+   * Count the files under a folder, as left there by the previous sync. This
+   * bounds the files a changed manifest will transfer without hashing them.
+   *
+   * @param baseFolder
+   * @param excluded files and folders to skip.
+   * @return { number of files, number of bytes }
+   */
+  private static long[] countFilesUnder(File baseFolder, Set<File> excluded) {
+    long[] filesAndBytes = { 0L, 0L };
+    LinkedList<File> unexploredDirs = new LinkedList<File>();
+    unexploredDirs.add(baseFolder);
+    while (!unexploredDirs.isEmpty()) {
+      File[] files = unexploredDirs.removeFirst().listFiles();
+      if (files == null) {
+        continue;
+      }
+      for (File f : files) {
+        if (excluded.contains(f)) {
+          continue;
+        }
+        if (f.isDirectory()) {
+          unexploredDirs.add(f);
+        } else {
+          ++filesAndBytes[0];
+          filesAndBytes[1] += f.length();
+        }
+      }
+    }
+    return filesAndBytes;
+  }
+}
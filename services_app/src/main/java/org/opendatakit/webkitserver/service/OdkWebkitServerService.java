@@ -17,12 +17,18 @@ package org.opendatakit.webkitserver.service;
 
 import android.app.Service;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
+import org.opendatakit.common.android.database.AndroidConnectFactory;
+
 import java.io.IOException;
 
+import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.SimpleWebServer;
 
 public class OdkWebkitServerService extends Service {
@@ -38,70 +44,188 @@ public class OdkWebkitServerService extends Service {
     }
   }
 
+  /**
+   * Initial delay before restarting a failed server. Doubles with each
+   * consecutive failure, up to MAX_RESTART_DELAY_MS.
+   */
+  private static final long INITIAL_RESTART_DELAY_MS = 250L;
+  private static final long MAX_RESTART_DELAY_MS = 60000L;
+  /**
+   * Once no clients are bound, the server is stopped after this long without
+   * receiving a request.
+   */
+  private static final long IDLE_SHUTDOWN_MS = 5L * 60L * 1000L;
+
   private SimpleWebServer server = null;
-  private volatile Thread webServer = null;
   private WebkitServiceInterface servInterface;
 
-  @Override
-  public void onCreate() {
-    super.onCreate();
-    servInterface = new WebkitServiceInterface();
+  /**
+   * Restarts and idle checks are posted to this handler, so that no thread
+   * wakes up while the server is healthy and in use.
+   */
+  private HandlerThread lifecycleThread;
+  private Handler lifecycleHandler;
 
-    webServer = new Thread(null, new Runnable() {
-      @Override
-      public void run() {
-        Thread mySelf = Thread.currentThread();
-        int retryCount = 0;
-        for (; webServer == mySelf;) {
-          startServer();
-          try {
-            retryCount++;
-            Thread.sleep(1000);
-            if (retryCount % 60 == 0) {
-              Log.v(LOGTAG, "Sync.Thread.WebServer -- waking to confirm webserver is working");
+  private int boundClients = 0;
+  private int consecutiveFailures = 0;
+  private long lastStartupLatencyMs = -1L;
+
+  private final NanoHTTPD.LifecycleListener failureListener = new NanoHTTPD.LifecycleListener() {
+    @Override
+    public void onServerFailure(final NanoHTTPD failedServer, Exception e) {
+      Log.w(LOGTAG, "webserver failed: " + ((e == null) ? "socket closed" : e.toString()));
+      // this is called on the server's listener thread. Hand off to the
+      // lifecycle thread; stopServer() joins the listener thread while
+      // holding our lock.
+      lifecycleHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (OdkWebkitServerService.this) {
+            if (failedServer != server) {
+              // a stale instance -- ignore it
+              return;
             }
-          } catch (InterruptedException e) {
-            e.printStackTrace();
+            server = null;
+            scheduleRestart();
           }
         }
-        stopServer();
-      }
-    }, "WebServer");
-    webServer.start();
+      });
+    }
+  };
+
+  private final Runnable restartTask = new Runnable() {
+    @Override
+    public void run() {
+      startServer();
+    }
+  };
+
+  private final Runnable idleCheckTask = new Runnable() {
+    @Override
+    public void run() {
+      checkIdle();
+    }
+  };
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    // Used to ensure that the singleton has been initialized properly
+    // (the web server answers data API requests from the database)
+    AndroidConnectFactory.configure();
+    servInterface = new WebkitServiceInterface();
+    lifecycleThread = new HandlerThread("WebServerLifecycle");
+    lifecycleThread.start();
+    lifecycleHandler = new Handler(lifecycleThread.getLooper());
   }
 
   @Override
   public IBinder onBind(Intent intent) {
     possiblyWaitForWebkitServerServiceDebugger();
+    clientBound();
     return servInterface;
   }
 
   @Override
-  public void onDestroy() {
-    Thread tmpThread = webServer;
-    webServer = null;
-    tmpThread.interrupt();
-    try {
-      // give it time to drain...
-      Thread.sleep(200);
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+  public void onRebind(Intent intent) {
+    super.onRebind(intent);
+    clientBound();
+  }
+
+  @Override
+  public boolean onUnbind(Intent intent) {
+    synchronized (this) {
+      --boundClients;
+      if (boundClients <= 0) {
+        boundClients = 0;
+        lifecycleHandler.removeCallbacks(idleCheckTask);
+        lifecycleHandler.postDelayed(idleCheckTask, IDLE_SHUTDOWN_MS);
+      }
     }
+    // we want onRebind() to be called so that the server is restarted
+    // if it was shut down while idle.
+    return true;
+  }
+
+  @Override
+  public void onDestroy() {
+    lifecycleHandler.removeCallbacksAndMessages(null);
+    lifecycleThread.quit();
+    stopServer();
 
     Log.i(LOGTAG, "onTerminate");
     super.onDestroy();
   }
 
+  /**
+   * @return the time taken by the most recent successful server start, or -1
+   * if the server has not yet been started.
+   */
+  public synchronized long getLastStartupLatencyMs() {
+    return lastStartupLatencyMs;
+  }
+
+  /**
+   * The server is started lazily, when the first client binds.
+   */
+  private void clientBound() {
+    synchronized (this) {
+      ++boundClients;
+      lifecycleHandler.removeCallbacks(idleCheckTask);
+    }
+    startServer();
+  }
+
   private synchronized void startServer() {
-    if (server == null || !server.isAlive()) {
+    lifecycleHandler.removeCallbacks(restartTask);
+    if (server != null && server.isAlive()) {
+      return;
+    }
+    stopServer();
+    SimpleWebServer testing = new SimpleWebServer();
+    testing.setLifecycleListener(failureListener);
+    long startTime = SystemClock.elapsedRealtime();
+    try {
+      testing.start();
+      server = testing;
+      consecutiveFailures = 0;
+      lastStartupLatencyMs = SystemClock.elapsedRealtime() - startTime;
+      Log.i(LOGTAG, "webserver started in " + lastStartupLatencyMs + " ms");
+    } catch (IOException e) {
+      Log.w(LOGTAG, "webserver start failed: " + e.toString());
+      scheduleRestart();
+    }
+  }
+
+  /**
+   * Restart the server after an exponentially increasing delay.
+   */
+  private synchronized void scheduleRestart() {
+    long delay = INITIAL_RESTART_DELAY_MS << Math.min(consecutiveFailures, 16);
+    if (delay > MAX_RESTART_DELAY_MS) {
+      delay = MAX_RESTART_DELAY_MS;
+    }
+    ++consecutiveFailures;
+    Log.i(LOGTAG, "webserver restart #" + consecutiveFailures + " in " + delay + " ms");
+    lifecycleHandler.removeCallbacks(restartTask);
+    lifecycleHandler.postDelayed(restartTask, delay);
+  }
+
+  /**
+   * Stop the server if no clients are bound and no request has been received
+   * within the idle period. Otherwise, check again when the idle period
+   * would next expire.
+   */
+  private synchronized void checkIdle() {
+    if (boundClients > 0 || server == null) {
+      return;
+    }
+    long idleFor = System.currentTimeMillis() - server.getLastRequestTime();
+    if (idleFor >= IDLE_SHUTDOWN_MS && server.getOpenConnectionCount() == 0) {
+      Log.i(LOGTAG, "webserver idle for " + idleFor + " ms -- stopping");
       stopServer();
-      SimpleWebServer testing = new SimpleWebServer();
-      try {
-        testing.start();
-        server = testing;
-      } catch (IOException e) {
-        Log.v("Sync.Thread.WebServer", "Exception: " + e.toString());
-      }
+    } else {
+      lifecycleHandler.postDelayed(idleCheckTask, Math.max(IDLE_SHUTDOWN_MS - idleFor, 1000L));
     }
   }
 
@@ -56,15 +56,21 @@ public class AndroidLoggerAdapter extends MarkerIgnoringBase {
     }
 
     private void log(Logger.Level level, String format, Object arg) {
-        logger.print(level, MessageFormatter.format(format, arg).getMessage(), null);
+        if (isEnabled(level)) {
+            logger.print(level, MessageFormatter.format(format, arg).getMessage(), null);
+        }
     }
 
     private void log(Logger.Level level, String format, Object arg1, Object arg2) {
-        logger.print(level, MessageFormatter.format(format, arg1, arg2).getMessage(), null);
+        if (isEnabled(level)) {
+            logger.print(level, MessageFormatter.format(format, arg1, arg2).getMessage(), null);
+        }
     }
 
     private void log(Logger.Level level, String format, Object... arguments) {
-        logger.print(level, MessageFormatter.arrayFormat(format, arguments).getMessage(), null);
+        if (isEnabled(level)) {
+            logger.print(level, MessageFormatter.arrayFormat(format, arguments).getMessage(), null);
+        }
     }
 
     private void log(Logger.Level level, String msg, Throwable t) {
@@ -26,6 +26,7 @@ import android.text.TextUtils;
 import android.util.Log;
 import org.opendatakit.common.android.database.AppNameSharedStateContainer;
 import org.opendatakit.common.android.database.OperationLog;
+import org.opendatakit.common.android.database.QueryProfiler;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 
@@ -43,8 +44,11 @@ import org.sqlite.database.SQLException;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -137,6 +141,9 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
       // True if the statement is read-only.
       public boolean mReadOnly;
 
+      // The cache adaptation window in which the statement was last used.
+      public int mUseWindow = -1;
+
       // True if the statement is in use (currently executing).
       // We need this flag because due to the use of custom functions in triggers, it's
       // possible for SQLite calls to be re-entrant.  Consequently we need to prevent
@@ -571,6 +578,45 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
    private WeakHashMap<SQLiteCursor, Object> mActiveCursors = new
        WeakHashMap<SQLiteCursor, Object>();
 
+   /**
+    * Upper bound on the adaptive size of the prepared statement cache.
+    * The configured maxSqlCacheSize is its initial and minimum size.
+    */
+   private static final int MAX_ADAPTIVE_SQL_CACHE_SIZE = 200;
+
+   /**
+    * Minimum number of cache lookups between adjustments of its size.
+    */
+   private static final int MIN_ADAPTATION_WINDOW = 64;
+
+   /**
+    * Number of CursorWindows kept for reuse by this connection's cursors.
+    */
+   private static final int CURSOR_WINDOW_POOL_SIZE = 2;
+
+   /**
+    * Number of CursorWindows kept for reuse across all connections in the
+    * process. Each window holds its full allocation while pooled, so this
+    * bounds the memory retained however many connections are open.
+    */
+   private static final int MAX_POOLED_CURSOR_WINDOWS = 4;
+
+   /**
+    * Number of CursorWindows currently pooled across all connections.
+    */
+   private static final AtomicInteger sPooledCursorWindowCount = new AtomicInteger(0);
+
+   /**
+    * Number of queries for which the observed rows-per-window is remembered.
+    */
+   private static final int CURSOR_WINDOW_CAPACITY_CACHE_SIZE = 32;
+
+   /**
+    * CursorWindows released by closed cursors and the observed number of
+    * rows that fit in a window for recently-executed queries.
+    */
+   private final CursorWindowPool mCursorWindowPool = new CursorWindowPool();
+
    public SQLiteConnection(SQLiteDatabaseConfiguration configuration,
                              OperationLog recentOperations,
                              DatabaseErrorHandler errorHandler,
@@ -1203,7 +1249,25 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
    public Cursor rawQuery(
        String sql, String[] selectionArgs,
        CancellationSignal cancellationSignal) {
-      return rawQueryImpl(sql, selectionArgs, cancellationSignal);
+      return rawQueryImpl(sql, selectionArgs, cancellationSignal, false);
+   }
+
+   /**
+    * Runs the provided SQL and returns a cursor over the result set. The rows of
+    * the result are not counted up front: moveToFirst(), moveToNext(), etc. only
+    * enumerate the rows needed to fill the cursor window, and getCount() counts
+    * the remaining rows only if they did not all fit in that window.
+    * <p>
+    * Use this when only the first row(s) or the existence of a row is of interest.
+    *
+    * @param sql the SQL query. The SQL string must not be ; terminated
+    * @param selectionArgs You may include ?s in where clause in the query,
+    *     which will be replaced by the values from selectionArgs. The
+    *     values will be bound as Strings.
+    * @return A {@link Cursor} object, which is positioned before the first entry.
+    */
+   public Cursor rawQueryWithDeferredCount(String sql, String[] selectionArgs) {
+      return rawQueryImpl(sql, selectionArgs, null, true);
    }
 
    /**
@@ -1571,6 +1635,9 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
               // and now evict the now-released prepared statements
               mPreparedStatementCache.evictAll();
 
+              // and release any pooled cursor windows
+              mCursorWindowPool.closeAll();
+
               mRecentOperations.tickClose();
               nativeClose(mConnectionPtr);
             } catch ( Throwable t) {
@@ -1874,6 +1941,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
           }
           final int cookie = mRecentOperations
               .beginOperation(mSessionQualifier, "executeImpl", sql, bindArgs);
+          final long startNanos = System.nanoTime();
           try {
              final PreparedStatement statement = mPreparedStatementCache.acquirePreparedStatement(sql);
              try {
@@ -1892,6 +1960,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
              throw t;
           } finally {
              mRecentOperations.endOperation(cookie);
+             profileStatement(sql, bindArgs, startNanos, -1, false, false);
           }
        }
     }
@@ -1921,6 +1990,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
           }
           final int cookie = mRecentOperations
               .beginOperation(mSessionQualifier, "executeForLongImpl", sql, bindArgs);
+          final long startNanos = System.nanoTime();
           try {
              final PreparedStatement statement = mPreparedStatementCache.acquirePreparedStatement(sql);
              try {
@@ -1939,6 +2009,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
              throw t;
           } finally {
              mRecentOperations.endOperation(cookie);
+             profileStatement(sql, bindArgs, startNanos, -1, false, false);
           }
        }
     }
@@ -1968,6 +2039,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
           }
           final int cookie = mRecentOperations
               .beginOperation(mSessionQualifier, "executeForStringImpl", sql, bindArgs);
+          final long startNanos = System.nanoTime();
           try {
              final PreparedStatement statement = mPreparedStatementCache.acquirePreparedStatement(sql);
              try {
@@ -1986,6 +2058,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
              throw t;
           } finally {
              mRecentOperations.endOperation(cookie);
+             profileStatement(sql, bindArgs, startNanos, -1, false, false);
           }
        }
     }
@@ -2016,6 +2089,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
           int changedRows = 0;
           final int cookie = mRecentOperations
               .beginOperation(mSessionQualifier, "executeForChangedRowCountImpl", sql, bindArgs);
+          final long startNanos = System.nanoTime();
           try {
              final PreparedStatement statement = mPreparedStatementCache.acquirePreparedStatement(sql);
              try {
@@ -2035,6 +2109,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
              throw t;
           } finally {
              mRecentOperations.endOperationDeferLogAdditional(cookie, "changedRows=" + changedRows);
+             profileStatement(sql, bindArgs, startNanos, changedRows, false, false);
           }
        }
     }
@@ -2054,7 +2129,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
     */
    private Cursor rawQueryImpl(
        String sql, String[] selectionArgs,
-       CancellationSignal cancellationSignal) {
+       CancellationSignal cancellationSignal, boolean deferCount) {
 
       if (sql == null) {
          throw new IllegalArgumentException("sql must not be null.");
@@ -2111,7 +2186,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
          }
          try {
             SQLiteCursor cursor = new SQLiteCursor(this, info.columnNames, sql, selectionArgs,
-                cancellationSignal);
+                cancellationSignal, deferCount);
             mActiveCursors.put(cursor,this);
             return cursor;
          } catch (RuntimeException ex) {
@@ -2120,6 +2195,45 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
       }
    }
 
+   /**
+    * Obtain a CursorWindow for a cursor on this connection.
+    * A window released by a previous cursor is reused if available.
+    *
+    * @return a cleared CursorWindow
+    */
+   CursorWindow acquireCursorWindow() {
+      return mCursorWindowPool.acquire();
+   }
+
+   /**
+    * Return a CursorWindow to this connection's pool. The caller must not use
+    * the window afterward. If the pool is full, the window is closed.
+    *
+    * @param window
+    */
+   void releaseCursorWindow(CursorWindow window) {
+      mCursorWindowPool.release(window);
+   }
+
+   /**
+    * @param sql
+    * @return the number of rows that fit in a CursorWindow the last time this
+    * query filled one, or 0 if unknown.
+    */
+   int getObservedCursorWindowCapacity(String sql) {
+      return mCursorWindowPool.getCapacity(sql);
+   }
+
+   /**
+    * Remember the number of rows that fit in a full CursorWindow for this query.
+    *
+    * @param sql
+    * @param rowsInWindow
+    */
+   void noteCursorWindowCapacity(String sql, int rowsInWindow) {
+      mCursorWindowPool.noteCapacity(sql, rowsInWindow);
+   }
+
    void releaseCursor(SQLiteCursor cursor) {
       synchronized (mConnectionPtrMutex) {
          mActiveCursors.remove(cursor);
@@ -2152,6 +2266,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
 
           final int cookie = mRecentOperations
               .beginOperation(mSessionQualifier, "executeForLastInsertedRowIdImpl", sql, bindArgs);
+          final long startNanos = System.nanoTime();
           try {
              final PreparedStatement statement = mPreparedStatementCache.acquirePreparedStatement(sql);
              try {
@@ -2170,6 +2285,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
              throw t;
           } finally {
              mRecentOperations.endOperation(cookie);
+             profileStatement(sql, bindArgs, startNanos, -1, false, false);
           }
        }
     }
@@ -2216,6 +2332,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
               }
               final int cookie = mRecentOperations
                   .beginOperation(mSessionQualifier, "executeForCursorWindowImpl", sql, bindArgs);
+              final long startNanos = System.nanoTime();
               try {
                  final PreparedStatement statement = mPreparedStatementCache.acquirePreparedStatement(sql);
                  try {
@@ -2242,6 +2359,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
                  mRecentOperations.endOperationDeferLogAdditional(cookie,
                      "window='" + window + "', startPos=" + startPos + ", actualPos=" + actualPos + ", filledRows=" + filledRows
                          + ", countedRows=" + countedRows);
+                 profileStatement(sql, bindArgs, startNanos, filledRows, true, startPos > 0);
               }
            }
         } finally {
@@ -2249,6 +2367,69 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
         }
     }
 
+   /**
+    * Record the statement in the appName's QueryProfiler and, if it was slow,
+    * capture its query plan.
+    * Caller must hold mConnectionPtrMutex.
+    *
+    * @param sql
+    * @param bindArgs
+    * @param startNanos System.nanoTime() when the statement was started.
+    * @param rows       rows returned or changed; negative if unknown.
+    * @param windowFill true if this filled a cursor window.
+    * @param refill     true if this filled a window other than the query's first.
+    */
+   private void profileStatement(String sql, Object[] bindArgs, long startNanos, int rows,
+       boolean windowFill, boolean refill) {
+      final long elapsedNanos = System.nanoTime() - startNanos;
+      final QueryProfiler profiler = mRecentOperations.getQueryProfiler();
+      if (profiler.record(mSessionQualifier, sql, elapsedNanos, rows, windowFill, refill)) {
+         profiler.recordSlowQuery(mSessionQualifier, sql, elapsedNanos, rows,
+             explainQueryPlan(sql, bindArgs));
+      }
+   }
+
+   /**
+    * Run EXPLAIN QUERY PLAN on a query or DML statement.
+    * Caller must hold mConnectionPtrMutex.
+    *
+    * @param sql
+    * @param bindArgs
+    * @return the detail column of the plan, one step per line; null if the
+    * statement is not a query or DML statement.
+    */
+   private String explainQueryPlan(String sql, Object[] bindArgs) {
+      final int type = DatabaseUtils.getSqlStatementType(sql);
+      if ((type != DatabaseUtils.STATEMENT_SELECT && type != DatabaseUtils.STATEMENT_UPDATE)
+          || mConnectionPtr == 0L) {
+         return null;
+      }
+      // EXPLAIN statements are not cacheable; this will not disturb the statement cache.
+      CursorWindow window = new CursorWindow("explainQueryPlan");
+      PreparedStatement statement = null;
+      try {
+         statement = mPreparedStatementCache.acquirePreparedStatement("EXPLAIN QUERY PLAN " + sql);
+         bindArguments(statement, bindArgs);
+         nativeExecuteForCursorWindow(mConnectionPtr, statement.mStatementPtr, window, 0, 0, false);
+         StringBuilder b = new StringBuilder();
+         for (int i = 0; i < window.getNumRows(); ++i) {
+            if (i != 0) {
+               b.append(" | ");
+            }
+            // the last (4th) column is the human-readable detail
+            b.append(window.getString(i, 3));
+         }
+         return b.toString();
+      } catch (RuntimeException e) {
+         return "unavailable: " + e.toString();
+      } finally {
+         if (statement != null) {
+            mPreparedStatementCache.releasePreparedStatement(statement);
+         }
+         window.close();
+      }
+   }
+
     private void attachCancellationSignal(CancellationSignal cancellationSignal) {
         if (cancellationSignal != null) {
             cancellationSignal.throwIfCanceled();
@@ -2365,8 +2546,12 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
            b.append("preparedStatementCache hitCount: ")
                .append(getPreparedStatementCacheHitCount()).append(" missCount: ")
                .append(getPreparedStatementCacheMissCount()).append(" size: ")
-               .append(getPreparedStatementCacheSize()).append("\n");
+               .append(getPreparedStatementCacheSize()).append(" capacity: ")
+               .append(getPreparedStatementCacheCapacity()).append(" evictionCount: ")
+               .append(getPreparedStatementCacheEvictionCount()).append("\n");
            mPreparedStatementCache.dump(b);
+           mCursorWindowPool.dump(b);
+           SQLiteDebug.dumpCursorWindowStats(b);
         }
     }
 
@@ -2392,6 +2577,14 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
       return mPreparedStatementCache.size();
    }
 
+   public int getPreparedStatementCacheEvictionCount() {
+      return mPreparedStatementCache.evictionCount();
+   }
+
+   public int getPreparedStatementCacheCapacity() {
+      return mPreparedStatementCache.capacity();
+   }
+
     @Override
     public String toString() {
         return "SQLiteConnection: " + mConfiguration.path + " (" + mSessionQualifier + ")";
@@ -2399,27 +2592,243 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
 
    private final PreparedStatementCache mPreparedStatementCache;
 
+   /**
+    * Reusable CursorWindows and per-query window capacities.
+    * Thread-safe: cursors may be closed on any thread.
+    */
+   private final class CursorWindowPool {
+      private final ArrayList<CursorWindow> mWindows = new ArrayList<CursorWindow>();
+      private final LruCache<String, Integer> mCapacities =
+          new LruCache<String, Integer>(CURSOR_WINDOW_CAPACITY_CACHE_SIZE);
+      private boolean mClosed = false;
+
+      synchronized CursorWindow acquire() {
+         if (!mWindows.isEmpty()) {
+            SQLiteDebug.noteWindowAcquired(true);
+            sPooledCursorWindowCount.decrementAndGet();
+            return mWindows.remove(mWindows.size() - 1);
+         }
+         SQLiteDebug.noteWindowAcquired(false);
+         return new CursorWindow(mConfiguration.path);
+      }
+
+      void release(CursorWindow window) {
+         synchronized (this) {
+            if (!mClosed && mWindows.size() < CURSOR_WINDOW_POOL_SIZE) {
+               if (sPooledCursorWindowCount.incrementAndGet() <= MAX_POOLED_CURSOR_WINDOWS) {
+                  window.clear();
+                  mWindows.add(window);
+                  return;
+               }
+               sPooledCursorWindowCount.decrementAndGet();
+            }
+         }
+         window.close();
+      }
+
+      void closeAll() {
+         ArrayList<CursorWindow> windows;
+         synchronized (this) {
+            mClosed = true;
+            windows = new ArrayList<CursorWindow>(mWindows);
+            mWindows.clear();
+            sPooledCursorWindowCount.addAndGet(-windows.size());
+         }
+         for (CursorWindow window : windows) {
+            window.close();
+         }
+      }
+
+      int getCapacity(String sql) {
+         Integer capacity = mCapacities.get(sql);
+         return (capacity == null) ? 0 : capacity;
+      }
+
+      void noteCapacity(String sql, int rowsInWindow) {
+         if (rowsInWindow > 0) {
+            mCapacities.put(sql, rowsInWindow);
+         }
+      }
+
+      void dump(StringBuilder b) {
+         int pooled;
+         synchronized (this) {
+            pooled = mWindows.size();
+         }
+         b.append("  Cursor window pool: ").append(pooled).append(" of ")
+             .append(CURSOR_WINDOW_POOL_SIZE).append(" windows (")
+             .append(sPooledCursorWindowCount.get()).append(" of ")
+             .append(MAX_POOLED_CURSOR_WINDOWS).append(" in process); capacity hitCount: ")
+             .append(mCapacities.hitCount()).append(" missCount: ")
+             .append(mCapacities.missCount()).append("\n");
+      }
+   }
+
 
    private final class PreparedStatementCache {
 
-       private final class PreparedStatementCacheImpl
-            extends LruCache<String, PreparedStatement> {
+       /**
+        * LRU map of SQL to prepared statement whose capacity adapts
+        * to the diversity of the statements being executed.
+        * <p>
+        * The keys of recently evicted statements are remembered. Every adaptation
+        * window (a number of lookups proportional to the capacity), the capacity
+        * grows if a significant fraction of misses were for statements that had
+        * been evicted (i.e., the cache was thrashing), or shrinks towards the
+        * number of distinct statements actually used in the window.
+        * The capacity stays between the configured maxSqlCacheSize and
+        * MAX_ADAPTIVE_SQL_CACHE_SIZE.
+        * <p>
+        * Access only within synchronized(impl).
+        */
+       private final class PreparedStatementCacheImpl {
+          private final LinkedHashMap<String, PreparedStatement> map =
+              new LinkedHashMap<String, PreparedStatement>(32, 0.75f, true);
+          private final LinkedHashMap<String, Boolean> evictedKeys =
+              new LinkedHashMap<String, Boolean>(32, 0.75f, false);
+          private final int minCapacity;
+          private final int maxCapacity;
+          private int capacity;
+
+          private int hitCount = 0;
+          private int missCount = 0;
+          private int evictionCount = 0;
+          private int evictedMissCount = 0;
+          private int growCount = 0;
+          private int shrinkCount = 0;
+
+          private int window = 0;
+          private int windowLookups = 0;
+          private int windowEvictedMisses = 0;
+          private int windowDistinct = 0;
+
           public PreparedStatementCacheImpl(int size) {
-             super(size);
+             minCapacity = size;
+             maxCapacity = (size == 0) ? 0 : Math.max(size, MAX_ADAPTIVE_SQL_CACHE_SIZE);
+             capacity = size;
+          }
+
+          /**
+           * Look up a statement for execution. Counts towards the statistics.
+           */
+          PreparedStatement lookup(String sql) {
+             PreparedStatement statement = map.get(sql);
+             if (statement != null) {
+                ++hitCount;
+                noteUsed(statement);
+             } else {
+                ++missCount;
+                if (evictedKeys.remove(sql) != null) {
+                   ++evictedMissCount;
+                   ++windowEvictedMisses;
+                }
+             }
+             if (++windowLookups >= Math.max(MIN_ADAPTATION_WINDOW, 4 * capacity)) {
+                adapt();
+             }
+             return statement;
+          }
+
+          /**
+           * Look up a statement without affecting the statistics.
+           */
+          PreparedStatement peek(String sql) {
+             return map.get(sql);
+          }
+
+          void put(String sql, PreparedStatement statement) {
+             PreparedStatement old = map.put(sql, statement);
+             evictedKeys.remove(sql);
+             noteUsed(statement);
+             if (old != null && old != statement) {
+                entryRemoved(old);
+             }
+             trimToCapacity();
+          }
+
+          void remove(String sql) {
+             PreparedStatement old = map.remove(sql);
+             if (old != null) {
+                entryRemoved(old);
+             }
+          }
+
+          void evictAll() {
+             ArrayList<PreparedStatement> statements = new ArrayList<PreparedStatement>(map.values());
+             map.clear();
+             for (PreparedStatement statement : statements) {
+                entryRemoved(statement);
+             }
+          }
+
+          int size() {
+             return map.size();
+          }
+
+          private void noteUsed(PreparedStatement statement) {
+             if (statement.mUseWindow != window) {
+                statement.mUseWindow = window;
+                ++windowDistinct;
+             }
           }
 
-          @Override protected void entryRemoved(boolean evicted, String key, PreparedStatement oldValue, PreparedStatement newValue) {
+          private void adapt() {
+             int newCapacity = capacity;
+             if (windowEvictedMisses * 8 > windowLookups) {
+                // more than 1/8th of the lookups were for recently-evicted statements
+                newCapacity = Math.min(maxCapacity, capacity + Math.max(capacity / 2, 1));
+             } else if (windowEvictedMisses == 0 && 2 * windowDistinct < capacity) {
+                // fewer distinct statements than the capacity warrants
+                newCapacity = Math.max(minCapacity, Math.max(2 * windowDistinct, (3 * capacity) / 4));
+             }
+             if (newCapacity > capacity) {
+                ++growCount;
+             } else if (newCapacity < capacity) {
+                ++shrinkCount;
+             }
+             capacity = newCapacity;
+             trimToCapacity();
+
+             ++window;
+             windowLookups = 0;
+             windowEvictedMisses = 0;
+             windowDistinct = 0;
+          }
+
+          private void trimToCapacity() {
+             Iterator<Map.Entry<String, PreparedStatement>> it = map.entrySet().iterator();
+             while (map.size() > capacity && it.hasNext()) {
+                Map.Entry<String, PreparedStatement> eldest = it.next();
+                it.remove();
+                ++evictionCount;
+                evictedKeys.put(eldest.getKey(), Boolean.TRUE);
+                entryRemoved(eldest.getValue());
+             }
+             Iterator<String> itKeys = evictedKeys.keySet().iterator();
+             while (evictedKeys.size() > maxCapacity && itKeys.hasNext()) {
+                itKeys.next();
+                itKeys.remove();
+             }
+          }
+
+          private void entryRemoved(PreparedStatement oldValue) {
              if (!oldValue.mInUse) {
                 releasePreparedStatement(oldValue);
              }
           }
 
           public void dump(StringBuilder b) {
-             b.append("  Prepared statement cache:\n");
-             Map<String, PreparedStatement> cache = snapshot();
-             if (!cache.isEmpty()) {
+             b.append("  Prepared statement cache: capacity=").append(capacity)
+                 .append(" (").append(minCapacity).append("..").append(maxCapacity)
+                 .append("), evictions=").append(evictionCount)
+                 .append(", missesOfEvicted=").append(evictedMissCount)
+                 .append(", grown=").append(growCount)
+                 .append(", shrunk=").append(shrinkCount).append("\n");
+             if (!map.isEmpty()) {
                 int i = 0;
-                for (Map.Entry<String, PreparedStatement> entry : cache.entrySet()) {
+                // snapshot: iteration must not disturb the access order
+                for (Map.Entry<String, PreparedStatement> entry :
+                    new ArrayList<Map.Entry<String, PreparedStatement>>(map.entrySet())) {
                    PreparedStatement statement = entry.getValue();
                    String sql = entry.getKey();
                    b.append("    " + i
@@ -2463,13 +2872,25 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
 
       int hitCount() {
          synchronized (impl) {
-            return impl.hitCount();
+            return impl.hitCount;
          }
       }
 
       int missCount() {
          synchronized (impl) {
-            return impl.missCount();
+            return impl.missCount;
+         }
+      }
+
+      int evictionCount() {
+         synchronized (impl) {
+            return impl.evictionCount;
+         }
+      }
+
+      int capacity() {
+         synchronized (impl) {
+            return impl.capacity;
          }
       }
 
@@ -2488,7 +2909,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
       PreparedStatement acquirePreparedStatement(String sql) {
          synchronized (impl) {
             // see if we have a not-in-use one already in the cache...
-            PreparedStatement existing = impl.get(sql);
+            PreparedStatement existing = impl.lookup(sql);
 
             if (existing != null && !existing.mInUse) {
                // we found one - mark it as in-use and return it
@@ -2519,7 +2940,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
             } catch (RuntimeException ex) {
                // Finalize the statement if an exception occurred and we did not add
                // it to the cache.  If it is already in the cache, then leave it there.
-               PreparedStatement ref = impl.get(sql);
+               PreparedStatement ref = impl.peek(sql);
                if ( ref == statement ) {
                   // remove will trigger releasePreparedStatement()
                   impl.remove(sql);
@@ -2539,7 +2960,7 @@ public final class SQLiteConnection extends SQLiteClosable implements Cancellati
        */
       void releasePreparedStatement(PreparedStatement statement) {
          synchronized (impl) {
-            PreparedStatement existing = impl.get(statement.mSql);
+            PreparedStatement existing = impl.peek(statement.mSql);
             if (existing == statement) {
                try {
                   if ( mConnectionPtr != 0L && statement.mStatementPtr != 0L ) {
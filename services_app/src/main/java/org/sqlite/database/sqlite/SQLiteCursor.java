@@ -33,8 +33,18 @@ public class SQLiteCursor implements CrossProcessCursor {
 
    public SQLiteCursor(SQLiteConnection connection, String[] columnNames, String sqlQuery,
        Object[] bindArgs, CancellationSignal cancellationSignal) {
+      this(connection, columnNames, sqlQuery, bindArgs, cancellationSignal, false);
+   }
+
+   /**
+    * @param deferCount true if the rows of the result should only be counted
+    *                   when getCount() requires it. Moving through the rows
+    *                   does not then force them all to be enumerated.
+    */
+   public SQLiteCursor(SQLiteConnection connection, String[] columnNames, String sqlQuery,
+       Object[] bindArgs, CancellationSignal cancellationSignal, boolean deferCount) {
       impl = new SQLiteUnsafeCursor(this, connection, columnNames, sqlQuery, bindArgs,
-                                    cancellationSignal);
+                                    cancellationSignal, deferCount);
    }
 
    @Override public CursorWindow getWindow() {
@@ -42,6 +52,8 @@ public class SQLiteCursor implements CrossProcessCursor {
          impl.throwIfClosed();
          // verified that CursorWindow does not contain
          // any information about the sourcing impl.
+         // The caller may hold onto the window, so it must not be pooled.
+         impl.noteWindowEscaped();
          return impl.getWindow();
       }
    }
@@ -79,21 +91,21 @@ public class SQLiteCursor implements CrossProcessCursor {
    @Override public boolean move(int offset) {
       synchronized (impl) {
          impl.throwIfClosed();
-         return impl.move(offset);
+         return impl.moveToPositionDeferred(impl.getPosition() + offset);
       }
    }
 
    @Override public boolean moveToPosition(int position) {
       synchronized (impl) {
          impl.throwIfClosed();
-         return impl.moveToPosition(position);
+         return impl.moveToPositionDeferred(position);
       }
    }
 
    @Override public boolean moveToFirst() {
       synchronized (impl) {
          impl.throwIfClosed();
-         return impl.moveToFirst();
+         return impl.moveToPositionDeferred(0);
       }
    }
 
@@ -107,14 +119,14 @@ public class SQLiteCursor implements CrossProcessCursor {
    @Override public boolean moveToNext() {
       synchronized (impl) {
          impl.throwIfClosed();
-         return impl.moveToNext();
+         return impl.moveToPositionDeferred(impl.getPosition() + 1);
       }
    }
 
    @Override public boolean moveToPrevious() {
       synchronized (impl) {
          impl.throwIfClosed();
-         return impl.moveToPrevious();
+         return impl.moveToPositionDeferred(impl.getPosition() - 1);
       }
    }
 
@@ -22,6 +22,8 @@ package org.sqlite.database.sqlite;
 
 import android.util.Log;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Provides debugging info about all SQLite databases running in the current process.
  *
@@ -62,9 +64,101 @@ public final class SQLiteDebug {
      */
     public static final boolean DEBUG_LOG_SLOW_QUERIES = false;
 
+    /**
+     * CursorWindow statistics across all connections in this process.
+     */
+    private static final AtomicLong sWindowsAllocated = new AtomicLong();
+    private static final AtomicLong sWindowsReused = new AtomicLong();
+    private static final AtomicLong sWindowFills = new AtomicLong();
+    private static final AtomicLong sWindowRefills = new AtomicLong();
+    private static final AtomicLong sFullWindowFills = new AtomicLong();
+    private static final AtomicLong sFullWindowRows = new AtomicLong();
+
     private SQLiteDebug() {
     }
 
+    /**
+     * Snapshot of the CursorWindow statistics.
+     */
+    public static final class CursorWindowStats {
+        /** number of CursorWindows that were newly allocated */
+        public final long windowsAllocated;
+        /** number of CursorWindows that were taken from a connection's pool */
+        public final long windowsReused;
+        /** number of times a query was executed to fill a window */
+        public final long windowFills;
+        /**
+         * number of those fills that re-executed a query because the cursor
+         * moved outside of its current window
+         */
+        public final long windowRefills;
+        /** number of fills that stopped because the window was full */
+        public final long fullWindowFills;
+        /** total rows held by those full windows */
+        public final long fullWindowRows;
+
+        CursorWindowStats(long windowsAllocated, long windowsReused, long windowFills,
+                long windowRefills, long fullWindowFills, long fullWindowRows) {
+            this.windowsAllocated = windowsAllocated;
+            this.windowsReused = windowsReused;
+            this.windowFills = windowFills;
+            this.windowRefills = windowRefills;
+            this.fullWindowFills = fullWindowFills;
+            this.fullWindowRows = fullWindowRows;
+        }
+
+        /**
+         * @return the average number of rows that fit in a window, or 0 if no
+         * window has yet been filled to capacity.
+         */
+        public long getAverageRowsPerFullWindow() {
+            return (fullWindowFills == 0) ? 0 : (fullWindowRows / fullWindowFills);
+        }
+    }
+
+    static void noteWindowAcquired(boolean reused) {
+        if (reused) {
+            sWindowsReused.incrementAndGet();
+        } else {
+            sWindowsAllocated.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param rowsInWindow number of rows placed in the window.
+     * @param windowIsFull true if the fill stopped because the window was full.
+     * @param refill true if the cursor had already filled a window.
+     */
+    static void noteWindowFill(int rowsInWindow, boolean windowIsFull, boolean refill) {
+        sWindowFills.incrementAndGet();
+        if (refill) {
+            sWindowRefills.incrementAndGet();
+        }
+        if (windowIsFull) {
+            sFullWindowFills.incrementAndGet();
+            sFullWindowRows.addAndGet(rowsInWindow);
+        }
+    }
+
+    /**
+     * @return a snapshot of the CursorWindow statistics of this process.
+     */
+    public static CursorWindowStats getCursorWindowStats() {
+        return new CursorWindowStats(sWindowsAllocated.get(), sWindowsReused.get(),
+                sWindowFills.get(), sWindowRefills.get(), sFullWindowFills.get(),
+                sFullWindowRows.get());
+    }
+
+    public static void dumpCursorWindowStats(StringBuilder b) {
+        CursorWindowStats stats = getCursorWindowStats();
+        b.append("CursorWindows allocated: ").append(stats.windowsAllocated)
+            .append(" reused: ").append(stats.windowsReused)
+            .append(" fills: ").append(stats.windowFills)
+            .append(" refills: ").append(stats.windowRefills)
+            .append(" avgRowsPerFullWindow: ").append(stats.getAverageRowsPerFullWindow())
+            .append("\n");
+    }
+
     /**
      * Determines whether a query should be logged.
      *
@@ -24,6 +24,7 @@ import android.os.CancellationSignal;
 import android.os.OperationCanceledException;
 
 import android.database.AbstractWindowedCursor;
+import android.database.CursorIndexOutOfBoundsException;
 import android.database.CursorWindow;
 import android.util.Log;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
@@ -125,6 +126,14 @@ class SQLiteUnsafeCursor extends AbstractWindowedCursor {
     */
    private final SQLiteCursor mEnclosingCursor;
 
+   /**
+    * If true, the number of rows is not counted when the window is first
+    * filled. It is only computed if getCount() is called and the rows
+    * enumerated so far do not reveal it.
+    * Thread-safe.
+    */
+   private final boolean mDeferCount;
+
    /************************************************************************************
     * These fields ARE NOT THREAD SAFE.
     * synchronize on this object before accessing/manipulating them.
@@ -136,6 +145,16 @@ class SQLiteUnsafeCursor extends AbstractWindowedCursor {
     /** The number of rows that can fit in the cursor window, 0 if unknown */
     private int mCursorWindowCapacity;
 
+    /** The number of times the query has been executed to fill the window */
+    private int mFillCount = 0;
+
+    /**
+     * True if the window has been handed out through getWindow().
+     * Such a window may be referenced elsewhere and is not returned to the
+     * connection's pool.
+     */
+    private boolean mWindowEscaped = false;
+
     private SQLiteConnection mConnection;
 
    /**
@@ -151,11 +170,13 @@ class SQLiteUnsafeCursor extends AbstractWindowedCursor {
     * @param sqlQuery
     * @param bindArgs caller should NOT modify this array upon return.
     * @param cancellationSignal
+    * @param deferCount true to not count all the rows of the result when the
+    *                   window is first filled (see moveToPositionDeferred()).
     */
     public SQLiteUnsafeCursor(SQLiteCursor enclosingCursor,
         SQLiteConnection connection, String[]
         columnNames, String sqlQuery,
-        Object[] bindArgs, CancellationSignal cancellationSignal) {
+        Object[] bindArgs, CancellationSignal cancellationSignal, boolean deferCount) {
         if (sqlQuery == null) {
             throw new IllegalArgumentException("sqlQuery cannot be null");
         }
@@ -183,8 +204,11 @@ class SQLiteUnsafeCursor extends AbstractWindowedCursor {
         mSqlQuery = sqlQuery;
         mBindArgs = bindArgs;
         mCancellationSignal = cancellationSignal;
+        mDeferCount = deferCount;
         mAppName = connection.getAppName();
         mSessionQualifier = connection.getSessionQualifier();
+        // start with what a previous cursor on this query learned about the window
+        mCursorWindowCapacity = connection.getObservedCursorWindowCapacity(sqlQuery);
     }
 
     public String getSql() {
@@ -215,32 +239,107 @@ class SQLiteUnsafeCursor extends AbstractWindowedCursor {
     @Override
     public int getCount() {
         if (mCount == NO_COUNT) {
-            fillWindow(0);
+            // keep the window positioned around the current row
+            fillWindow(Math.max(mPos, 0), true);
         }
         return mCount;
     }
 
+   /**
+    * Equivalent to moveToPosition(), but, if counting is deferred and the
+    * number of rows is not yet known, does not force all the rows of the
+    * result to be counted. Moving past the last row is detected when the
+    * window is filled from that position.
+    *
+    * @param position
+    * @return true if the cursor is positioned on a row.
+    */
+    boolean moveToPositionDeferred(int position) {
+        if (!mDeferCount || mCount != NO_COUNT) {
+            return moveToPosition(position);
+        }
+        if (position < 0) {
+            mPos = -1;
+            return false;
+        }
+        if (position == mPos) {
+            return true;
+        }
+        if (mWindow == null || position < mWindow.getStartPosition() ||
+            position >= (mWindow.getStartPosition() + mWindow.getNumRows())) {
+            fillWindow(position, false);
+            if (mCount != NO_COUNT && position >= mCount) {
+                mPos = mCount;
+                return false;
+            }
+        }
+        mPos = position;
+        return true;
+    }
+
+    @Override
+    protected void checkPosition() {
+        if (mDeferCount && mCount == NO_COUNT) {
+            // don't force the count -- the row must be in the window
+            if (mWindow == null || mPos < mWindow.getStartPosition() ||
+                mPos >= (mWindow.getStartPosition() + mWindow.getNumRows())) {
+                throw new CursorIndexOutOfBoundsException("Index " + mPos
+                    + " requested, which is not in the current window");
+            }
+            return;
+        }
+        super.checkPosition();
+    }
+
     /* 
     ** The AbstractWindowClass contains protected methods clearOrCreateWindow() and
     ** closeWindow(), which are used by the android.database.sqlite.* version of this
     ** class. But, since they are marked with "@hide", the following replacement 
     ** versions are required.
     */
-    private void awc_clearOrCreateWindow(String name){
+    private void awc_clearOrCreateWindow(){
       CursorWindow win = getWindow();
       if( win==null ){
-        win = new CursorWindow(name);
+        // reuse a window released by an earlier cursor on this connection
+        win = mConnection.acquireCursorWindow();
         setWindow(win);
       }else{
         win.clear();
       }
     }
 
+    /**
+     * Note that the window has been handed out and may be referenced by others.
+     */
+    void noteWindowEscaped() {
+      mWindowEscaped = true;
+    }
+
+    /**
+     * Record the outcome of a fill for the statistics and for positioning
+     * later fills of this query.
+     *
+     * @param windowIsFull true if rows of the result did not fit in the window.
+     */
+    private void noteFill(boolean windowIsFull) {
+      int rowsInWindow = mWindow.getNumRows();
+      SQLiteDebug.noteWindowFill(rowsInWindow, windowIsFull, mFillCount > 0);
+      ++mFillCount;
+      if (windowIsFull) {
+        mCursorWindowCapacity = rowsInWindow;
+        mConnection.noteCursorWindowCapacity(mSqlQuery, rowsInWindow);
+      }
+    }
+
     private void awc_closeWindow(){
       setWindow(null);
     }
 
     private void fillWindow(int requiredPos) {
+       fillWindow(requiredPos, !mDeferCount);
+    }
+
+    private void fillWindow(int requiredPos, boolean countAllRows) {
        if (isClosed()) {
           throw new SQLiteException("cursor is closed");
        }
@@ -249,19 +348,42 @@ class SQLiteUnsafeCursor extends AbstractWindowedCursor {
           throw new SQLiteException("cursor's connection (" + mSessionQualifier + ") is closed");
        }
 
-        awc_clearOrCreateWindow(mConnection.getPath());
+        awc_clearOrCreateWindow();
 
         try {
-            if (mCount == NO_COUNT) {
-                int startPos = cursorPickFillWindowStartPosition(requiredPos, 0);
+            if (mCount == NO_COUNT && countAllRows) {
+                int startPos = cursorPickFillWindowStartPosition(requiredPos, mCursorWindowCapacity);
                 mCount = fillWindow(mWindow, startPos, requiredPos, true);
-                mCursorWindowCapacity = mWindow.getNumRows();
+                noteFill(mWindow.getStartPosition() + mWindow.getNumRows() < mCount);
+                if (mCursorWindowCapacity == 0) {
+                    mCursorWindowCapacity = mWindow.getNumRows();
+                }
                 mWebLogger.d(TAG, "connection:" + mSessionQualifier + " received count(*) "
                     + "from native_fill_window: " + mCount);
+            } else if (mCount == NO_COUNT) {
+                // deferred count: the native layer reports one more row than
+                // the window holds if there are rows beyond the window. Older
+                // native libraries do not, so a window that ends exactly where
+                // the enumeration stopped may have been full -- more rows may
+                // follow. Only when the required row is missing do we know
+                // that the result has ended.
+                int startPos = cursorPickFillWindowStartPosition(requiredPos, mCursorWindowCapacity);
+                int enumeratedRows = fillWindow(mWindow, startPos, requiredPos, false);
+                int endOfWindow = mWindow.getStartPosition() + mWindow.getNumRows();
+                if (enumeratedRows < endOfWindow ||
+                    (enumeratedRows == endOfWindow && requiredPos >= endOfWindow)) {
+                    // every row of the result was enumerated
+                    mCount = enumeratedRows;
+                }
+                noteFill(enumeratedRows > endOfWindow);
+                if (mCursorWindowCapacity == 0) {
+                    mCursorWindowCapacity = mWindow.getNumRows();
+                }
             } else {
                 int startPos = cursorPickFillWindowStartPosition(requiredPos,
                         mCursorWindowCapacity);
                 fillWindow(mWindow, startPos, requiredPos, false);
+                noteFill(mWindow.getStartPosition() + mWindow.getNumRows() < mCount);
             }
         } catch (RuntimeException ex) {
             // Close the cursor window if the query failed and therefore will
@@ -361,6 +483,14 @@ class SQLiteUnsafeCursor extends AbstractWindowedCursor {
 
     @Override
     public void close() {
+       // detach the window before super.close() closes it so that it
+       // can be returned to the connection's pool.
+       CursorWindow window = mWindow;
+       if (window != null && !mWindowEscaped && mConnection != null) {
+          mWindow = null;
+          mConnection.releaseCursorWindow(window);
+       }
+
        super.close();
 
        try {